@@ -0,0 +1,378 @@
+package pt.sapo.mobile.android.connect;
+
+import java.util.Arrays;
+
+import pt.sapo.mobile.android.connect.system.Log;
+import android.os.SystemClock;
+
+/**
+ * Measures where the time goes in a SAPO Connect login attempt. Each phase of the OAuth process is timestamped with the
+ * monotonic SystemClock.elapsedRealtime() clock, and when the attempt ends a Report is delivered to the registered
+ * OnLoginReportListener. The time-to-logged-in of the successful attempts is also kept in a rolling window, so that the
+ * p50/p95 values can be tracked across application releases.
+ *
+ * Simple usage (e.g. in the Application onCreate()):
+ *
+ * LoginTracer.setOnLoginReportListener(new OnLoginReportListener() {
+ *     @Override
+ *     public void onLoginReport(Report report) {
+ *         myAnalytics.track("login", report.toString());
+ *     }
+ * });
+ *
+ * LoginTracer.Summary summary = LoginTracer.getSummary();
+ */
+public class LoginTracer {
+
+	/**
+	 * Log tag for this class.
+	 */
+	private static final String TAG = "LoginTracer";
+
+	/**
+	 * The phases of a login attempt, in the order they usually happen.
+	 */
+	public enum Phase {
+		/** Obtaining the OAuth request token from SAPO ID. */
+		REQUEST_TOKEN,
+		/** Checking the device time against the NTP server. */
+		NTP_CHECK,
+		/** Loading the SAPO ID authorization page in the WebView. */
+		AUTHORIZE_PAGE_LOAD,
+		/** The user filling in the credentials and accepting the authorization request. */
+		USER_INTERACTION,
+		/** Exchanging the request token for the access token. */
+		ACCESS_TOKEN,
+		/** Storing the tokens and secrets in the SharedPreferences. */
+		PREFERENCES_WRITE
+	}
+
+	/**
+	 * Receives the Report of every finished login attempt. It is invoked in the thread that ended the attempt, which may
+	 * be the UI thread, so implementations should return quickly.
+	 */
+	public interface OnLoginReportListener {
+		void onLoginReport(Report report);
+	}
+
+	/**
+	 * The number of successful attempts kept for the percentile summary.
+	 */
+	private static final int SUMMARY_WINDOW_SIZE = 64;
+
+	/**
+	 * Rolling window with the time-to-logged-in, in milliseconds, of the last successful attempts.
+	 */
+	private static final long[] summaryWindow = new long[SUMMARY_WINDOW_SIZE];
+
+	/**
+	 * Total number of successful attempts added to the summaryWindow.
+	 */
+	private static int summaryCount;
+
+	/**
+	 * Sequential identifier for the attempts.
+	 */
+	private static int attemptSequence;
+
+	/**
+	 * The optional listener for the login reports.
+	 */
+	private static volatile OnLoginReportListener onLoginReportListener;
+
+	/**
+	 * Identifier of the current attempt.
+	 */
+	private int attemptId;
+
+	/**
+	 * True while an attempt is being traced.
+	 */
+	private boolean active;
+
+	/**
+	 * The last phase started in the current attempt.
+	 */
+	private Phase lastPhase;
+
+	/**
+	 * Start time of the current attempt.
+	 */
+	private long attemptStart;
+
+	/**
+	 * Start time of each running phase, or -1 if the phase is not running.
+	 */
+	private final long[] phaseStart = new long[Phase.values().length];
+
+	/**
+	 * Accumulated duration of each phase, or -1 if the phase was never reached.
+	 */
+	private final long[] phaseDuration = new long[Phase.values().length];
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                          LISTENER AND SUMMARY                                              //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Registers the listener that will receive the Report of every login attempt.
+	 *
+	 * @param listener The listener, or NULL to stop receiving reports.
+	 */
+	public static void setOnLoginReportListener(OnLoginReportListener listener) {
+		onLoginReportListener = listener;
+	}
+
+	/**
+	 * Computes the percentile summary of the time-to-logged-in for the last successful attempts.
+	 *
+	 * @return The Summary with the p50 and p95 values, in milliseconds.
+	 */
+	public static Summary getSummary() {
+		long[] samples;
+		synchronized (summaryWindow) {
+			samples = new long[Math.min(summaryCount, SUMMARY_WINDOW_SIZE)];
+			System.arraycopy(summaryWindow, 0, samples, 0, samples.length);
+		}
+		Arrays.sort(samples);
+		return new Summary(samples.length, percentile(samples, 50), percentile(samples, 95));
+	}
+
+	/**
+	 * Nearest-rank percentile of an already sorted array.
+	 */
+	private static long percentile(long[] sortedSamples, int percentile) {
+		if (sortedSamples.length == 0) {
+			return -1;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * sortedSamples.length);
+		return sortedSamples[Math.max(rank, 1) - 1];
+	}
+
+	private static void addToSummary(long timeToLoggedIn) {
+		synchronized (summaryWindow) {
+			summaryWindow[summaryCount % SUMMARY_WINDOW_SIZE] = timeToLoggedIn;
+			summaryCount++;
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            ATTEMPT TRACING                                                 //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Starts tracing a new login attempt. If there was an unfinished attempt, it is reported as failed.
+	 */
+	public void begin() {
+		deliver(end(false));
+		synchronized (this) {
+			synchronized (LoginTracer.class) {
+				attemptId = ++attemptSequence;
+			}
+			Arrays.fill(phaseStart, -1);
+			Arrays.fill(phaseDuration, -1);
+			lastPhase = null;
+			attemptStart = SystemClock.elapsedRealtime();
+			active = true;
+		}
+	}
+
+	/**
+	 * Marks the start of a phase in the current attempt.
+	 *
+	 * @param phase The phase that is starting.
+	 */
+	public synchronized void startPhase(Phase phase) {
+		if (active) {
+			phaseStart[phase.ordinal()] = SystemClock.elapsedRealtime();
+			lastPhase = phase;
+		}
+	}
+
+	/**
+	 * Marks the end of a phase in the current attempt. If the same phase runs more than once, the durations are added.
+	 *
+	 * @param phase The phase that has ended.
+	 */
+	public synchronized void endPhase(Phase phase) {
+		int index = phase.ordinal();
+		if (active && phaseStart[index] >= 0) {
+			long duration = SystemClock.elapsedRealtime() - phaseStart[index];
+			phaseDuration[index] = Math.max(phaseDuration[index], 0) + duration;
+			phaseStart[index] = -1;
+		}
+	}
+
+	/**
+	 * Determines if a phase is running in the current attempt.
+	 *
+	 * @param phase The phase to check.
+	 * @return True if the phase was started and has not ended yet.
+	 */
+	public synchronized boolean isPhaseRunning(Phase phase) {
+		return active && phaseStart[phase.ordinal()] >= 0;
+	}
+
+	/**
+	 * Ends the current attempt and delivers its Report. Does nothing if there is no attempt being traced.
+	 *
+	 * @param success True if the user is now logged in.
+	 */
+	public void finish(boolean success) {
+		deliver(end(success));
+	}
+
+	/**
+	 * Ends the current attempt, closing any running phase.
+	 *
+	 * @param success True if the user is now logged in.
+	 * @return The Report of the attempt, or NULL if there was no attempt being traced.
+	 */
+	private synchronized Report end(boolean success) {
+		if (!active) {
+			return null;
+		}
+		active = false;
+
+		long now = SystemClock.elapsedRealtime();
+		for (Phase phase: Phase.values()) {
+			int index = phase.ordinal();
+			if (phaseStart[index] >= 0) {
+				// The phase was interrupted by the end of the attempt.
+				phaseDuration[index] = Math.max(phaseDuration[index], 0) + now - phaseStart[index];
+				phaseStart[index] = -1;
+			}
+		}
+
+		return new Report(attemptId, success, success ? null : lastPhase, now - attemptStart, phaseDuration.clone());
+	}
+
+	/**
+	 * Adds the Report to the summary, if successful, and passes it on to the listener.
+	 *
+	 * @param report The Report to deliver. May be NULL.
+	 */
+	private static void deliver(Report report) {
+		if (report == null) {
+			return;
+		}
+		if (report.isSuccess()) {
+			addToSummary(report.getTotalTime());
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, report.toString());
+		}
+
+		OnLoginReportListener listener = onLoginReportListener;
+		if (listener != null) {
+			listener.onLoginReport(report);
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                          REPORT AND SUMMARY                                                //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * The timings of a single login attempt. All times are in milliseconds.
+	 */
+	public static class Report {
+
+		private final int attemptId;
+		private final boolean success;
+		private final Phase failedPhase;
+		private final long totalTime;
+		private final long[] phaseDuration;
+
+		private Report(int attemptId, boolean success, Phase failedPhase, long totalTime, long[] phaseDuration) {
+			this.attemptId = attemptId;
+			this.success = success;
+			this.failedPhase = failedPhase;
+			this.totalTime = totalTime;
+			this.phaseDuration = phaseDuration;
+		}
+
+		public int getAttemptId() {
+			return attemptId;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		/**
+		 * @return The last phase reached by a failed attempt, or NULL if successful.
+		 */
+		public Phase getFailedPhase() {
+			return failedPhase;
+		}
+
+		/**
+		 * @return The time from the start of the attempt until it ended (time-to-logged-in, if successful).
+		 */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/**
+		 * @param phase The phase.
+		 * @return The time spent in the phase, or -1 if the attempt never reached it.
+		 */
+		public long getPhaseDuration(Phase phase) {
+			return phaseDuration[phase.ordinal()];
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("LoginReport:");
+			sb.append("\n    Attempt             = ").append(attemptId);
+			sb.append("\n    Success             = ").append(success);
+			if (failedPhase != null) {
+				sb.append("\n    Failed Phase        = ").append(failedPhase);
+			}
+			sb.append("\n    Total Time          = ").append(totalTime);
+			for (Phase phase: Phase.values()) {
+				sb.append("\n    ").append(phase).append(" = ").append(phaseDuration[phase.ordinal()]);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Percentile summary of the time-to-logged-in of the last successful attempts. All times are in milliseconds, and
+	 * are -1 if there are no samples yet.
+	 */
+	public static class Summary {
+
+		private final int samples;
+		private final long p50;
+		private final long p95;
+
+		private Summary(int samples, long p50, long p95) {
+			this.samples = samples;
+			this.p50 = p50;
+			this.p95 = p95;
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP95() {
+			return p95;
+		}
+
+		@Override
+		public String toString() {
+			return "LoginSummary: samples=" + samples + "; p50=" + p50 + "; p95=" + p95;
+		}
+	}
+
+}
@@ -7,6 +7,11 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.oauth.OAuth;
 import net.oauth.OAuthAccessor;
@@ -24,8 +29,11 @@ import org.apache.http.client.HttpClient;
 
 import pt.sapo.mobile.android.connect.exception.SapoException;
 import pt.sapo.mobile.android.connect.http.ConnectHttpClientConfiguration;
+import pt.sapo.mobile.android.connect.http.DnsCache;
 import pt.sapo.mobile.android.connect.http.MyHttpClient;
 import pt.sapo.mobile.android.connect.ntp.NTPClient;
+import pt.sapo.mobile.android.connect.network.RequestTrace;
+import pt.sapo.mobile.android.connect.network.RequestTrace.Span;
 import pt.sapo.mobile.android.connect.system.Log;
 import pt.sapo.mobile.android.connect.system.VersionCodes;
 import pt.sapo.mobile.android.connect.system.sharedpreference.SharedPreferencesOperations;
@@ -34,6 +42,8 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
@@ -149,6 +159,28 @@ public abstract class SAPOConnect extends Activity {
 	private static final String USER_SECRET = "user_secret";
 	private static final String USER_REGISTERED = "user_registered";
 	
+	/**
+	 * In-memory snapshot of the stored credentials and login state. NULL until they are loaded. It is replaced as a
+	 * whole on every change, so reading it is a single volatile read.
+	 */
+	private static final AtomicReference<CredentialSnapshot> credentialSnapshot = new AtomicReference<CredentialSnapshot>();
+	
+	/**
+	 * Lock for the changes to the credentialSnapshot after it is loaded.
+	 */
+	private static final Object credentialSnapshotLock = new Object();
+	
+	/**
+	 * Keeps the credentialSnapshot in sync with changes made to the SharedPreferences file outside of this class. Held in
+	 * a static field because the SharedPreferences only keep weak references to their listeners.
+	 */
+	private static CredentialChangeListener credentialChangeListener;
+	
+	/**
+	 * The background load of the credentials started by preload(). NULL if it was never started.
+	 */
+	private static FutureTask<CredentialSnapshot> preloadTask;
+	
 	/**
 	 * The WebView to deal with all of the HTTPS calls and redirections. 
 	 */
@@ -174,6 +206,11 @@ public abstract class SAPOConnect extends Activity {
 	 */
 	private Handler handler;
 	
+	/**
+	 * Timestamps the phases of the login attempts made in this Activity.
+	 */
+	private final LoginTracer loginTracer = new LoginTracer();
+	
 	// ----------------------------------------------------------------------------------------------------------------------------------- //
     //                                                      ACTIVITY INITIALIZATION                                                        //
     // ----------------------------------------------------------------------------------------------------------------------------------- //
@@ -359,6 +396,23 @@ public abstract class SAPOConnect extends Activity {
 		Integer getCustomAlertDialogLayoutOneButton();
 	}
 	
+	/**
+	 * Callback for the headless logout started with logOutInBackground(). Allows the caller to update its UI once the
+	 * cookies and the stored credentials are gone, without having to start the SAPOConnect Activity.
+	 *
+	 * E.g.:
+	 *
+	 * SAPOConnect.logOutInBackground(handler, getApplicationContext(), new OnLogOutCompletedListener() {
+	 *     @Override
+	 *     public void onLogOutCompleted(Context context) {
+	 *         setLayout(false);
+	 *     }
+	 * });
+	 */
+	public interface OnLogOutCompletedListener {
+		void onLogOutCompleted(Context context);
+	}
+
 	/**
 	 * The optional additional logIn operations passed by the implementing class.
 	 */
@@ -443,13 +497,17 @@ public abstract class SAPOConnect extends Activity {
 	    }
 	    
 	    // Build the correct URLs
-	    sapoRequestTokenUrl = "https://" + sapoConnectUrl + sapoRequestTokenUrl;
-	    sapoAccessTokenUrl = "https://" + sapoConnectUrl + sapoAccessTokenUrl;
-	    sapoAuthorizeUrl = "https://" + sapoConnectUrl + sapoAuthorizeUrl;
-	    sapoAuthorizationDenied = "https://" + sapoConnectUrl + sapoAuthorizationDenied;
+	    String sapoConnectBaseUrl = getString(R.string.sapo_connect_scheme) + "://" + sapoConnectUrl;
+	    sapoRequestTokenUrl = sapoConnectBaseUrl + sapoRequestTokenUrl;
+	    sapoAccessTokenUrl = sapoConnectBaseUrl + sapoAccessTokenUrl;
+	    sapoAuthorizeUrl = sapoConnectBaseUrl + sapoAuthorizeUrl;
+	    sapoAuthorizationDenied = sapoConnectBaseUrl + sapoAuthorizationDenied;
 	    
 	    callbackUri = Uri.parse(callbackUrl);
 	    
+	    // Warm up the DNS lookups needed by the login while the Activity is being set up.
+	    DnsCache.getInstance().prefetch(sapoConnectUrl, NTPClient.SERVER_NAME);
+	    
 	    // Get the optional configuration from the implementing class.
 	    logInInterface = getAditionalLogInOperations();
 	    logOutInterface = getAditionalLogOutOperations();
@@ -530,11 +588,14 @@ public abstract class SAPOConnect extends Activity {
 						
 						@Override
 						public void onPageStarted(WebView view, String url, Bitmap favicon) {
-							Log.d(TAG, "onPageStarted() - Start URL=" + url);
+							if (Log.isLoggable(TAG, Log.DEBUG)) {
+								Log.d(TAG, "onPageStarted() - Start URL=%s", withoutQuery(url));
+							}
 							
 							if (url.startsWith(sapoAuthorizationDenied)) {
 								// It's the callback URL from a user authorization denied.
-								Log.d(TAG, "onPageStarted() - Detected control string in URL: " + sapoAuthorizationDenied);
+								Log.d(TAG, "onPageStarted() - Detected control string in URL: %s", sapoAuthorizationDenied);
+								loginTracer.finish(false);
 								loadEmptyPage();
 								showDialogOneButton(getString(R.string.sapo_connect_denied));
 								
@@ -567,6 +628,11 @@ public abstract class SAPOConnect extends Activity {
 						@Override
 						public void onPageFinished(WebView view, String url) {
 							super.onPageFinished(view, url);
+							if (loginTracer.isPhaseRunning(LoginTracer.Phase.AUTHORIZE_PAGE_LOAD)) {
+								// The authorization page is now visible. From here on, we are waiting for the user.
+								loginTracer.endPhase(LoginTracer.Phase.AUTHORIZE_PAGE_LOAD);
+								loginTracer.startPhase(LoginTracer.Phase.USER_INTERACTION);
+							}
 							if (windowTitleBarControlInterface != null) {
 								windowTitleBarControlInterface.stopRefreshAnimation();	
 							}
@@ -574,14 +640,18 @@ public abstract class SAPOConnect extends Activity {
 						
 						@Override
 						public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
-							Log.d(TAG, "onReceivedError() - failingUrl=" + failingUrl + "; errorCode=" + errorCode + "; description=" + description);
+							if (Log.isLoggable(TAG, Log.DEBUG)) {
+								Log.d(TAG, "onReceivedError() - failingUrl=%s; errorCode=%s; description=%s", withoutQuery(failingUrl), errorCode, description);
+							}
 							loadErrorPage(description);
 							super.onReceivedError(view, errorCode, description, failingUrl);
 						}		
 						
 						@Override
 					    public boolean shouldOverrideUrlLoading(WebView view, String url){
-							Log.d(TAG, "shouldOverrideUrlLoading() - URL=" + url);
+							if (Log.isLoggable(TAG, Log.DEBUG)) {
+								Log.d(TAG, "shouldOverrideUrlLoading() - URL=%s", withoutQuery(url));
+							}
 							
 							if (url.startsWith(callbackUrl)) {
 								
@@ -630,22 +700,16 @@ public abstract class SAPOConnect extends Activity {
 	 * @param url The Callback URL.
 	 */
 	private void captureCallback(String url) {
-		Log.d(TAG, "captureCallback() - Detected control string in URL: " + callbackUrl);
+		Log.d(TAG, "captureCallback() - Detected control string in URL: %s", callbackUrl);
+		loginTracer.endPhase(LoginTracer.Phase.USER_INTERACTION);
 		
 		if (windowTitleBarControlInterface != null) {
 			windowTitleBarControlInterface.startRefreshAnimation();	
 		}
 		
-		Uri uri = Uri.parse(url);
-		
-		String otoken = uri.getQueryParameter(OAuth.OAUTH_TOKEN);		// request_token
-		String verifier = uri.getQueryParameter(OAuth.OAUTH_VERIFIER);  // request_secret
-		
-		Log.d(TAG, "captureCallback() - Verifier=" + verifier + "; otoken=" + otoken);
-		
 		if (oAuthClient == null) {
 			Log.d(TAG, "captureCallback() - OAuthClient is NULL. Creating a new one.");
-			oAuthClient = new OAuthClient(new HttpClient4(new SsoHttpClient()));
+			oAuthClient = getOAuthClient();
 		}
 		
 		if (oAuthAccessor == null) {
@@ -656,11 +720,15 @@ public abstract class SAPOConnect extends Activity {
 		}
 		
 		try {
-			oAuthClient.getAccessToken(oAuthAccessor, null, OAuth.newList(OAuth.OAUTH_VERIFIER, verifier));
+			loginTracer.startPhase(LoginTracer.Phase.ACCESS_TOKEN);
+			obtainAccessToken(oAuthClient, oAuthAccessor, url);
+			loginTracer.endPhase(LoginTracer.Phase.ACCESS_TOKEN);
 			
-			Log.d(TAG, String.format("captureCallback() - oAuthAccessor.accessToken=%s, oAuthAccessor.tokenSecret=%s, oAuthAccessor.requestToken=%s", oAuthAccessor.accessToken, oAuthAccessor.tokenSecret, oAuthAccessor.requestToken));
+			Log.d(TAG, "captureCallback() - Received the Access Token.");
 			
+			loginTracer.startPhase(LoginTracer.Phase.PREFERENCES_WRITE);
 			saveAuthInformation(getApplicationContext(), oAuthAccessor.accessToken, oAuthAccessor.tokenSecret);
+			loginTracer.endPhase(LoginTracer.Phase.PREFERENCES_WRITE);
 			
 			// We have successfully finished with success the OAuth process. From now on, we don't need a WebView anymore.
 			loadEmptyPage();
@@ -698,6 +766,8 @@ public abstract class SAPOConnect extends Activity {
 			windowTitleBarControlInterface.startRefreshAnimation();	
 		}
 		
+		loginTracer.begin();
+		
 		final Runnable runnable = new Runnable() {
             public void run() {
             	try {
@@ -705,22 +775,29 @@ public abstract class SAPOConnect extends Activity {
         			OAuthConsumer oAuthConsumer = new OAuthConsumer(callbackUri.toString(), sapoConsumerKey, sapoConsumerSecret, oAuthServiceProvider);
         			oAuthAccessor = new OAuthAccessor(oAuthConsumer);
         			
-        			HttpClient4 httpClient4 = new HttpClient4(new SsoHttpClient());
-        			oAuthClient = new OAuthClient(httpClient4);
-        			oAuthClient.getRequestToken(oAuthAccessor, null, OAuth.newList(OAuth.OAUTH_CALLBACK, callbackUri.toString()));
+        			oAuthClient = getOAuthClient();
+        			loginTracer.startPhase(LoginTracer.Phase.REQUEST_TOKEN);
+        			String aUrl = obtainRequestToken(oAuthClient, oAuthAccessor);
+        			loginTracer.endPhase(LoginTracer.Phase.REQUEST_TOKEN);
 
+        			loginTracer.startPhase(LoginTracer.Phase.PREFERENCES_WRITE);
         			saveRequestInformation(getApplicationContext(), oAuthAccessor.requestToken, oAuthAccessor.tokenSecret);
-        			
-        			String aUrl = oAuthAccessor.consumer.serviceProvider.userAuthorizationURL +
-                        "?oauth_token=" + oAuthAccessor.requestToken +
-                        "&oauth_callback=" + URLEncoder.encode(oAuthAccessor.consumer.callbackURL);
+        			loginTracer.endPhase(LoginTracer.Phase.PREFERENCES_WRITE);
         			
         			// Initializes the NTP Client to get the Delta and Server time from the NTP Public Server.
-    				if (!checkNtpTime()) {
+        			loginTracer.startPhase(LoginTracer.Phase.NTP_CHECK);
+        			boolean ntpTimeOk = checkNtpTime();
+        			loginTracer.endPhase(LoginTracer.Phase.NTP_CHECK);
+        			
+    				if (!ntpTimeOk) {
+    					loginTracer.finish(false);
     					loadEmptyPage();
     					showDialogOneButton(getString(R.string.sapo_connect_time_offset));
     				} else {
-    					Log.d(TAG, "authenticate() - aUrl=" + aUrl);
+    					if (Log.isLoggable(TAG, Log.DEBUG)) {
+    						Log.d(TAG, "authenticate() - aUrl=%s", withoutQuery(aUrl));
+    					}
+    					loginTracer.startPhase(LoginTracer.Phase.AUTHORIZE_PAGE_LOAD);
             			webView.loadUrl(aUrl);	
     				}
         			
@@ -785,6 +862,8 @@ public abstract class SAPOConnect extends Activity {
 	@Override
 	protected void onDestroy() {
 		Log.d(TAG, "onDestroy() - Start");
+		// If the user left in the middle of a login attempt, it is reported as failed.
+		loginTracer.finish(false);
 		// Dumb, but crappy WebView OS implementation pre 2.2 requires it.
 		if (webView != null) {
 			webView.destroy();	
@@ -813,6 +892,7 @@ public abstract class SAPOConnect extends Activity {
 	 * @param errorMessage The error message to display to the user.
 	 */
 	private void loadErrorPage(String errorMessage) {
+		loginTracer.finish(false);
 		try {
 			webView.stopLoading();
 			String errorTemplate = Utils.getAssetAsString(getApplicationContext(), "error.html");
@@ -870,6 +950,34 @@ public abstract class SAPOConnect extends Activity {
 		}
 	}
 		
+	/**
+	 * Starts loading the stored credentials on a background thread, so that the first isUserLoggedIn() or getSsoToken()
+	 * in the UI thread doesn't wait for the SharedPreferences file to be read from the disk. Should be called in the
+	 * Application onCreate(). From then on, those methods are served from an in-memory snapshot.
+	 * 
+	 * Simple usage:
+	 *   SAPOConnect.preload(getApplicationContext());
+	 * 
+	 * @param context The caller Context.
+	 * @return The Future that is done when the credentials are loaded. Subsequent invocations return the same Future.
+	 */
+	public static synchronized Future<?> preload(Context context) {
+		if (preloadTask == null) {
+			final Context applicationContext = context.getApplicationContext();
+			preloadTask = new FutureTask<CredentialSnapshot>(new Callable<CredentialSnapshot>() {
+				public CredentialSnapshot call() {
+					CredentialSnapshot snapshot = loadCredentials(applicationContext);
+					// If a snapshot was published in the meantime, it is at least as recent as this one.
+					credentialSnapshot.compareAndSet(null, snapshot);
+					Log.d(TAG, "preload() - Credentials loaded.");
+					return snapshot;
+				}
+			});
+			new Thread(preloadTask, "SAPOConnect-preload").start();
+		}
+		return preloadTask;
+	}
+	
 	/**
 	 * Retrieves the stored SSO Token, If there is none available, return NULL.
 	 * 
@@ -877,20 +985,19 @@ public abstract class SAPOConnect extends Activity {
 	 * @return The SSO Token or NULL if there is none available.
 	 */
 	public static String getSsoToken(Context context) {
-		final String EMPTY_VALUE = "Empty";
-		String token = SharedPreferencesOperations.getInstance(context.getApplicationContext(), SHARED_PREFS_FILE).retrieveStringValue(USER_SECRET, EMPTY_VALUE);
-		return token.equals(EMPTY_VALUE) ? null : token;
+		return getCredentials(context).accessSecret;
 	}
 	
 	/**
 	 * Determines if the user is logged in by determining the presence of the SSO Token and the registration indicator stored
-	 * in the SSO Shared Preferences file.
+	 * in the SSO Shared Preferences file. After the credentials are loaded, this is a read of the in-memory login state,
+	 * so it can be called in list adapters or on every Activity resume.
 	 * 
 	 * @param context The caller Context.
 	 * @return Returns true if the user is logged in or false otherwise.
 	 */
 	public static boolean isUserLoggedIn(Context context) {
-		return (getSsoToken(context.getApplicationContext()) != null && isUserRegistered(context.getApplicationContext()));
+		return getCredentials(context).loggedIn;
 	}
 	
 	/**
@@ -919,13 +1026,72 @@ public abstract class SAPOConnect extends Activity {
 	 */
 	public static void simpleLogOut(Context context) {
 		Log.d(TAG, "simpleLogOut() - User loging out.");
-		setUserRegistered(context, false);
-		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(REQUEST_TOKEN, false);
-		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(REQUEST_SECRET, false);
-		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(USER_TOKEN, false);
-		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(USER_SECRET, false);
+		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).beginTransaction()
+			.storeValue(USER_REGISTERED, false, false)
+			.removeKey(REQUEST_TOKEN, false)
+			.removeKey(REQUEST_SECRET, false)
+			.removeKey(USER_TOKEN, false)
+			.removeKey(USER_SECRET, false)
+			.commit();
+		// The snapshot must be loaded before it is replaced, so that a preload in progress doesn't overwrite it.
+		getCredentials(context);
+		synchronized (credentialSnapshotLock) {
+			credentialSnapshot.set(CredentialSnapshot.LOGGED_OUT);
+		}
 	}
-	
+
+	/**
+	 * Logs out the user without starting the SAPOConnect Activity. The session cookies and the stored tokens and secrets
+	 * are removed in a single job on a background thread, so the caller's UI thread is never blocked. As in simpleLogOut(),
+	 * the additional operations described in the LogOutInterface will be ignored.
+	 *
+	 * @param handler An optional Handler created in the caller's UI thread, where the listener will be invoked. If NULL,
+	 *                the listener is invoked in the background thread.
+	 * @param context The caller Context.
+	 * @param listener The optional listener to be notified when the logout is completed.
+	 * @return The background thread performing the logout.
+	 */
+	public static Thread logOutInBackground(final Handler handler, final Context context, final OnLogOutCompletedListener listener) {
+		Log.d(TAG, "logOutInBackground() - Start");
+		final Context applicationContext = context.getApplicationContext();
+
+		final Runnable runnable = new Runnable() {
+			public void run() {
+				removeSessionCookies(applicationContext);
+				simpleLogOut(applicationContext);
+
+				if (listener == null) {
+					return;
+				}
+
+				if (handler != null) {
+					handler.post(new Runnable() {
+						public void run() {
+							listener.onLogOutCompleted(applicationContext);
+						}
+					});
+				} else {
+					listener.onLogOutCompleted(applicationContext);
+				}
+			}
+		};
+
+		return performOnBackgroundThread(runnable);
+	}
+
+	/**
+	 * Removes all the cookies stored by the WebViews, including the SAPO ID session cookies, so that the next login
+	 * does not reuse the previous user session. Does not require an existing WebView.
+	 *
+	 * @param context The application Context.
+	 */
+	private static void removeSessionCookies(Context context) {
+		Log.d(TAG, "removeSessionCookies() - Removing the WebView cookies.");
+		CookieSyncManager.createInstance(context);
+		CookieManager.getInstance().removeAllCookie();
+		CookieSyncManager.getInstance().sync();
+	}
+
 	/**
 	 * Helper handler for the OnClickListener of the Dialog.
 	 */
@@ -1101,6 +1267,7 @@ public abstract class SAPOConnect extends Activity {
 	 * @param success If true, the operation was successful. If false, the operation was not completed.
 	 */
 	protected void goBackWithResults(boolean success) {
+		loginTracer.finish(success);
 		Intent goBackWithResults = getIntent();
 		
 		if (success) {
@@ -1126,8 +1293,7 @@ public abstract class SAPOConnect extends Activity {
 			webView.clearCache(true);
 			webView.clearFormData();
 			webView.clearHistory();
-			CookieSyncManager.createInstance(getApplicationContext());
-			CookieManager.getInstance().removeAllCookie();
+			removeSessionCookies(getApplicationContext());
 		}
 	}
 	
@@ -1154,16 +1320,6 @@ public abstract class SAPOConnect extends Activity {
 		}
 	}
 	
-	/**
-	 * Used internally to determine if the user is registered on the server.
-	 * 
-	 * @param context The caller Context.
-	 * @return Returns true if the user is registered on the server.
-	 */
-	private static boolean isUserRegistered(Context context) {
-		return SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).retrieveBooleanValue(USER_REGISTERED, false);
-	}
-	
 	/**
 	 * Stores in the SharedPreferences if the user is registered in the server.
 	 * 
@@ -1172,6 +1328,10 @@ public abstract class SAPOConnect extends Activity {
 	 */
 	protected static void setUserRegistered(Context context, boolean register) {
 		SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).storeValue(USER_REGISTERED, register, false);
+		getCredentials(context);
+		synchronized (credentialSnapshotLock) {
+			credentialSnapshot.set(credentialSnapshot.get().withRegistered(register));
+		}
 	}
 	
 	
@@ -1207,10 +1367,15 @@ public abstract class SAPOConnect extends Activity {
 		// Invoke the Service
 		OAuthMessage oAuthMessage = oAuthClient.invoke(oAuthAccessor, "GET", url, null);
 		
-		Log.d(TAG, "invokeWebService() - OAuthMessage URL: " + oAuthMessage.URL);
+		Log.d(TAG, "invokeWebService() - OAuthMessage URL: %s", oAuthMessage.URL);
 		
 		// Return the response as a String
-		return oAuthMessage.readBodyAsString();
+		RequestTrace.startCurrentSpan(Span.BODY_DOWNLOAD);
+		try {
+			return oAuthMessage.readBodyAsString();
+		} finally {
+			RequestTrace.endCurrentSpan(Span.BODY_DOWNLOAD);
+		}
 	}
 	
 	/**
@@ -1285,7 +1450,7 @@ public abstract class SAPOConnect extends Activity {
 		
 		OAuthMessage oAuthMessage = invoke(oAuthClient, oAuthAccessor, httpMethod, url, bodyInputStream, bodyLength);
 		
-		Log.d(TAG, "invokeWebServicePost() - OAuthMessage URL: " + oAuthMessage.URL);
+		Log.d(TAG, "invokeWebServicePost() - OAuthMessage URL: %s", oAuthMessage.URL);
 		
 		// Return the response as a String
 		return oAuthMessage.readBodyAsString();
@@ -1330,7 +1495,7 @@ public abstract class SAPOConnect extends Activity {
 	    String tokenSecret = getAccessSecret(context);
 	    
 	    if (TextUtils.isEmpty(accessToken) || TextUtils.isEmpty(tokenSecret)) {
-	    	Log.e(TAG, "getOAuthAccessor() - Invalid information stored on the device: accessToken=" + accessToken + "; tokenSecret=" + tokenSecret);
+	    	Log.e(TAG, "getOAuthAccessor() - Invalid information stored on the device. The Access Token or the Token Secret is empty.");
 	    	return null;
 	    }
 	    
@@ -1341,19 +1506,70 @@ public abstract class SAPOConnect extends Activity {
 	}
 	
 	/**
-	 * Creates a new OAuthClient to invoke the protected URL.
+	 * Creates a new OAuthClient to invoke the protected URL, or to log in.
 	 * 
 	 * @return The OAuthClient properly configured with the application configuration.
 	 */
-	private static OAuthClient getOAuthClient() {
+	public static OAuthClient getOAuthClient() {
 		return new OAuthClient(new HttpClient4(new SsoHttpClient()));
 	}
 	
+	/**
+	 * First leg of the OAuth login: obtains a request token for the consumer. The login Activity then loads the
+	 * authorization page in the WebView. Public, so that the login can be exercised without the WebView (e.g. by the
+	 * benchmarks).
+	 * 
+	 * @param oAuthClient The OAuthClient from getOAuthClient().
+	 * @param oAuthAccessor The OAuthAccessor of the consumer, with the callback URL. Receives the request token and secret.
+	 * @return The URL of the authorization page for the request token.
+	 * @throws IOException If the request fails.
+	 * @throws OAuthException If the server refuses the request.
+	 * @throws URISyntaxException If the request token URL is invalid.
+	 */
+	public static String obtainRequestToken(OAuthClient oAuthClient, OAuthAccessor oAuthAccessor) throws IOException, OAuthException, URISyntaxException {
+		String callbackUrl = oAuthAccessor.consumer.callbackURL;
+		oAuthClient.getRequestToken(oAuthAccessor, null, OAuth.newList(OAuth.OAUTH_CALLBACK, callbackUrl));
+		return oAuthAccessor.consumer.serviceProvider.userAuthorizationURL +
+			"?oauth_token=" + oAuthAccessor.requestToken +
+			"&oauth_callback=" + URLEncoder.encode(callbackUrl);
+	}
+	
+	/**
+	 * Last leg of the OAuth login: exchanges the request token for an access token, with the verifier of the callback
+	 * URL the authorization page redirected to. Public, so that the login can be exercised without the WebView.
+	 * 
+	 * @param oAuthClient The OAuthClient from getOAuthClient().
+	 * @param oAuthAccessor The OAuthAccessor with the request token and secret. Receives the access token and secret.
+	 * @param callbackUrl The callback URL, with the oauth_token and oauth_verifier parameters.
+	 * @throws IOException If the request fails.
+	 * @throws OAuthException If the server refuses the request.
+	 * @throws URISyntaxException If the access token URL is invalid.
+	 */
+	public static void obtainAccessToken(OAuthClient oAuthClient, OAuthAccessor oAuthAccessor, String callbackUrl) throws IOException, OAuthException, URISyntaxException {
+		Uri uri = Uri.parse(callbackUrl);
+		
+		String otoken = uri.getQueryParameter(OAuth.OAUTH_TOKEN);		// request_token
+		String verifier = uri.getQueryParameter(OAuth.OAUTH_VERIFIER);  // request_secret
+		
+		Log.d(TAG, "obtainAccessToken() - Verifier received=%s; Request token received=%s", verifier != null, otoken != null);
+		oAuthClient.getAccessToken(oAuthAccessor, null, OAuth.newList(OAuth.OAUTH_VERIFIER, verifier));
+	}
+	
 	
 	// ********************************************************************************************************************************** //
     //                                                   SHARED PREFERENCES OPERATIONS                                                    //
     // ********************************************************************************************************************************** //
     	
+	/**
+	 * Moves the OAuth tokens and secrets from the XML SharedPreferences file to the memory-mapped binary store of
+	 * MappedSharedPreferences, where the reads are served from memory and each change only appends a small record.
+	 * The stored credentials are moved on the first access, so the user stays logged in.
+	 * Must be called in the Application onCreate(), before any other SAPOConnect method.
+	 */
+	public static void useMappedCredentialStore() {
+		SharedPreferencesOperations.setStorage(SHARED_PREFS_FILE, SharedPreferencesOperations.Storage.MAPPED);
+	}
+	
 	/**
 	 * Stores in the SharedPreferences the OAuthAccessor 'requestToken' and 'tokenSecret' on the request.
 	 * If the values are NULL, then the previous values will be removed.
@@ -1363,21 +1579,23 @@ public abstract class SAPOConnect extends Activity {
 	 * @param secret The Secret value to store in the SharedPreferences.
 	 */
 	private void saveRequestInformation(Context context, String token, String secret) {
+		SharedPreferencesOperations.Transaction transaction = SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).beginTransaction();
 		if (token == null) {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(REQUEST_TOKEN, false);
+			transaction.removeKey(REQUEST_TOKEN, false);
 			Log.d(TAG, "saveRequestInformation() - Clearing Request Token.");
 		} else {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).storeValue(REQUEST_TOKEN, token, false);
-			Log.d(TAG, "saveRequestInformation() - Saving Request Token: " + token);
+			transaction.storeValue(REQUEST_TOKEN, token, false);
+			Log.d(TAG, "saveRequestInformation() - Saving Request Token.");
 		}
 		
 		if (secret == null) {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(REQUEST_SECRET, false);
+			transaction.removeKey(REQUEST_SECRET, false);
 			Log.d(TAG, "saveRequestInformation() - Clearing Request Secret.");
 		} else {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).storeValue(REQUEST_SECRET, secret, false);
-			Log.d(TAG, "saveRequestInformation() - Saving Request Secret: " + secret);
+			transaction.storeValue(REQUEST_SECRET, secret, false);
+			Log.d(TAG, "saveRequestInformation() - Saving Request Secret.");
 		}
+		transaction.commit();
 	}
 	
 	/**
@@ -1387,13 +1605,7 @@ public abstract class SAPOConnect extends Activity {
 	 * @return The string containing the USER_TOKEN stored in the Shared Preferences.
 	 */
 	private static String getAccessToken(Context context) {
-		final String NULL_VALUE = "NULL";
-		String accessToken = SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).retrieveStringValue(USER_TOKEN, NULL_VALUE);
-		if (accessToken.equals(NULL_VALUE)) {
-			return null;
-		} else {
-			return accessToken;
-		}
+		return getCredentials(context).accessToken;
 	}
 	
 	/**
@@ -1403,13 +1615,18 @@ public abstract class SAPOConnect extends Activity {
 	 * @return The string containing the USER_SECRET stored in the Shared Preferences.
 	 */
 	private static String getAccessSecret(Context context) {
-		final String NULL_VALUE = "NULL";
-		String accessSecret = SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).retrieveStringValue(USER_SECRET, NULL_VALUE);
-		if (accessSecret.equals(NULL_VALUE)) {
-			return null;
-		} else {
-			return accessSecret;
-		}
+		return getCredentials(context).accessSecret;
+	}
+	
+	/**
+	 * Removes the query of a URL for logging, as the OAuth URLs carry the Request Token and the Verifier in it.
+	 * 
+	 * @param url The URL. May be NULL.
+	 * @return The URL without the query.
+	 */
+	private static String withoutQuery(String url) {
+		int queryStart = (url != null) ? url.indexOf('?') : -1;
+		return (queryStart < 0) ? url : url.substring(0, queryStart);
 	}
 	
 	/**
@@ -1421,23 +1638,151 @@ public abstract class SAPOConnect extends Activity {
 	 * @param secret The Secret value to store in the SharedPreferences.
 	 */
 	private void saveAuthInformation(Context context, String token, String secret) {
+		SharedPreferencesOperations.Transaction transaction = SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).beginTransaction();
 		if (token == null) {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(USER_TOKEN, false);
+			transaction.removeKey(USER_TOKEN, false);
 			Log.d(TAG, "saveAuthInformation - Clearing OAuth Token.");
 		} else {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).storeValue(USER_TOKEN, token, false);
-			Log.d(TAG, "saveAuthInformation - Saving OAuth Token: " + token);
+			transaction.storeValue(USER_TOKEN, token, false);
+			Log.d(TAG, "saveAuthInformation - Saving OAuth Token.");
 		}
 		
 		if (secret == null) {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).removeKey(USER_SECRET, false);
+			transaction.removeKey(USER_SECRET, false);
 			Log.d(TAG, "saveAuthInformation - Clearing OAuth Secret");
 		} else {
-			SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE).storeValue(USER_SECRET, secret, false);
-			Log.d(TAG, "saveAuthInformation - Saving OAuth Secret: " + secret);
+			transaction.storeValue(USER_SECRET, secret, false);
+			Log.d(TAG, "saveAuthInformation - Saving OAuth Secret.");
+		}
+		transaction.commit();
+		getCredentials(context);
+		synchronized (credentialSnapshotLock) {
+			credentialSnapshot.set(credentialSnapshot.get().withTokens(token, secret));
+		}
+	}
+	
+	/**
+	 * Gets the in-memory snapshot of the stored credentials. If they are still being loaded by preload(), waits for
+	 * the load to finish. If preload() was never called, loads them in the calling thread.
+	 * 
+	 * @param context The caller Context.
+	 * @return The CredentialSnapshot.
+	 */
+	private static CredentialSnapshot getCredentials(Context context) {
+		CredentialSnapshot snapshot = credentialSnapshot.get();
+		if (snapshot != null) {
+			return snapshot;
+		}
+		
+		Future<?> task;
+		synchronized (SAPOConnect.class) {
+			task = preloadTask;
 		}
+		if (task != null) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Log.e(TAG, "getCredentials() - ExecutionException: ", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			snapshot = credentialSnapshot.get();
+			if (snapshot != null) {
+				return snapshot;
+			}
+		}
+		credentialSnapshot.compareAndSet(null, loadCredentials(context.getApplicationContext()));
+		return credentialSnapshot.get();
 	}
 	
+	/**
+	 * Reads the stored credentials and, on the first invocation, registers the listener that keeps the in-memory
+	 * snapshot in sync with the SharedPreferences file.
+	 * 
+	 * @param context The application context.
+	 * @return The CredentialSnapshot read from the SharedPreferences.
+	 */
+	private static CredentialSnapshot loadCredentials(Context context) {
+		SharedPreferencesOperations sharedPreferencesOperations = SharedPreferencesOperations.getInstance(context, SHARED_PREFS_FILE);
+		synchronized (credentialSnapshotLock) {
+			if (credentialChangeListener == null) {
+				credentialChangeListener = new CredentialChangeListener(sharedPreferencesOperations);
+				sharedPreferencesOperations.registerOnSharedPreferenceChangeListener(credentialChangeListener);
+			}
+		}
+		return CredentialSnapshot.read(sharedPreferencesOperations);
+	}
+	
+	
+    // ********************************************************************************************************************************** //
+    //                                                        CREDENTIAL SNAPSHOT                                                         //
+    // ********************************************************************************************************************************** //
+    
+    /**
+     * Immutable copy of the credentials stored in the SharedPreferences, and the login state derived from them.
+     */
+    private static final class CredentialSnapshot {
+    	
+    	/**
+    	 * The snapshot after a log out.
+    	 */
+    	private static final CredentialSnapshot LOGGED_OUT = new CredentialSnapshot(null, null, false);
+    	
+    	private final String accessToken;
+    	private final String accessSecret;
+    	private final boolean registered;
+    	private final boolean loggedIn;
+    	
+    	private CredentialSnapshot(String accessToken, String accessSecret, boolean registered) {
+    		this.accessToken = accessToken;
+    		this.accessSecret = accessSecret;
+    		this.registered = registered;
+    		this.loggedIn = (accessSecret != null && registered);
+    	}
+    	
+    	private CredentialSnapshot withTokens(String accessToken, String accessSecret) {
+    		return new CredentialSnapshot(accessToken, accessSecret, registered);
+    	}
+    	
+    	private CredentialSnapshot withRegistered(boolean registered) {
+    		return new CredentialSnapshot(accessToken, accessSecret, registered);
+    	}
+    	
+    	/**
+    	 * Reads the credentials from the SharedPreferences. Blocks until the SharedPreferences file is loaded.
+    	 * 
+    	 * @param sharedPreferencesOperations The SharedPreferencesOperations for the SHARED_PREFS_FILE.
+    	 * @return The new CredentialSnapshot.
+    	 */
+    	private static CredentialSnapshot read(SharedPreferencesOperations sharedPreferencesOperations) {
+    		return new CredentialSnapshot(
+    				sharedPreferencesOperations.retrieveStringValue(USER_TOKEN, null),
+    				sharedPreferencesOperations.retrieveStringValue(USER_SECRET, null),
+    				sharedPreferencesOperations.retrieveBooleanValue(USER_REGISTERED, false));
+    	}
+    }
+    
+    /**
+     * Replaces the credentialSnapshot when any of the credentials is changed in the SharedPreferences file.
+     */
+    private static final class CredentialChangeListener implements OnSharedPreferenceChangeListener {
+    	
+    	private final SharedPreferencesOperations sharedPreferencesOperations;
+    	
+    	private CredentialChangeListener(SharedPreferencesOperations sharedPreferencesOperations) {
+    		this.sharedPreferencesOperations = sharedPreferencesOperations;
+    	}
+    	
+    	@Override
+    	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    		if (USER_TOKEN.equals(key) || USER_SECRET.equals(key) || USER_REGISTERED.equals(key)) {
+    			synchronized (credentialSnapshotLock) {
+    				credentialSnapshot.set(CredentialSnapshot.read(sharedPreferencesOperations));
+    			}
+    		}
+    	}
+    }
+    
 	
     // ********************************************************************************************************************************** //
     //                                                          SSO HTTP CLIENT                                                           //
@@ -0,0 +1,268 @@
+package pt.sapo.mobile.android.connect.db;
+
+import pt.sapo.mobile.android.connect.network.NetworkObject;
+import pt.sapo.mobile.android.connect.system.Log;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+/**
+ * Writes the records of a WebService response to the local DB, as they are read, with compiled statements inside
+ * transactions of up to batchSize rows. The records are inserted, or updated if they already exist (upsert), and the
+ * inserted and updated rows are counted for the NetworkObject. After each transaction, the observers of the
+ * notification Uri (e.g. the Cursor of the caller, with setNotificationUri()) are notified once, instead of once per
+ * row.
+ *
+ * For the upsert, the insert must ignore the existing rows ("INSERT OR IGNORE"), and the update is executed for the
+ * rows that weren't inserted. Without an update statement, the insert is executed as it is (e.g. "INSERT OR REPLACE").
+ *
+ * Simple usage, in a JsonStreamRequestObject (always in the same thread, as the transactions are per thread):
+ *
+ *   public ImageListRequest(Context context) {
+ *       this.context = context.getApplicationContext();
+ *   }
+ *
+ *   protected boolean beginRecords(JsonStreamReader reader, NetworkObject networkObject) throws IOException {
+ *       ingest = new BulkIngest<Image>(database, "INSERT OR IGNORE INTO images (title, id) VALUES (?, ?)",
+ *               "UPDATE images SET title = ? WHERE id = ?", imageBinder).setNotificationUri(context, Images.CONTENT_URI);
+ *       return findArray(reader, "images");
+ *   }
+ *
+ *   protected void onRecord(Context context, Image image, NetworkObject networkObject) {
+ *       ingest.add(image);
+ *   }
+ *
+ *   protected void onRecordsEnd(Context context, NetworkObject networkObject, boolean complete) {
+ *       if (complete) {
+ *           ingest.finish(networkObject);
+ *       } else {
+ *           ingest.abort();
+ *       }
+ *   }
+ *
+ * @param <T> The type of the records.
+ */
+public class BulkIngest<T> {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "BulkIngest";
+
+	/**
+	 * The default number of rows of each transaction.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * Binds the values of a record to the compiled statements. The statements have their bindings cleared before.
+	 *
+	 * @param <T> The type of the records.
+	 */
+	public interface RowBinder<T> {
+
+		void bindInsert(SQLiteStatement insertStatement, T record);
+
+		/**
+		 * Only invoked if there is an update statement.
+		 */
+		void bindUpdate(SQLiteStatement updateStatement, T record);
+	}
+
+	private final SQLiteDatabase database;
+	private final String insertSql;
+	private final String updateSql;
+	private final RowBinder<T> rowBinder;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ContentResolver contentResolver;
+	private Uri notificationUri;
+
+	/**
+	 * The compiled statements. Created with the first record.
+	 */
+	private SQLiteStatement insertStatement;
+	private SQLiteStatement updateStatement;
+	private SQLiteStatement changesStatement;
+
+	/**
+	 * True while there is an open transaction, and its rows.
+	 */
+	private boolean inTransaction;
+	private int batchInsertedRows;
+	private int batchUpdatedRows;
+
+	/**
+	 * The rows of the committed transactions.
+	 */
+	private int insertedRows;
+	private int updatedRows;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param database The writable DB.
+	 * @param insertSql The insert statement, with '?' for the values (e.g. "INSERT OR IGNORE INTO images (title, id) VALUES (?, ?)").
+	 * @param updateSql The update statement for the existing rows (e.g. "UPDATE images SET title = ? WHERE id = ?"), or NULL.
+	 * @param rowBinder Binds the values of the records.
+	 */
+	public BulkIngest(SQLiteDatabase database, String insertSql, String updateSql, RowBinder<T> rowBinder) {
+		this.database = database;
+		this.insertSql = insertSql;
+		this.updateSql = updateSql;
+		this.rowBinder = rowBinder;
+	}
+
+	/**
+	 * @param batchSize The maximum number of rows of each transaction. DEFAULT_BATCH_SIZE by default.
+	 * @return This BulkIngest.
+	 */
+	public BulkIngest<T> setBatchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+		return this;
+	}
+
+	/**
+	 * @param context The caller Context, for the ContentResolver.
+	 * @param notificationUri The Uri notified after each transaction, or NULL.
+	 * @return This BulkIngest.
+	 */
+	public BulkIngest<T> setNotificationUri(Context context, Uri notificationUri) {
+		this.contentResolver = context.getContentResolver();
+		this.notificationUri = notificationUri;
+		return this;
+	}
+
+	/**
+	 * Writes a record, in the open transaction. Begins a transaction if there is none, and commits it when it reaches
+	 * the batch size. If the record can't be written, the open transaction is rolled back before the exception is
+	 * thrown, and the next record begins a new one.
+	 *
+	 * @param record The record.
+	 */
+	public void add(T record) {
+		if (!inTransaction) {
+			if (insertStatement == null) {
+				compileStatements();
+			}
+			database.beginTransaction();
+			inTransaction = true;
+		}
+
+		try {
+			insertStatement.clearBindings();
+			rowBinder.bindInsert(insertStatement, record);
+			insertStatement.execute();
+
+			if (updateStatement != null && changesStatement.simpleQueryForLong() == 0) {
+				// The row already exists.
+				updateStatement.clearBindings();
+				rowBinder.bindUpdate(updateStatement, record);
+				updateStatement.execute();
+				batchUpdatedRows++;
+			} else {
+				batchInsertedRows++;
+			}
+		} catch (RuntimeException e) {
+			Log.w(TAG, "add() - Unable to write the record. Rolling back the transaction.", e);
+			rollbackBatch();
+			throw e;
+		}
+
+		if (batchInsertedRows + batchUpdatedRows >= batchSize) {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Commits the open transaction, adds the row counts to the NetworkObject and releases the statements.
+	 *
+	 * @param networkObject The NetworkObject for the results. May be NULL.
+	 */
+	public void finish(NetworkObject networkObject) {
+		commitBatch();
+		if (networkObject != null) {
+			networkObject.insertedResults += insertedRows;
+			networkObject.updatedResults += updatedRows;
+		}
+		releaseStatements();
+		Log.d(TAG, "finish() - Inserted %d and updated %d rows", insertedRows, updatedRows);
+	}
+
+	/**
+	 * Rolls back the open transaction and releases the statements. The transactions already committed are kept.
+	 */
+	public void abort() {
+		if (inTransaction) {
+			rollbackBatch();
+		}
+		releaseStatements();
+	}
+
+	/**
+	 * @return The number of rows inserted by the committed transactions.
+	 */
+	public int getInsertedRows() {
+		return insertedRows;
+	}
+
+	/**
+	 * @return The number of rows updated by the committed transactions.
+	 */
+	public int getUpdatedRows() {
+		return updatedRows;
+	}
+
+	private void compileStatements() {
+		insertStatement = database.compileStatement(insertSql);
+		if (updateSql != null) {
+			updateStatement = database.compileStatement(updateSql);
+			changesStatement = database.compileStatement("SELECT changes()");
+		}
+	}
+
+	private void commitBatch() {
+		if (!inTransaction) {
+			return;
+		}
+		try {
+			database.setTransactionSuccessful();
+		} finally {
+			inTransaction = false;
+			database.endTransaction();
+		}
+		insertedRows += batchInsertedRows;
+		updatedRows += batchUpdatedRows;
+		batchInsertedRows = 0;
+		batchUpdatedRows = 0;
+		if (notificationUri != null) {
+			contentResolver.notifyChange(notificationUri, null);
+		}
+	}
+
+	/**
+	 * Ends the open transaction without marking it successful, which discards its rows.
+	 */
+	private void rollbackBatch() {
+		inTransaction = false;
+		batchInsertedRows = 0;
+		batchUpdatedRows = 0;
+		database.endTransaction();
+	}
+
+	private void releaseStatements() {
+		if (insertStatement != null) {
+			insertStatement.close();
+			insertStatement = null;
+		}
+		if (updateStatement != null) {
+			updateStatement.close();
+			updateStatement = null;
+			changesStatement.close();
+			changesStatement = null;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package pt.sapo.mobile.android.connect.http;
+
+/**
+ * Singleton pool of the byte buffers used to read the response bodies, so that the requests reuse the buffers of the
+ * previous ones instead of allocating new ones every time. The buffers have power of two sizes, from MIN_BUFFER_SIZE
+ * to MAX_BUFFER_SIZE, and each size class keeps at most MAX_BUFFERS_PER_CLASS buffers, up to MAX_POOLED_BYTES in
+ * total. The requests for bigger buffers are allocated and left to the GC.
+ *
+ * A buffer must not be used after it's released, as it may already belong to another request.
+ *
+ * Simple usage:
+ *   byte[] buffer = BufferPool.getInstance().acquire(contentLength);
+ *   ...
+ *   BufferPool.getInstance().release(buffer);
+ */
+public class BufferPool {
+
+	/**
+	 * The smallest buffer size, as a power of two.
+	 */
+	private static final int MIN_SIZE_SHIFT = 10;
+
+	/**
+	 * The largest buffer size, as a power of two.
+	 */
+	private static final int MAX_SIZE_SHIFT = 19;
+
+	/**
+	 * The smallest buffer size, 1 KB.
+	 */
+	public static final int MIN_BUFFER_SIZE = 1 << MIN_SIZE_SHIFT;
+
+	/**
+	 * The largest pooled buffer size, 512 KB.
+	 */
+	public static final int MAX_BUFFER_SIZE = 1 << MAX_SIZE_SHIFT;
+
+	/**
+	 * The maximum number of buffers kept of each size.
+	 */
+	public static final int MAX_BUFFERS_PER_CLASS = 4;
+
+	/**
+	 * The maximum number of bytes kept in the pool.
+	 */
+	public static final int MAX_POOLED_BYTES = 1024 * 1024;
+
+	/**
+	 * Instance for this Singleton.
+	 */
+	private static BufferPool instance;
+
+	/**
+	 * The free buffers of each size class, and how many there are.
+	 */
+	private final byte[][][] freeBuffers = new byte[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1][MAX_BUFFERS_PER_CLASS][];
+	private final int[] freeCounts = new int[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+	private int pooledBytes;
+
+	private int hits;
+	private int misses;
+
+
+	private BufferPool() {}
+
+	/**
+	 * Get the instance of the BufferPool.
+	 *
+	 * @return The instance of this Singleton.
+	 */
+	public static synchronized BufferPool getInstance() {
+		if (instance == null) {
+			instance = new BufferPool();
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets a buffer from the pool, or a new one if there is none of the size.
+	 *
+	 * @param minSize The minimum size of the buffer.
+	 * @return A buffer with at least minSize bytes, not zeroed.
+	 */
+	public byte[] acquire(int minSize) {
+		int sizeClass = sizeClass(minSize);
+		if (sizeClass < 0) {
+			return new byte[minSize];
+		}
+		synchronized (this) {
+			int count = freeCounts[sizeClass];
+			if (count > 0) {
+				byte[] buffer = freeBuffers[sizeClass][--count];
+				freeBuffers[sizeClass][count] = null;
+				freeCounts[sizeClass] = count;
+				pooledBytes -= buffer.length;
+				hits++;
+				return buffer;
+			}
+			misses++;
+		}
+		return new byte[MIN_BUFFER_SIZE << sizeClass];
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffers that aren't of a pooled size, or that don't fit, are left to the GC.
+	 *
+	 * @param buffer The buffer, which won't be used anymore. May be NULL.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		int sizeClass = sizeClass(buffer.length);
+		if (sizeClass < 0 || buffer.length != MIN_BUFFER_SIZE << sizeClass) {
+			return;
+		}
+		synchronized (this) {
+			int count = freeCounts[sizeClass];
+			if (count < MAX_BUFFERS_PER_CLASS && pooledBytes + buffer.length <= MAX_POOLED_BYTES) {
+				freeBuffers[sizeClass][count] = buffer;
+				freeCounts[sizeClass] = count + 1;
+				pooledBytes += buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * Drops all the buffers of the pool. E.g. in the Application onLowMemory().
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < freeBuffers.length; i++) {
+			for (int j = 0; j < freeCounts[i]; j++) {
+				freeBuffers[i][j] = null;
+			}
+			freeCounts[i] = 0;
+		}
+		pooledBytes = 0;
+	}
+
+	/**
+	 * @return The number of bytes kept in the pool.
+	 */
+	public synchronized int getPooledBytes() {
+		return pooledBytes;
+	}
+
+	/**
+	 * @return The number of acquire() calls served from the pool.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of acquire() calls of a pooled size that had to allocate a buffer.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @param size A buffer size.
+	 * @return The index of the smallest size class with at least the size, or -1 if it's larger than MAX_BUFFER_SIZE.
+	 */
+	private static int sizeClass(int size) {
+		if (size > MAX_BUFFER_SIZE) {
+			return -1;
+		}
+		int sizeClass = 0;
+		while ((MIN_BUFFER_SIZE << sizeClass) < size) {
+			sizeClass++;
+		}
+		return sizeClass;
+	}
+
+}
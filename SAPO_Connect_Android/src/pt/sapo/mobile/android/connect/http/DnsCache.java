@@ -0,0 +1,250 @@
+package pt.sapo.mobile.android.connect.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.scheme.HostNameResolver;
+
+import pt.sapo.mobile.android.connect.network.RequestTrace;
+import pt.sapo.mobile.android.connect.network.RequestTrace.Span;
+import pt.sapo.mobile.android.connect.system.Log;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+/**
+ * Singleton in-process DNS cache for the hosts used by the library (services.sapo.pt, id.sapo.pt and the NTP pool).
+ * Successful lookups are cached for POSITIVE_TTL and failed lookups for NEGATIVE_TTL. When a cached entry is used after
+ * REFRESH_FACTOR of its TTL, it is still returned, but a new lookup is started in the background so that the entry is
+ * renewed before it expires. This way, no request pays a cold DNS lookup on the hot path after the first one.
+ *
+ * All the addresses of each host are cached, in the order of the lookup, so that the DnsCacheConnectionOperator of the
+ * HttpClient created by MyHttpClient can try each one in turn. It also implements the HttpClient HostNameResolver,
+ * which resolves to the first address.
+ *
+ * Simple usage:
+ *   DnsCache.getInstance().resolveAll("services.sapo.pt");
+ *   DnsCache.getInstance().prefetch("services.sapo.pt", "id.sapo.pt");
+ */
+public class DnsCache implements HostNameResolver {
+
+	/**
+	 * Log tag for this class.
+	 */
+	private static final String TAG = "DnsCache";
+
+	/**
+	 * The log level of the tag, for the checks on the request path.
+	 */
+	private static final Log.LevelSlot LEVEL_SLOT = Log.getLevelSlot(TAG);
+
+	/**
+	 * Time to live of a successful lookup.
+	 */
+	private static final long POSITIVE_TTL = DateUtils.MINUTE_IN_MILLIS * 5;
+
+	/**
+	 * Time to live of a failed lookup.
+	 */
+	private static final long NEGATIVE_TTL = DateUtils.SECOND_IN_MILLIS * 10;
+
+	/**
+	 * Fraction of the TTL after which a used entry is refreshed in the background.
+	 */
+	private static final double REFRESH_FACTOR = 0.75;
+
+	/**
+	 * Instance for this Singleton.
+	 */
+	private static DnsCache instance;
+
+	/**
+	 * The cached lookups, per hostname.
+	 */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The hostnames being refreshed in the background.
+	 */
+	private final ConcurrentHashMap<String, Boolean> refreshesInFlight = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * The resolutions served from the cache, and those that had to wait for a lookup.
+	 */
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+
+	private DnsCache() {}
+
+	/**
+	 * Get the instance of the DnsCache.
+	 *
+	 * @return The instance of this Singleton.
+	 */
+	public static synchronized DnsCache getInstance() {
+		if (instance == null) {
+			instance = new DnsCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Resolves the hostname, using the cached lookup if it is still valid.
+	 *
+	 * @param hostname The name of the host (or the IP address in dot format).
+	 * @return The first host address.
+	 * @throws UnknownHostException If the hostname cannot be resolved, or if a failed lookup is cached.
+	 */
+	public InetAddress resolve(String hostname) throws UnknownHostException {
+		return resolveAll(hostname)[0];
+	}
+
+	/**
+	 * Resolves all the addresses of the hostname, using the cached lookup if it is still valid.
+	 *
+	 * @param hostname The name of the host (or the IP address in dot format).
+	 * @return The host addresses, in the order of the lookup. Not to be modified.
+	 * @throws UnknownHostException If the hostname cannot be resolved, or if a failed lookup is cached.
+	 */
+	public InetAddress[] resolveAll(String hostname) throws UnknownHostException {
+		long now = SystemClock.elapsedRealtime();
+		Entry entry = entries.get(hostname);
+
+		if (entry == null || entry.expiresAt <= now) {
+			// Cold or expired entry. Must lookup on the caller's thread.
+			misses.incrementAndGet();
+			RequestTrace.startCurrentSpan(Span.DNS);
+			try {
+				entry = lookup(hostname);
+			} finally {
+				RequestTrace.endCurrentSpan(Span.DNS);
+			}
+		} else {
+			hits.incrementAndGet();
+			RequestTrace.setCurrentDnsCacheHit();
+			if (entry.refreshAt <= now) {
+				refreshInBackground(hostname);
+			}
+		}
+
+		if (entry.addresses == null) {
+			throw new UnknownHostException(hostname);
+		}
+		return entry.addresses;
+	}
+
+	/**
+	 * Resolves the hostnames in a background thread, so that they are already cached when needed.
+	 *
+	 * @param hostnames The hostnames to resolve.
+	 */
+	public void prefetch(final String... hostnames) {
+		new Thread() {
+			@Override
+			public void run() {
+				long now = SystemClock.elapsedRealtime();
+				for (String hostname: hostnames) {
+					Entry entry = entries.get(hostname);
+					if (entry == null || entry.refreshAt <= now) {
+						lookup(hostname);
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Discards all the cached lookups. Invoked when the network changes, because the DNS servers and the answers may be
+	 * different in the new network.
+	 */
+	public void invalidate() {
+		entries.clear();
+	}
+
+	/**
+	 * Discards the cached lookup of a hostname. Invoked when none of its addresses could be connected, so that the next
+	 * connection looks it up again.
+	 *
+	 * @param hostname The hostname.
+	 */
+	public void invalidate(String hostname) {
+		entries.remove(hostname);
+	}
+
+	/**
+	 * @return The number of resolutions served from the cache.
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of resolutions that had to wait for a lookup.
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Starts a background lookup for the hostname, unless there is already one running.
+	 *
+	 * @param hostname The hostname to refresh.
+	 */
+	private void refreshInBackground(final String hostname) {
+		if (refreshesInFlight.putIfAbsent(hostname, Boolean.TRUE) != null) {
+			return;
+		}
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					lookup(hostname);
+				} finally {
+					refreshesInFlight.remove(hostname);
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Performs the blocking DNS lookup and caches the result, successful or not.
+	 *
+	 * @param hostname The hostname to resolve.
+	 * @return The new cache Entry.
+	 */
+	private Entry lookup(String hostname) {
+		Entry entry;
+		long now = SystemClock.elapsedRealtime();
+		try {
+			InetAddress[] addresses = InetAddress.getAllByName(hostname);
+			if (LEVEL_SLOT.isLoggable(Log.DEBUG)) {
+				Log.d(TAG, "lookup() - The hostname %s was found with %d IP addresses, the first %s", hostname, addresses.length, addresses[0]);
+			}
+			entry = new Entry(addresses, now, POSITIVE_TTL);
+		} catch (UnknownHostException e) {
+			Log.i(TAG, "lookup() - Unable to find hostname %s", hostname);
+			entry = new Entry(null, now, NEGATIVE_TTL);
+		}
+		entries.put(hostname, entry);
+		return entry;
+	}
+
+	/**
+	 * A cached lookup. The addresses are NULL for a failed lookup.
+	 */
+	private static class Entry {
+
+		private final InetAddress[] addresses;
+		private final long refreshAt;
+		private final long expiresAt;
+
+		private Entry(InetAddress[] addresses, long now, long ttl) {
+			this.addresses = addresses;
+			this.refreshAt = now + (long) (ttl * REFRESH_FACTOR);
+			this.expiresAt = now + ttl;
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package pt.sapo.mobile.android.connect.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import pt.sapo.mobile.android.connect.network.RequestTrace;
+import pt.sapo.mobile.android.connect.network.RequestTrace.Span;
+import pt.sapo.mobile.android.connect.system.Log;
+
+/**
+ * ClientConnectionOperator that resolves the target hosts through the DnsCache, instead of the lookup that the
+ * HttpClient bundled with Android does itself on every new connection. The socket is connected to each cached address
+ * in turn, until one accepts the connection, and if none does, the cached lookup is discarded.
+ *
+ * The sockets are always connected to an IP address, with a plain SocketFactory. For the schemes with a
+ * LayeredSocketFactory (HTTPS), the TLS layer is then created over the connected socket, with the hostname for its
+ * verification.
+ *
+ * The DNS, CONNECT and TLS spans of the RequestTrace of the calling thread are recorded here, as this is where the
+ * connections are opened. The DNS span of a cached lookup is recorded too, and measures the cache.
+ */
+public class DnsCacheConnectionOperator extends DefaultClientConnectionOperator {
+
+	/**
+	 * Log tag for this class.
+	 */
+	private static final String TAG = "DnsCacheConnectionOperator";
+
+	/**
+	 * The cache that resolves the hosts.
+	 */
+	private final DnsCache dnsCache;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param schemeRegistry The scheme registry of the connection manager.
+	 * @param dnsCache The cache that resolves the hosts.
+	 */
+	public DnsCacheConnectionOperator(SchemeRegistry schemeRegistry, DnsCache dnsCache) {
+		super(schemeRegistry);
+		this.dnsCache = dnsCache;
+	}
+
+	@Override
+	public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local, HttpContext context, HttpParams params) throws IOException {
+		if (conn == null || target == null || params == null) {
+			throw new IllegalArgumentException("The connection, target host and parameters must not be null.");
+		}
+		if (conn.isOpen()) {
+			throw new IllegalStateException("Connection must not be open.");
+		}
+
+		Scheme scheme = schemeRegistry.getScheme(target.getSchemeName());
+		SocketFactory socketFactory = scheme.getSocketFactory();
+		LayeredSocketFactory layeredSocketFactory = null;
+		SocketFactory plainSocketFactory = socketFactory;
+		if (socketFactory instanceof LayeredSocketFactory) {
+			layeredSocketFactory = (LayeredSocketFactory) socketFactory;
+			plainSocketFactory = PlainSocketFactory.getSocketFactory();
+		}
+		String hostname = target.getHostName();
+		int port = scheme.resolvePort(target.getPort());
+
+		// The DnsCache traces the DNS span itself, only when it has to lookup the hostname.
+		InetAddress[] addresses = dnsCache.resolveAll(hostname);
+		for (int i = 0; i < addresses.length; i++) {
+			boolean lastAddress = i == addresses.length - 1;
+			Socket socket = plainSocketFactory.createSocket();
+			conn.opening(socket, target);
+			RequestTrace.startCurrentSpan(Span.CONNECT);
+			try {
+				Socket connectedSocket = plainSocketFactory.connectSocket(socket, addresses[i].getHostAddress(), port, local, 0, params);
+				if (connectedSocket != socket) {
+					socket = connectedSocket;
+					conn.opening(socket, target);
+				}
+			} catch (IOException e) {
+				closeSocket(socket);
+				// A ConnectException, a NoRouteToHostException (e.g. IPv6 unavailable) or a timeout.
+				if (!(e instanceof SocketException) && !(e instanceof ConnectTimeoutException)) {
+					throw e;
+				}
+				if (lastAddress) {
+					dnsCache.invalidate(hostname);
+					if (e instanceof ConnectException) {
+						throw new HttpHostConnectException(target, (ConnectException) e);
+					}
+					throw e;
+				}
+				Log.i(TAG, "openConnection() - Unable to connect to %s. Trying the next address.", addresses[i]);
+				continue;
+			} finally {
+				RequestTrace.endCurrentSpan(Span.CONNECT);
+			}
+
+			if (layeredSocketFactory != null) {
+				Socket layeredSocket;
+				RequestTrace.startCurrentSpan(Span.TLS);
+				try {
+					layeredSocket = layeredSocketFactory.createSocket(socket, hostname, port, true);
+				} catch (IOException e) {
+					closeSocket(socket);
+					throw e;
+				} finally {
+					RequestTrace.endCurrentSpan(Span.TLS);
+				}
+				if (layeredSocket != socket) {
+					socket = layeredSocket;
+					conn.opening(socket, target);
+				}
+			}
+			prepareSocket(socket, context, params);
+			conn.openCompleted(socketFactory.isSecure(socket), params);
+			return;
+		}
+	}
+
+	/**
+	 * Closes a socket that failed to connect.
+	 *
+	 * @param socket The socket.
+	 */
+	private static void closeSocket(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			Log.d(TAG, "closeSocket() - Unable to close the socket", e);
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package pt.sapo.mobile.android.connect.http;
 import java.lang.ref.SoftReference;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionOperator;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
@@ -12,6 +13,7 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpRequestExecutor;
 
 import pt.sapo.mobile.android.connect.system.Log;
 
@@ -59,7 +61,7 @@ public class MyHttpClient {
 	private MyHttpClient(IHttpClientConfiguration httpConfiguration) {
 		this.httpClientConnectionTimeout = httpConfiguration.getConnectionTimeout();
 		this.httpClientSocketTimeout = httpConfiguration.getSocketTimeout();
-		Log.d(TAG, "MyHttpClient() - HTTPClientConnectionTimeout=" + httpClientConnectionTimeout + "; HTTPClientSocketTimeout=" + httpClientSocketTimeout);
+		Log.d(TAG, "MyHttpClient() - HTTPClientConnectionTimeout=%d; HTTPClientSocketTimeout=%d", httpClientConnectionTimeout, httpClientSocketTimeout);
 	}
 	
 	/**
@@ -110,11 +112,23 @@ public class MyHttpClient {
 			schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
 		}
 		
-		// Creates a new ThreadSafeClientConnManager with the params and scheme registry for the HTPPS connection.
-		ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		// Creates a new ThreadSafeClientConnManager with the params and scheme registry for the HTPPS connection. Its
+		// connection operator resolves the hostnames through the DnsCache, and traces the connections in the
+		// RequestTrace of the calling thread.
+		ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(params, schemeRegistry) {
+			@Override
+			protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+				return new DnsCacheConnectionOperator(schreg, DnsCache.getInstance());
+			}
+		};
 		
-		// Creates the HttpClient.
-		httpClient = new DefaultHttpClient(manager, params);
+		// Creates the HttpClient, with the request executor that traces the request write and the time to first byte.
+		httpClient = new DefaultHttpClient(manager, params) {
+			@Override
+			protected HttpRequestExecutor createRequestExecutor() {
+				return new TracingHttpRequestExecutor();
+			}
+		};
 		HttpConnectionParams.setConnectionTimeout(params, httpClientConnectionTimeout);
 	    HttpConnectionParams.setSoTimeout(params, httpClientSocketTimeout);
 		HttpConnectionParams.setStaleCheckingEnabled(params, false);
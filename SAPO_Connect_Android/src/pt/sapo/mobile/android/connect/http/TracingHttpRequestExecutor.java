@@ -0,0 +1,99 @@
+package pt.sapo.mobile.android.connect.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import pt.sapo.mobile.android.connect.network.ProgressDispatcher;
+import pt.sapo.mobile.android.connect.network.RequestTrace;
+import pt.sapo.mobile.android.connect.network.RequestTrace.Span;
+
+/**
+ * HttpRequestExecutor that records the REQUEST_WRITE and TIME_TO_FIRST_BYTE spans of the current RequestTrace. The
+ * response body is not read here, so the BODY_DOWNLOAD span is recorded by whoever consumes the entity. The request
+ * and response body bytes are also added to the trace, the latter as the response content is read, and reported to the
+ * ProgressDispatcher of the request, if it has one.
+ */
+public class TracingHttpRequestExecutor extends HttpRequestExecutor {
+
+	@Override
+	protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null && entity.getContentLength() > 0) {
+				RequestTrace.addCurrentBytesSent(entity.getContentLength());
+			}
+		}
+
+		RequestTrace.startCurrentSpan(Span.REQUEST_WRITE);
+		try {
+			return super.doSendRequest(request, conn, context);
+		} finally {
+			RequestTrace.endCurrentSpan(Span.REQUEST_WRITE);
+		}
+	}
+
+	@Override
+	protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws HttpException, IOException {
+		HttpResponse response;
+		RequestTrace.startCurrentSpan(Span.TIME_TO_FIRST_BYTE);
+		try {
+			response = super.doReceiveResponse(request, conn, context);
+		} finally {
+			RequestTrace.endCurrentSpan(Span.TIME_TO_FIRST_BYTE);
+		}
+
+		if (response.getEntity() != null && (RequestTrace.current() != null || ProgressDispatcher.current() != null)) {
+			ProgressDispatcher.setCurrentTotalBytes(response.getEntity().getContentLength());
+			response.setEntity(new CountingEntity(response.getEntity()));
+		}
+		return response;
+	}
+
+	/**
+	 * Entity wrapper that adds the bytes read from the content to the RequestTrace and ProgressDispatcher of the reading
+	 * thread.
+	 */
+	private static class CountingEntity extends HttpEntityWrapper {
+
+		private CountingEntity(HttpEntity wrapped) {
+			super(wrapped);
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new FilterInputStream(wrappedEntity.getContent()) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						RequestTrace.addCurrentBytesReceived(1);
+						ProgressDispatcher.addCurrentBytesRead(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int count) throws IOException {
+					int read = super.read(buffer, offset, count);
+					if (read > 0) {
+						RequestTrace.addCurrentBytesReceived(read);
+						ProgressDispatcher.addCurrentBytesRead(read);
+					}
+					return read;
+				}
+			};
+		}
+	}
+
+}
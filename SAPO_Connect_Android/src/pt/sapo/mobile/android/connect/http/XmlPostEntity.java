@@ -0,0 +1,199 @@
+package pt.sapo.mobile.android.connect.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import pt.sapo.mobile.android.connect.network.RequestObject;
+import pt.sapo.mobile.android.connect.network.RequestTrace;
+import pt.sapo.mobile.android.connect.network.XmlBodyWriter;
+
+/**
+ * HttpEntity that has the RequestObject write its XML body straight to the connection, through an XmlBodyWriter, as
+ * the request is sent. The length isn't known in advance, so the body is sent with the chunked transfer encoding.
+ *
+ * The entity is repeatable, as writeXmlPost() must write the same XML every time, so the request can be retried.
+ */
+public class XmlPostEntity extends AbstractHttpEntity {
+
+	private final RequestObject requestObject;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param requestObject The RequestObject that writes the body, with streamsXmlPost() returning true.
+	 */
+	public XmlPostEntity(RequestObject requestObject) {
+		this.requestObject = requestObject;
+		setContentType("text/xml");
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * Only for the callers that need the content as a stream, as the body is built in memory.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeBody(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		if (outstream == null) {
+			throw new IllegalArgumentException("Output stream may not be null");
+		}
+		RequestTrace.addCurrentBytesSent(writeBody(outstream));
+	}
+
+	/**
+	 * Has the RequestObject write the body.
+	 *
+	 * @return The number of bytes written.
+	 */
+	private long writeBody(OutputStream outstream) throws IOException {
+		Utf8Writer utf8Writer = new Utf8Writer(outstream);
+		XmlBodyWriter xmlBodyWriter = new XmlBodyWriter(utf8Writer);
+		requestObject.writeXmlPost(xmlBodyWriter);
+		xmlBodyWriter.finish();
+		return utf8Writer.count;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * Writer that encodes the chars in UTF-8 into a small buffer, which is written to the output stream when full. The
+	 * OutputStreamWriter isn't used because it allocates a CharBuffer on every write, and an 8 KB buffer per body, while
+	 * the connection output stream is already buffered. It also counts the body bytes for the RequestTrace, since the
+	 * TracingHttpRequestExecutor only knows the length of the entities with a Content-Length.
+	 */
+	private static class Utf8Writer extends Writer {
+
+		private static final int BUFFER_SIZE = 1024;
+
+		private final OutputStream out;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position;
+		private long count;
+
+		/**
+		 * The high surrogate of a pair split between two writes, or 0.
+		 */
+		private char highSurrogate;
+
+		private Utf8Writer(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			writeChar((char) c);
+		}
+
+		@Override
+		public void write(char[] chars, int offset, int length) throws IOException {
+			for (int i = offset; i < offset + length; i++) {
+				writeChar(chars[i]);
+			}
+		}
+
+		@Override
+		public void write(String str, int offset, int length) throws IOException {
+			for (int i = offset; i < offset + length; i++) {
+				char c = str.charAt(i);
+				// Fast path for the ASCII chars, most of the XML.
+				if (c < 0x80 && highSurrogate == 0) {
+					if (position == BUFFER_SIZE) {
+						flushBuffer();
+					}
+					buffer[position++] = (byte) c;
+				} else {
+					writeChar(c);
+				}
+			}
+		}
+
+		private void writeChar(char c) throws IOException {
+			if (position > BUFFER_SIZE - 4) {
+				flushBuffer();
+			}
+			if (highSurrogate != 0) {
+				char high = highSurrogate;
+				highSurrogate = 0;
+				if (Character.isLowSurrogate(c)) {
+					int codePoint = Character.toCodePoint(high, c);
+					buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+					return;
+				}
+				// Unpaired surrogate: written as '?', as String.getBytes() does.
+				buffer[position++] = '?';
+				writeChar(c);
+				return;
+			}
+
+			if (c < 0x80) {
+				buffer[position++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c)) {
+				highSurrogate = c;
+			} else if (Character.isLowSurrogate(c)) {
+				buffer[position++] = '?';
+			} else {
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		private void flushBuffer() throws IOException {
+			if (position > 0) {
+				out.write(buffer, 0, position);
+				count += position;
+				position = 0;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				buffer[position++] = '?';
+			}
+			flushBuffer();
+			out.flush();
+		}
+
+		/**
+		 * The output stream belongs to the connection, so it's only flushed.
+		 */
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+package pt.sapo.mobile.android.connect.network;
+
+import pt.sapo.mobile.android.connect.http.DnsCache;
+import pt.sapo.mobile.android.connect.system.Log;
+import pt.sapo.mobile.android.connect.system.VersionCodes;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+
+/**
+ * Singleton that keeps the device connectivity state in memory. It registers once for the network change broadcasts
+ * and replaces an immutable ConnectivityState snapshot on every change, so reading the current state never has to
+ * query the ConnectivityManager. Requires the android.permission.ACCESS_NETWORK_STATE permission. The receiver stays
+ * registered until release().
+ *
+ * Simple usage:
+ *   ConnectivityMonitor.getInstance(context).getState().isConnected();
+ *   ConnectivityMonitor.getInstance(context).awaitConnection(timeout);
+ */
+public class ConnectivityMonitor {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "ConnectivityMonitor";
+
+	/**
+	 * Instance for this Singleton.
+	 */
+	private static ConnectivityMonitor instance;
+
+	/**
+	 * The application Context.
+	 */
+	private final Context context;
+
+	/**
+	 * The current connectivity snapshot. Replaced as a whole on every change.
+	 */
+	private volatile ConnectivityState state;
+
+	/**
+	 * Lock where the threads waiting for a network connection are held.
+	 */
+	private final Object connectionLock = new Object();
+
+	/**
+	 * Receiver for the network change broadcasts.
+	 */
+	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			updateState();
+		}
+	};
+
+	/**
+	 * Constructor. Reads the current state and registers for the network change broadcasts.
+	 *
+	 * @param context The application Context.
+	 */
+	private ConnectivityMonitor(Context context) {
+		this.context = context;
+		this.state = readState(null);
+
+		IntentFilter intentFilter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+		if (VersionCodes.SDK_LEVEL < VersionCodes.ICE_CREAM_SANDWICH) {
+			// Deprecated in ICE_CREAM_SANDWICH, where it's no longer sent.
+			@SuppressWarnings("deprecation")
+			String backgroundDataAction = ConnectivityManager.ACTION_BACKGROUND_DATA_SETTING_CHANGED;
+			intentFilter.addAction(backgroundDataAction);
+		}
+		context.registerReceiver(connectivityReceiver, intentFilter);
+		Log.d(TAG, "ConnectivityMonitor() - Registered for network changes. %s", state);
+	}
+
+	/**
+	 * Get the instance of the ConnectivityMonitor. The first invocation registers the broadcast receiver.
+	 *
+	 * @param context The caller Context.
+	 * @return The instance of this Singleton.
+	 */
+	public static synchronized ConnectivityMonitor getInstance(Context context) {
+		if (instance == null) {
+			instance = new ConnectivityMonitor(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Unregisters the broadcast receiver and discards the instance. The next getInstance() registers it again. Invoked
+	 * when the application no longer needs the connectivity state (e.g. in Application.onTerminate()).
+	 */
+	public static synchronized void release() {
+		if (instance != null) {
+			instance.context.unregisterReceiver(instance.connectivityReceiver);
+			instance = null;
+			Log.d(TAG, "release() - Unregistered from network changes.");
+		}
+	}
+
+	/**
+	 * Gets the current connectivity snapshot. This is a field read, so it can be called before every request.
+	 *
+	 * @return The current ConnectivityState.
+	 */
+	public ConnectivityState getState() {
+		return state;
+	}
+
+	/**
+	 * Blocks the calling thread until there is a network connection or the timeout expires. Must not be called in the
+	 * UI thread.
+	 *
+	 * @param timeoutMillis The maximum time to wait, in milliseconds.
+	 * @return True if there is a network connection. False if the timeout expired first.
+	 * @throws InterruptedException If the thread was interrupted while waiting.
+	 */
+	public boolean awaitConnection(long timeoutMillis) throws InterruptedException {
+		if (state.isConnected()) {
+			return true;
+		}
+
+		long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+		synchronized (connectionLock) {
+			long remaining = timeoutMillis;
+			while (!state.isConnected() && remaining > 0) {
+				connectionLock.wait(remaining);
+				remaining = deadline - SystemClock.elapsedRealtime();
+			}
+		}
+		return state.isConnected();
+	}
+
+	/**
+	 * Replaces the snapshot with the current state and releases the waiting threads if the network is back.
+	 */
+	private void updateState() {
+		ConnectivityState previousState = state;
+		ConnectivityState newState = readState(previousState);
+		state = newState;
+		Log.d(TAG, "updateState() - %s", newState);
+
+		if (newState != previousState) {
+			// The server reachability verdicts and DNS lookups obtained on the previous network are no longer valid.
+			ReachabilityProber.getInstance().invalidate();
+			DnsCache.getInstance().invalidate();
+			if (newState.isConnected()) {
+				DnsCache.getInstance().prefetch(Services.SAPO_SERVICES_HOST);
+			}
+		}
+
+		if (newState.isConnected()) {
+			synchronized (connectionLock) {
+				connectionLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Queries the ConnectivityManager for the active network. A network is only considered connected if it is a WIFI or
+	 * MOBILE network and the background data setting is enabled.
+	 *
+	 * @param previousState The previous snapshot, to keep the 'since' time if nothing relevant changed. May be NULL.
+	 * @return The new ConnectivityState.
+	 */
+	private ConnectivityState readState(ConnectivityState previousState) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+
+		boolean connected = false;
+		int type = ConnectivityState.TYPE_NONE;
+
+		if (info != null && isBackgroundDataEnabled(connectivityManager)) {
+			type = info.getType();
+			if (type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_MOBILE) {
+				connected = info.isConnected();
+			}
+		}
+
+		if (previousState != null && previousState.isConnected() == connected && previousState.getType() == type) {
+			return previousState;
+		}
+		return new ConnectivityState(connected, type, SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * The background data setting is deprecated in ICE_CREAM_SANDWICH, where it always returns true, and the background
+	 * data restrictions make getActiveNetworkInfo() report the network as disconnected instead.
+	 *
+	 * @return True if the applications may use the network in the background.
+	 */
+	@SuppressWarnings("deprecation")
+	private static boolean isBackgroundDataEnabled(ConnectivityManager connectivityManager) {
+		return VersionCodes.SDK_LEVEL >= VersionCodes.ICE_CREAM_SANDWICH || connectivityManager.getBackgroundDataSetting();
+	}
+
+	/**
+	 * Immutable snapshot of the connectivity state.
+	 */
+	public static class ConnectivityState {
+
+		/**
+		 * Network type when there is no active network.
+		 */
+		public static final int TYPE_NONE = -1;
+
+		private final boolean connected;
+		private final int type;
+		private final long since;
+
+		private ConnectivityState(boolean connected, int type, long since) {
+			this.connected = connected;
+			this.type = type;
+			this.since = since;
+		}
+
+		/**
+		 * @return True if there is a WIFI or MOBILE network connection.
+		 */
+		public boolean isConnected() {
+			return connected;
+		}
+
+		/**
+		 * @return The ConnectivityManager network type (e.g. TYPE_WIFI), or TYPE_NONE.
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * ConnectivityManager.isActiveNetworkMetered() only exists in API level 16, so every network that is not WIFI is
+		 * considered metered.
+		 *
+		 * @return True if the active network is probably metered.
+		 */
+		public boolean isMetered() {
+			return connected && type != ConnectivityManager.TYPE_WIFI;
+		}
+
+		/**
+		 * @return The SystemClock.elapsedRealtime() when this state started.
+		 */
+		public long getSince() {
+			return since;
+		}
+
+		@Override
+		public String toString() {
+			return "ConnectivityState: connected=" + connected + "; type=" + type + "; metered=" + isMetered() + "; since=" + since;
+		}
+	}
+
+}
@@ -0,0 +1,593 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull reader of a JSON stream, with the same methods as android.util.JsonReader, which is only available since API 11.
+ * The tokens are read as they are needed, from a small buffer, so a response is never held in memory.
+ *
+ * The first 128 different object member names of a response are kept in a table of the reader, so the names repeated
+ * in every record are only created once. The table isn't shared with other readers nor with String.intern(), and the
+ * names past the first 128 are new Strings each time, so the names must be compared with equals().
+ *
+ * The reader is lenient with the numbers in strings, as returned by some services: nextInt(), nextLong() and
+ * nextDouble() also parse a STRING token.
+ */
+public class JsonStreamReader {
+
+	/**
+	 * The JSON tokens.
+	 */
+	public enum Token {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	/**
+	 * Thrown when the stream isn't valid JSON or has an unexpected token. It's an IOException, as in
+	 * android.util.JsonReader, but it doesn't mean a connection error.
+	 */
+	public static class MalformedJsonException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public MalformedJsonException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The scopes of the nesting stack.
+	 */
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	/**
+	 * The size of the name table. Only the first NAME_TABLE_SIZE / 2 different names are interned.
+	 */
+	private static final int NAME_TABLE_SIZE = 256;
+
+	private final Reader in;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+
+	private int[] stack = new int[16];
+	private int stackSize;
+
+	/**
+	 * The token returned by peek() and not consumed yet, or NULL.
+	 */
+	private Token peeked;
+
+	private final String[] names = new String[NAME_TABLE_SIZE];
+	private int nameCount;
+
+	/**
+	 * Used for the strings split between buffer fills or with escapes.
+	 */
+	private final StringBuilder stringBuilder = new StringBuilder();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in The JSON stream. It's buffered by this reader.
+	 */
+	public JsonStreamReader(Reader in) {
+		this.in = in;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * @return The type of the next token, without consuming it.
+	 * @throws IOException If the stream can't be read or isn't valid JSON.
+	 */
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+
+		int c;
+		switch (stack[stackSize - 1]) {
+			case EMPTY_DOCUMENT:
+				stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+				return peeked = readValueToken(nextNonWhitespace());
+
+			case NONEMPTY_DOCUMENT:
+				c = nextNonWhitespace();
+				if (c != -1) {
+					throw syntaxError("Expected the end of the document");
+				}
+				return peeked = Token.END_DOCUMENT;
+
+			case EMPTY_ARRAY:
+				stack[stackSize - 1] = NONEMPTY_ARRAY;
+				c = nextNonWhitespace();
+				return peeked = (c == ']') ? Token.END_ARRAY : readValueToken(c);
+
+			case NONEMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']') {
+					return peeked = Token.END_ARRAY;
+				} else if (c != ',') {
+					throw syntaxError("Expected ',' or ']'");
+				}
+				return peeked = readValueToken(nextNonWhitespace());
+
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') {
+					return peeked = Token.END_OBJECT;
+				}
+				if (stack[stackSize - 1] == NONEMPTY_OBJECT) {
+					if (c != ',') {
+						throw syntaxError("Expected ',' or '}'");
+					}
+					c = nextNonWhitespace();
+				}
+				if (c != '"') {
+					throw syntaxError("Expected a name");
+				}
+				stack[stackSize - 1] = DANGLING_NAME;
+				return peeked = Token.NAME;
+
+			case DANGLING_NAME:
+				if (nextNonWhitespace() != ':') {
+					throw syntaxError("Expected ':'");
+				}
+				stack[stackSize - 1] = NONEMPTY_OBJECT;
+				return peeked = readValueToken(nextNonWhitespace());
+
+			default:
+				throw new IllegalStateException("Unknown scope");
+		}
+	}
+
+	/**
+	 * Determines the token of a value from its first char. The quote of a string is consumed, the first char of the
+	 * literals is not.
+	 */
+	private Token readValueToken(int c) throws IOException {
+		switch (c) {
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				return Token.STRING;
+			case 't':
+			case 'f':
+				pos--;
+				return Token.BOOLEAN;
+			case 'n':
+				pos--;
+				return Token.NULL;
+			case -1:
+				throw syntaxError("Unexpected end of the document");
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					pos--;
+					return Token.NUMBER;
+				}
+				throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * @return True if the current array or object has more elements.
+	 * @throws IOException If the stream can't be read or isn't valid JSON.
+	 */
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		stackSize--;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		stackSize--;
+	}
+
+	/**
+	 * @return The next object member name. To be compared with equals(), see the class comment.
+	 * @throws IOException If the stream can't be read, isn't valid JSON or the next token isn't a NAME.
+	 */
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return readString(true);
+	}
+
+	/**
+	 * @return The next STRING, or the literal of the next NUMBER.
+	 * @throws IOException If the stream can't be read, isn't valid JSON or the next token isn't a STRING or NUMBER.
+	 */
+	public String nextString() throws IOException {
+		Token token = peek();
+		if (token == Token.STRING) {
+			peeked = null;
+			return readString(false);
+		} else if (token == Token.NUMBER) {
+			peeked = null;
+			return readLiteral();
+		}
+		throw unexpected(Token.STRING, token);
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		String literal = readLiteral();
+		if ("true".equals(literal)) {
+			return true;
+		} else if ("false".equals(literal)) {
+			return false;
+		}
+		throw syntaxError("Invalid literal " + literal);
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+		String literal = readLiteral();
+		if (!"null".equals(literal)) {
+			throw syntaxError("Invalid literal " + literal);
+		}
+	}
+
+	public long nextLong() throws IOException {
+		String number = nextNumber();
+		try {
+			return Long.parseLong(number);
+		} catch (NumberFormatException e) {
+			double value = parseDouble(number);
+			if (value != (long) value) {
+				throw syntaxError("Expected a long but was " + number);
+			}
+			return (long) value;
+		}
+	}
+
+	public int nextInt() throws IOException {
+		long value = nextLong();
+		if (value != (int) value) {
+			throw syntaxError("Expected an int but was " + value);
+		}
+		return (int) value;
+	}
+
+	public double nextDouble() throws IOException {
+		return parseDouble(nextNumber());
+	}
+
+	/**
+	 * Skips the next value, with all its children if it's an array or an object.
+	 *
+	 * @throws IOException If the stream can't be read or isn't valid JSON, or if the next token is the end of an array
+	 *         or an object instead of a value.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			if (depth == 0 && (token == Token.END_ARRAY || token == Token.END_OBJECT)) {
+				// There is no value to skip. Popping the scope would leave the enclosing array or object. The token is
+				// left for endArray() or endObject().
+				throw syntaxError("Expected a value but was " + token);
+			}
+			peeked = null;
+			switch (token) {
+				case BEGIN_ARRAY:
+					push(EMPTY_ARRAY);
+					depth++;
+					break;
+				case BEGIN_OBJECT:
+					push(EMPTY_OBJECT);
+					depth++;
+					break;
+				case END_ARRAY:
+				case END_OBJECT:
+					stackSize--;
+					depth--;
+					break;
+				case NAME:
+				case STRING:
+					skipString();
+					break;
+				case NUMBER:
+				case BOOLEAN:
+				case NULL:
+					skipLiteral();
+					break;
+				case END_DOCUMENT:
+					throw syntaxError("Unexpected end of the document");
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Closes the underlying Reader.
+	 *
+	 * @throws IOException If the Reader can't be closed.
+	 */
+	public void close() throws IOException {
+		peeked = null;
+		stackSize = 0;
+		in.close();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                 READING                                                    //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw unexpected(expected, token);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private String nextNumber() throws IOException {
+		Token token = peek();
+		if (token == Token.NUMBER) {
+			peeked = null;
+			return readLiteral();
+		} else if (token == Token.STRING) {
+			peeked = null;
+			return readString(false);
+		}
+		throw unexpected(Token.NUMBER, token);
+	}
+
+	private double parseDouble(String number) throws MalformedJsonException {
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a number but was " + number);
+		}
+	}
+
+	/**
+	 * Reads more chars to the buffer, keeping the unread ones.
+	 *
+	 * @return False if the end of the stream was reached.
+	 */
+	private boolean fillBuffer() throws IOException {
+		if (pos < limit) {
+			System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+			limit -= pos;
+		} else {
+			limit = 0;
+		}
+		pos = 0;
+		int read;
+		while ((read = in.read(buffer, limit, buffer.length - limit)) == 0) {
+			// Blocking Readers don't return 0, but some wrappers do.
+		}
+		if (read < 0) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * @return The next char that isn't whitespace, or -1 at the end of the stream.
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			if (pos == limit && !fillBuffer()) {
+				return -1;
+			}
+			char c = buffer[pos++];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Reads a string after its opening quote, up to and including the closing quote.
+	 *
+	 * @param name If true, the string is interned in the name table.
+	 */
+	private String readString(boolean name) throws IOException {
+		// Fast path: the whole string is in the buffer and has no escapes.
+		for (int i = pos; i < limit; i++) {
+			char c = buffer[i];
+			if (c == '"') {
+				int start = pos;
+				pos = i + 1;
+				return name ? internName(buffer, start, i - start) : new String(buffer, start, i - start);
+			} else if (c == '\\') {
+				break;
+			}
+		}
+
+		stringBuilder.setLength(0);
+		while (true) {
+			if (pos == limit && !fillBuffer()) {
+				throw syntaxError("Unterminated string");
+			}
+			char c = buffer[pos++];
+			if (c == '"') {
+				break;
+			} else if (c == '\\') {
+				stringBuilder.append(readEscape());
+			} else {
+				stringBuilder.append(c);
+			}
+		}
+		if (name) {
+			int length = stringBuilder.length();
+			char[] chars = new char[length];
+			stringBuilder.getChars(0, length, chars, 0);
+			return internName(chars, 0, length);
+		}
+		return stringBuilder.toString();
+	}
+
+	private void skipString() throws IOException {
+		while (true) {
+			if (pos == limit && !fillBuffer()) {
+				throw syntaxError("Unterminated string");
+			}
+			char c = buffer[pos++];
+			if (c == '"') {
+				return;
+			} else if (c == '\\') {
+				readEscape();
+			}
+		}
+	}
+
+	/**
+	 * Reads an escape sequence after the backslash.
+	 */
+	private char readEscape() throws IOException {
+		if (pos == limit && !fillBuffer()) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = buffer[pos++];
+		switch (c) {
+			case 'u':
+				// A Reader may return less chars than asked for, so it may take more than one fill.
+				while (limit - pos < 4) {
+					if (!fillBuffer()) {
+						throw syntaxError("Unterminated escape sequence");
+					}
+				}
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(buffer[pos++], 16);
+					if (digit < 0) {
+						throw syntaxError("Invalid escape sequence");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			default:
+				// '"', '\\' and '/'.
+				return c;
+		}
+	}
+
+	/**
+	 * Reads a number, boolean or null literal, up to the next delimiter.
+	 */
+	private String readLiteral() throws IOException {
+		stringBuilder.setLength(0);
+		while (true) {
+			if (pos == limit && !fillBuffer()) {
+				break;
+			}
+			char c = buffer[pos];
+			if (isLiteralDelimiter(c)) {
+				break;
+			}
+			stringBuilder.append(c);
+			pos++;
+		}
+		if (stringBuilder.length() == 0) {
+			throw syntaxError("Expected a literal");
+		}
+		return stringBuilder.toString();
+	}
+
+	private void skipLiteral() throws IOException {
+		while (pos < limit || fillBuffer()) {
+			if (isLiteralDelimiter(buffer[pos])) {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private static boolean isLiteralDelimiter(char c) {
+		return c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	/**
+	 * Gets the String of a name from the name table, adding it if it's not there and the table isn't half full.
+	 */
+	private String internName(char[] chars, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		int mask = NAME_TABLE_SIZE - 1;
+		for (int index = (hash ^ (hash >>> 16)) & mask; ; index = (index + 1) & mask) {
+			String candidate = names[index];
+			if (candidate == null) {
+				String name = new String(chars, start, length);
+				if (nameCount < NAME_TABLE_SIZE / 2) {
+					names[index] = name;
+					nameCount++;
+				}
+				return name;
+			}
+			if (candidate.length() == length && regionEquals(candidate, chars, start)) {
+				return candidate;
+			}
+		}
+	}
+
+	private static boolean regionEquals(String candidate, char[] chars, int start) {
+		for (int i = 0; i < candidate.length(); i++) {
+			if (candidate.charAt(i) != chars[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private MalformedJsonException unexpected(Token expected, Token token) {
+		return new MalformedJsonException("Expected " + expected + " but was " + token);
+	}
+
+	private MalformedJsonException syntaxError(String message) {
+		return new MalformedJsonException(message);
+	}
+
+}
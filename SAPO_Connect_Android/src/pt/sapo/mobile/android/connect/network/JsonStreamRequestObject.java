@@ -0,0 +1,193 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.apache.http.protocol.HTTP;
+
+import pt.sapo.mobile.android.connect.network.JsonStreamReader.MalformedJsonException;
+import pt.sapo.mobile.android.connect.network.JsonStreamReader.Token;
+import pt.sapo.mobile.android.connect.system.Log;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+
+/**
+ * Base class for the RequestObjects of the WebServices that reply in JSON with a list of records. The response is read
+ * with a JsonStreamReader as it is downloaded, and each record is delivered to onRecord() as soon as it's read, so the
+ * memory used doesn't depend on the size of the response. If the callback is an OnNetworkProgressListener, the records
+ * are also delivered to it in batches, after onRecord(), while the rest is still being read. The OAuth requests get
+ * the response as a String, which is read the same way.
+ *
+ * By default the records are the elements of the top level array. For a response like {"rsp":{"images":[...]}},
+ * override beginRecords() to move the reader into the array, e.g. with findArray(reader, "images"). E.g.:
+ *
+ *   protected Image readRecord(JsonStreamReader reader) throws IOException {
+ *       Image image = new Image();
+ *       reader.beginObject();
+ *       while (reader.hasNext()) {
+ *           String name = reader.nextName();
+ *           if (name.equals("id")) {
+ *               image.id = reader.nextLong();
+ *           } else {
+ *               reader.skipValue();
+ *           }
+ *       }
+ *       reader.endObject();
+ *       return image;
+ *   }
+ *
+ *   protected void onRecord(Context context, Image image, NetworkObject networkObject) {
+ *       myDatabase.insert(image);
+ *       networkObject.insertedResults++;
+ *   }
+ *
+ * @param <T> The type of the records.
+ */
+public abstract class JsonStreamRequestObject<T> extends RequestObject {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "JsonStreamRequestObject";
+
+	/**
+	 * Reads a record. Invoked in the network thread, with the reader at the record value.
+	 *
+	 * @param reader The reader of the response.
+	 * @return The record.
+	 * @throws IOException If the response can't be read or has an unexpected token.
+	 */
+	protected abstract T readRecord(JsonStreamReader reader) throws IOException;
+
+	/**
+	 * Processes a record, as soon as it's read. Invoked in the network thread.
+	 *
+	 * @param context The caller Context.
+	 * @param record The record.
+	 * @param networkObject The NetworkObject for the results, with the request code, result set and cursor already set.
+	 */
+	protected abstract void onRecord(Context context, T record, NetworkObject networkObject);
+
+	/**
+	 * Moves the reader into the array of records. By default, the records are the elements of the top level array.
+	 * Override it for the responses with the records inside an object, or to read an error response into the
+	 * NetworkObject.
+	 *
+	 * @param reader The reader of the response, at the beginning.
+	 * @param networkObject The NetworkObject for the results.
+	 * @return True if the reader is inside the array of records. False if there are no records (e.g. an error).
+	 * @throws IOException If the response can't be read or has an unexpected token.
+	 */
+	protected boolean beginRecords(JsonStreamReader reader, NetworkObject networkObject) throws IOException {
+		if (reader.peek() == Token.BEGIN_ARRAY) {
+			reader.beginArray();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Invoked after the last record, or when the response can't be read, in the network thread. E.g. to finish or abort
+	 * a BulkIngest. Does nothing by default.
+	 *
+	 * @param context The caller Context.
+	 * @param networkObject The NetworkObject for the results.
+	 * @param complete True if all the records were read. False if the response was invalid, incomplete or had no records.
+	 */
+	protected void onRecordsEnd(Context context, NetworkObject networkObject, boolean complete) {
+	}
+
+	@Override
+	public boolean streamsResponse() {
+		return true;
+	}
+
+	@Override
+	public NetworkObject executeStreamOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, InputStream responseStream, String charset, Cursor cursor, RequestObject requestObject) throws IOException {
+		Reader reader = new InputStreamReader(responseStream, charset != null ? charset : HTTP.UTF_8);
+		return readRecords(context, new JsonStreamReader(reader), cursor, requestObject);
+	}
+
+	@Override
+	public NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, String responseString, Cursor cursor, RequestObject requestObject) {
+		try {
+			return readRecords(context, new JsonStreamReader(new StringReader(responseString)), cursor, requestObject);
+		} catch (IOException e) {
+			// Not expected from a StringReader.
+			Log.e(TAG, "executeOperations() - Unable to read the response from " + getWebServiceName(), e);
+			NetworkObject networkObject = new NetworkObject(requestObject, cursor);
+			networkObject.result = false;
+			return networkObject;
+		}
+	}
+
+	/**
+	 * Reads the records and delivers them to onRecord(), one by one.
+	 *
+	 * @throws IOException If the response can't be read from the connection. Invalid JSON only fails the request.
+	 */
+	private NetworkObject readRecords(Context context, JsonStreamReader reader, Cursor cursor, RequestObject requestObject) throws IOException {
+		NetworkObject networkObject = new NetworkObject(requestObject, cursor);
+		ProgressDispatcher progressDispatcher = ProgressDispatcher.current();
+		boolean complete = false;
+		try {
+			if (beginRecords(reader, networkObject)) {
+				while (reader.hasNext()) {
+					T record = readRecord(reader);
+					onRecord(context, record, networkObject);
+					if (progressDispatcher != null) {
+						progressDispatcher.addPartialResult(record);
+					}
+				}
+				reader.endArray();
+				complete = true;
+			}
+		} catch (MalformedJsonException e) {
+			Log.e(TAG, "readRecords() - Invalid JSON response from " + getWebServiceName(), e);
+		} finally {
+			onRecordsEnd(context, networkObject, complete);
+		}
+		networkObject.result = complete;
+		return networkObject;
+	}
+
+	/**
+	 * Moves the reader into the first array with the name, at any depth of the objects, skipping everything before it.
+	 *
+	 * @param reader The reader.
+	 * @param name The member name of the array.
+	 * @return True if the reader is inside the array. False if the document has ended.
+	 * @throws IOException If the response can't be read or isn't valid JSON.
+	 */
+	protected static boolean findArray(JsonStreamReader reader, String name) throws IOException {
+		while (true) {
+			switch (reader.peek()) {
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					break;
+				case END_OBJECT:
+					reader.endObject();
+					break;
+				case NAME:
+					if (name.equals(reader.nextName()) && reader.peek() == Token.BEGIN_ARRAY) {
+						reader.beginArray();
+						return true;
+					}
+					if (reader.peek() != Token.BEGIN_OBJECT) {
+						reader.skipValue();
+					}
+					break;
+				case END_DOCUMENT:
+					return false;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,332 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Singleton registry with the request metrics of each WebService, keyed by the HTTP method and the WebService name
+ * (e.g. "GET ImageGetListByUser"). Every finished RequestTrace is recorded here, so there is nothing to configure.
+ *
+ * For each WebService it counts the requests, the failures by NetworkUtilities.STATUS_* code, the connections resolved
+ * from the DnsCache and the request and response body bytes, and keeps a latency histogram of the successful requests,
+ * so that the fast failures (e.g. no network) don't hide the latency regressions in the percentiles. The latency is the
+ * RequestTrace service time, without the queue wait, the offline hold and the dispatch to the UI thread, so that a busy
+ * thread pool or a device offline don't look like a slower service. All the updates
+ * are lock-free (atomic counters) and the histogram has a fixed size, so the registry never grows beyond one entry per
+ * WebService. The getSnapshot() method reports the p50/p90/p99 latencies, to alert on service latency regressions.
+ *
+ * Simple usage:
+ *   for (NetworkMetrics.ServiceSnapshot snapshot: NetworkMetrics.getInstance().getSnapshot()) {
+ *       myAnalytics.track(snapshot.getName(), snapshot.getP99());
+ *   }
+ */
+public class NetworkMetrics {
+
+	/**
+	 * The number of failure status codes (NetworkUtilities.STATUS_*).
+	 */
+	private static final int STATUS_COUNT = 3;
+
+	/**
+	 * Instance for this Singleton.
+	 */
+	private static NetworkMetrics instance;
+
+	/**
+	 * The metrics of each WebService.
+	 */
+	private final ConcurrentHashMap<String, ServiceMetrics> services = new ConcurrentHashMap<String, ServiceMetrics>();
+
+	/**
+	 * Constructor.
+	 */
+	private NetworkMetrics() {
+	}
+
+	/**
+	 * @return The instance for this Singleton.
+	 */
+	public static synchronized NetworkMetrics getInstance() {
+		if (instance == null) {
+			instance = new NetworkMetrics();
+		}
+		return instance;
+	}
+
+	/**
+	 * Records a finished request.
+	 *
+	 * @param trace The RequestTrace of the request.
+	 */
+	void record(RequestTrace trace) {
+		String name = trace.getName();
+		ServiceMetrics metrics = services.get(name);
+		if (metrics == null) {
+			ServiceMetrics newMetrics = new ServiceMetrics();
+			metrics = services.putIfAbsent(name, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		metrics.record(trace);
+	}
+
+	/**
+	 * Takes a snapshot of the metrics of all the WebServices. The counters are read one by one, so a snapshot taken
+	 * while requests are running may be off by the requests that finished in the meantime.
+	 *
+	 * @return The snapshots, one per WebService, in no particular order.
+	 */
+	public List<ServiceSnapshot> getSnapshot() {
+		List<ServiceSnapshot> snapshots = new ArrayList<ServiceSnapshot>(services.size());
+		for (Map.Entry<String, ServiceMetrics> entry: services.entrySet()) {
+			snapshots.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Discards all the metrics.
+	 */
+	public void reset() {
+		services.clear();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            SERVICE METRICS                                                 //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * The counters and the latency histogram of a WebService.
+	 */
+	private static class ServiceMetrics {
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLongArray failures = new AtomicLongArray(STATUS_COUNT);
+		private final AtomicLong dnsCacheHits = new AtomicLong();
+		private final AtomicLong bytesOut = new AtomicLong();
+		private final AtomicLong bytesIn = new AtomicLong();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private void record(RequestTrace trace) {
+			requests.incrementAndGet();
+			if (!trace.isSuccess()) {
+				int status = trace.getFailureStatus();
+				failures.incrementAndGet(status >= 0 && status < STATUS_COUNT ? status : NetworkUtilities.STATUS_CONNECTION_OK);
+			}
+
+			if (trace.isDnsCacheHit()) {
+				dnsCacheHits.incrementAndGet();
+			}
+
+			bytesOut.addAndGet(trace.getBytesSent());
+			bytesIn.addAndGet(trace.getBytesReceived());
+			long serviceTime = trace.getServiceTime();
+			if (trace.isSuccess() && serviceTime >= 0) {
+				latency.record(serviceTime / 1000);
+			}
+		}
+
+		private ServiceSnapshot snapshot(String name) {
+			long[] failureCounts = new long[STATUS_COUNT];
+			for (int i = 0; i < STATUS_COUNT; i++) {
+				failureCounts[i] = failures.get(i);
+			}
+			long[] counts = latency.copyCounts();
+			return new ServiceSnapshot(name, requests.get(), failureCounts, dnsCacheHits.get(), bytesOut.get(), bytesIn.get(),
+					LatencyHistogram.percentile(counts, 50), LatencyHistogram.percentile(counts, 90), LatencyHistogram.percentile(counts, 99));
+		}
+	}
+
+	/**
+	 * Fixed-size log-linear histogram of latencies, in milliseconds. The values below 16 ms have their own bucket, and
+	 * each power of two above that is split in 16 buckets, so the error of a percentile is at most 1/16 (6.25%). The
+	 * values above MAX_VALUE (about 4.6 hours) go to the last bucket.
+	 */
+	private static class LatencyHistogram {
+
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int MAX_EXPONENT = 23;
+		private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+		private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		private void record(long value) {
+			counts.incrementAndGet(bucketIndex(Math.min(Math.max(value, 0), MAX_VALUE)));
+		}
+
+		private long[] copyCounts() {
+			long[] copy = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				copy[i] = counts.get(i);
+			}
+			return copy;
+		}
+
+		private static int bucketIndex(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		/**
+		 * @return The highest value that goes to the bucket.
+		 */
+		private static long bucketUpperBound(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			long subBucket = index % SUB_BUCKETS;
+			return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+
+		/**
+		 * Nearest-rank percentile of the histogram counts.
+		 *
+		 * @return The upper bound of the bucket with the percentile, or -1 if there are no samples.
+		 */
+		private static long percentile(long[] counts, int percentile) {
+			long total = 0;
+			for (long count: counts) {
+				total += count;
+			}
+			if (total == 0) {
+				return -1;
+			}
+			long rank = Math.max((long) Math.ceil(percentile / 100.0 * total), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return bucketUpperBound(i);
+				}
+			}
+			return MAX_VALUE;
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                SNAPSHOT                                                    //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * The metrics of a WebService at the time of the snapshot. The latencies are those of the successful requests, in
+	 * milliseconds, and are -1 if there are none yet.
+	 */
+	public static class ServiceSnapshot {
+
+		private final String name;
+		private final long requests;
+		private final long[] failures;
+		private final long dnsCacheHits;
+		private final long bytesOut;
+		private final long bytesIn;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+
+		private ServiceSnapshot(String name, long requests, long[] failures, long dnsCacheHits, long bytesOut, long bytesIn, long p50, long p90, long p99) {
+			this.name = name;
+			this.requests = requests;
+			this.failures = failures;
+			this.dnsCacheHits = dnsCacheHits;
+			this.bytesOut = bytesOut;
+			this.bytesIn = bytesIn;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+		}
+
+		/**
+		 * @return The HTTP method and WebService name (e.g. "GET ImageGetListByUser").
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * @param status One of NetworkUtilities.STATUS_*. The failures where the network and the server were available
+		 *        (e.g. an HTTP error status or an OAuth error) are counted as STATUS_CONNECTION_OK.
+		 * @return The number of failed requests with the status.
+		 */
+		public long getFailures(int status) {
+			return failures[status];
+		}
+
+		/**
+		 * @return The total number of failed requests.
+		 */
+		public long getFailures() {
+			long total = 0;
+			for (long count: failures) {
+				total += count;
+			}
+			return total;
+		}
+
+		/**
+		 * @return The number of requests that connected without a DNS lookup, because the DnsCache had the address.
+		 */
+		public long getDnsCacheHits() {
+			return dnsCacheHits;
+		}
+
+		/**
+		 * @return The bytes of the request bodies sent.
+		 */
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		/**
+		 * @return The bytes of the response bodies received.
+		 */
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("ServiceSnapshot: ").append(name);
+			sb.append("; requests=").append(requests);
+			sb.append("; failures=").append(getFailures());
+			sb.append(" (noNetwork=").append(failures[NetworkUtilities.STATUS_NO_NETWORK_CONNECTION]);
+			sb.append(", noServer=").append(failures[NetworkUtilities.STATUS_NO_CONNECTION_TO_SERVER]);
+			sb.append(", other=").append(failures[NetworkUtilities.STATUS_CONNECTION_OK]).append(')');
+			sb.append("; dnsCacheHits=").append(dnsCacheHits);
+			sb.append("; bytesOut=").append(bytesOut);
+			sb.append("; bytesIn=").append(bytesIn);
+			sb.append("; p50=").append(p50).append("; p90=").append(p90).append("; p99=").append(p99);
+			return sb.toString();
+		}
+	}
+
+}
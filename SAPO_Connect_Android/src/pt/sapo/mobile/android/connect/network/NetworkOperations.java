@@ -1,6 +1,8 @@
 package pt.sapo.mobile.android.connect.network;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 
@@ -23,6 +25,8 @@ import pt.sapo.mobile.android.connect.SAPOConnect;
 import pt.sapo.mobile.android.connect.exception.SapoException;
 import pt.sapo.mobile.android.connect.http.ConnectHttpClientConfiguration;
 import pt.sapo.mobile.android.connect.http.MyHttpClient;
+import pt.sapo.mobile.android.connect.http.XmlPostEntity;
+import pt.sapo.mobile.android.connect.network.RequestTrace.Span;
 import pt.sapo.mobile.android.connect.system.Log;
 import android.content.Context;
 import android.database.Cursor;
@@ -147,14 +151,40 @@ public class NetworkOperations {
     	return sb.toString();
     }
     
+    /**
+     * Determines, before any socket is opened, if there is a network connection to send the request. If the device is
+     * offline, threaded requests are held until the network returns or the OFFLINE_REQUEST_HOLD_TIMEOUT expires, and
+     * unthreaded requests fail immediately.
+     * 
+     * @param context The caller Context.
+     * @param unthreaded If true, the request is running in the caller's thread and must not be held.
+     * @return True if there is a network connection and the request can be sent.
+     */
+    protected static boolean awaitNetworkConnection(Context context, boolean unthreaded) {
+    	ConnectivityMonitor connectivityMonitor = ConnectivityMonitor.getInstance(context);
+    	if (connectivityMonitor.getState().isConnected()) {
+    		return true;
+    	}
+    	if (unthreaded) {
+    		return false;
+    	}
+    	
+    	Log.d(TAG, "awaitNetworkConnection() - No network connection. Holding the request.");
+    	try {
+			return connectivityMonitor.awaitConnection(Services.OFFLINE_REQUEST_HOLD_TIMEOUT);
+		} catch (InterruptedException e) {
+			Log.w(TAG, "awaitNetworkConnection() - Interrupted while waiting for the network connection.");
+			Thread.currentThread().interrupt();
+			return false;
+		}
+    }
+    
     /**
      * Dumps the contents of the requestObject into the 
      * @param requestObject
      */
     protected static void dumpRequestObject(RequestObject requestObject) {
-    	if (Log.isDebug()) {
-    		Log.d(TAG, requestObject.toString());	
-    	}
+    	Log.d(TAG, "%s", requestObject);
     }
     
     /**
@@ -175,19 +205,28 @@ public class NetworkOperations {
     		final boolean unthreaded,
     		final RequestObject requestObject) {
     	Log.d(TAG, "callWebService() - Start");
+    	
+    	// Fail fast if there is no network connection.
+    	if (!awaitNetworkConnection(context, unthreaded)) {
+    		Log.i(TAG, "callWebService() - No network connection available. The request was not sent.");
+    		RequestTrace.setCurrentFailureStatus(NetworkUtilities.STATUS_NO_NETWORK_CONNECTION);
+    		return sendResult(false, cursor, context.getString(NetworkUtilities.MESSAGE_NO_NETWORK_CONNECTION), null, handler, context, callback, unthreaded, requestObject);
+    	}
+    	RequestTrace.markCurrentServiceStart();
     	    	
-    	// Build the URL
+    	// Build the URL from the compiled template of the RequestObject class
     	String url = null;
+    	UrlTemplate urlTemplate = UrlTemplate.forRequestObject(context, requestObject);
     	
     	if (requestObject.getHttpMethod() == HttpMethod.GET) {
-    		url = buildUrlWithParamsString(requestObject.getBaseUrl(), requestObject.getWebServiceName(), requestObject.requiresExplicitJsonResponse(), requestObject.requiresClientId(), requestObject.toUrlParamaters(), context.getString(R.string.sapo_network_client_id));	
+    		url = urlTemplate.build(requestObject.toUrlParamaters());
     	} else if (requestObject.getHttpMethod() == HttpMethod.POST) {
-    		url = buildUrl(requestObject.getBaseUrl(), requestObject.getWebServiceName(), requestObject.requiresExplicitJsonResponse());    		
+    		url = urlTemplate.buildPostUrl();
     	} else {
     		throw new UnsupportedOperationException("Unknown HTTP Method:" + requestObject.getHttpMethod());
     	}
     	 
-		Log.d(TAG, "callWebService() - URL=" + url);
+		Log.d(TAG, "callWebService() - URL=%s", url);
 		
 		// Get the configured HTTL Client
 		HttpClient httpClient = createHttpClient(context.getApplicationContext());
@@ -198,21 +237,24 @@ public class NetworkOperations {
 			httpRequest = new HttpGet(url);
 		} else if (requestObject.getHttpMethod() == HttpMethod.POST) {
 			httpRequest = new HttpPost(url);
-			StringEntity stringEntity = null;
-			try {
-				stringEntity = new StringEntity(requestObject.getXmlPost(), HTTP.UTF_8);
-				stringEntity.setContentType("text/xml");
-				((HttpPost) httpRequest).setEntity(stringEntity);
-			} catch (UnsupportedEncodingException e) {
-				Log.e(TAG, "callWebService() - UnsupportedEncodingException", e);
-				return sendResult(false, cursor, null, null, handler, context, callback, unthreaded, requestObject);
+			if (requestObject.streamsXmlPost()) {
+				// The RequestObject writes the body to the connection, as it is sent.
+				((HttpPost) httpRequest).setEntity(new XmlPostEntity(requestObject));
+			} else {
+				StringEntity stringEntity = null;
+				try {
+					stringEntity = new StringEntity(requestObject.getXmlPost(), HTTP.UTF_8);
+					stringEntity.setContentType("text/xml");
+					((HttpPost) httpRequest).setEntity(stringEntity);
+				} catch (UnsupportedEncodingException e) {
+					Log.e(TAG, "callWebService() - UnsupportedEncodingException", e);
+					return sendResult(false, cursor, null, null, handler, context, callback, unthreaded, requestObject);
+				}
 			}
 		} else {
     		throw new UnsupportedOperationException("Unknown HTTP Method:" + requestObject.getHttpMethod());
     	}
 		
-		String responseString = null;
-		
 		try {
 			// Send the request and catch the the response
 			HttpResponse response = httpClient.execute(httpRequest);
@@ -225,17 +267,21 @@ public class NetworkOperations {
 			// Get hold of the response entity
 			HttpEntity entity = response.getEntity();
 			
-			if (entity != null) {
-				responseString = EntityUtils.toString(entity, "UTF-8");
-				Log.d(TAG, "callWebService() - Response string=" + responseString);
-				entity.consumeContent();
+			if (entity != null && requestObject.streamsResponse()) {
+				// The RequestObject processes the response as it is downloaded.
+				NetworkObject networkResponseObject = executeStreamOperations(handler, context, cursor, callback, unthreaded, requestObject, entity);
+				return sendResult(isSuccessful(networkResponseObject), networkResponseObject, handler, context, callback, unthreaded);
 			}
 			
-			if (responseString == null) {
+			if (entity == null) {
 				Log.d(TAG, "callWebService() - Result is NULL. Throwing IOException");
 				throw new IOException("Unable to get any data from the response.");
 			}
 			
+			ResponseBody responseBody = readResponseBody(context, requestObject, entity);
+			NetworkObject networkResponseObject = executeBodyOperations(handler, context, cursor, callback, unthreaded, requestObject, responseBody);
+			return sendResult(isSuccessful(networkResponseObject), networkResponseObject, handler, context, callback, unthreaded);
+			
 		} catch (ClientProtocolException e) {
 			Log.e(TAG, "callWebService() - ClientProtocolException", e);
 			return sendResult(false, cursor, null, null, handler, context, callback, unthreaded, requestObject);
@@ -243,6 +289,7 @@ public class NetworkOperations {
 		} catch (IOException e) {
 			Log.e(TAG, "callWebService() - IOException", e);
 			int result = NetworkUtilities.checkConnectionStatus(context, httpClient, Services.SAPO_SERVICES_HOST, requestObject.getBaseUrl());
+			RequestTrace.setCurrentFailureStatus(result);
             String errorMessage = null;
             switch (result) {
 	            case NetworkUtilities.STATUS_NO_NETWORK_CONNECTION:
@@ -263,7 +310,7 @@ public class NetworkOperations {
 					return sendResult(false, cursor, null, null, handler, context, callback, unthreaded, requestObject);
             }
 		}
-		return sendResult(true, cursor, null, responseString, handler, context, callback, unthreaded, requestObject);
+		return sendResult(false, cursor, null, null, handler, context, callback, unthreaded, requestObject);
 	}
     
     /**
@@ -287,16 +334,24 @@ public class NetworkOperations {
     	    	
     	Log.d(TAG, "callWebServiceWithOauth() - Start");
     	
-    	// Build the URL
-    	String url = buildUrlWithParamsString(requestObject.getBaseUrl(), requestObject.getWebServiceName(), requestObject.requiresExplicitJsonResponse(), requestObject.requiresClientId(), requestObject.toUrlParamaters(), context.getString(R.string.sapo_network_client_id)); 
-		Log.d(TAG, "callWebServiceWithOauth() - URL=" + url);
+    	// Fail fast if there is no network connection.
+    	if (!awaitNetworkConnection(context, unthreaded)) {
+    		Log.i(TAG, "callWebServiceWithOauth() - No network connection available. The request was not sent.");
+    		RequestTrace.setCurrentFailureStatus(NetworkUtilities.STATUS_NO_NETWORK_CONNECTION);
+    		return sendResult(false, cursor, context.getString(NetworkUtilities.MESSAGE_NO_NETWORK_CONNECTION), null, handler, context, callback, unthreaded, requestObject);
+    	}
+    	RequestTrace.markCurrentServiceStart();
+    	
+    	// Build the URL from the compiled template of the RequestObject class
+    	String url = UrlTemplate.forRequestObject(context, requestObject).build(requestObject.toUrlParamaters());
+		Log.d(TAG, "callWebServiceWithOauth() - URL=%s", url);
 		
 		String responseString = null;
 		
 		try {
 			// Invoke the Service and get the response as a String
 			responseString = SAPOConnect.invokeWebServiceGet(context.getApplicationContext(), url);
-			Log.d(TAG, "callWebServiceWithOauth() - Response=" + responseString);
+			Log.d(TAG, "callWebServiceWithOauth() - Response=%s", responseString);
 			
 			if (responseString == null) {
 				Log.d(TAG, "callWebServiceWithOauth() - Result is NULL. Throwing IOException");
@@ -310,6 +365,7 @@ public class NetworkOperations {
 			HttpClient httpClient = createHttpClient(context.getApplicationContext());
 			
 			int result = NetworkUtilities.checkConnectionStatus(context, httpClient, Services.SAPO_SERVICES_HOST, requestObject.getBaseUrl());
+			RequestTrace.setCurrentFailureStatus(result);
             String errorMessage = null;
             switch (result) {
 	            case NetworkUtilities.STATUS_NO_NETWORK_CONNECTION:
@@ -347,6 +403,120 @@ public class NetworkOperations {
 		return sendResult(true, cursor, null, responseString, handler, context, callback, unthreaded, requestObject);
 	}
     
+    /**
+     * Has the RequestObject process the response as it is downloaded, with executeStreamOperations(). The download and
+     * the processing overlap, so both the BODY_DOWNLOAD and the PARSE spans cover the whole call. Only the errors
+     * reading the connection are thrown, to be handled as connection errors. The processing errors (e.g. a malformed
+     * response) fail the request without checking the connection.
+     * 
+     * @param handler The main UI thread's handler instance.
+     * @param context The caller Context.
+     * @param cursor The Cursor containing the query for the results.
+     * @param callback The callback object in order to deliver the results.
+     * @param unthreaded If true, the response is not to be delivered to another thread.
+     * @param requestObject The RequestObject for the WS.
+     * @param entity The response entity.
+     * @return The NetworkObject with the results, or a failed one if the response couldn't be processed.
+     * @throws IOException If the response can't be read from the connection.
+     */
+    private static NetworkObject executeStreamOperations(Handler handler, Context context, Cursor cursor, OnNetworkResultsListener callback, boolean unthreaded, RequestObject requestObject, HttpEntity entity) throws IOException {
+    	RequestTrace.startCurrentSpan(Span.BODY_DOWNLOAD);
+    	RequestTrace.startCurrentSpan(Span.PARSE);
+    	ConnectionInputStream responseStream = null;
+    	try {
+    		responseStream = new ConnectionInputStream(entity.getContent());
+    		return requestObject.executeStreamOperations(context, handler, callback, unthreaded, responseStream, EntityUtils.getContentCharSet(entity), cursor, requestObject);
+    	} catch (IOException e) {
+    		if (responseStream == null || responseStream.failed) {
+    			throw e;
+    		}
+    		Log.e(TAG, "executeStreamOperations() - Unable to process the response", e);
+    		return failedResult(requestObject, cursor);
+    	} finally {
+    		RequestTrace.endCurrentSpan(Span.PARSE);
+    		try {
+    			// Read what the RequestObject left, so that the connection can be reused.
+    			entity.consumeContent();
+    		} catch (IOException e) {
+    			Log.w(TAG, "executeStreamOperations() - Unable to consume the rest of the response", e);
+    		}
+    		RequestTrace.endCurrentSpan(Span.BODY_DOWNLOAD);
+    	}
+    }
+    
+    /**
+     * Reads the response body, in memory or to a temporary file in the cache directory.
+     * 
+     * @param context The caller Context.
+     * @param requestObject The RequestObject for the WS.
+     * @param entity The response entity.
+     * @return The body, to be closed after it's processed.
+     * @throws IOException If the response can't be read from the connection or written to the temporary file.
+     */
+    private static ResponseBody readResponseBody(Context context, RequestObject requestObject, HttpEntity entity) throws IOException {
+    	ResponseBody responseBody;
+    	RequestTrace.startCurrentSpan(Span.BODY_DOWNLOAD);
+    	try {
+    		responseBody = ResponseBody.read(entity.getContent(), entity.getContentLength(), EntityUtils.getContentCharSet(entity), context.getCacheDir(), requestObject.getResponseSpillThreshold());
+    		try {
+    			entity.consumeContent();
+    		} catch (IOException e) {
+    			responseBody.close();
+    			throw e;
+    		}
+    	} finally {
+    		RequestTrace.endCurrentSpan(Span.BODY_DOWNLOAD);
+    	}
+    	Log.d(TAG, "readResponseBody() - Response body=%s", responseBody);
+    	return responseBody;
+    }
+    
+    /**
+     * Has the RequestObject process the response body with executeOperations(). The body is closed when it returns. The
+     * processing errors fail the request, without checking the connection, as the response was already downloaded.
+     * 
+     * @param handler The main UI thread's handler instance.
+     * @param context The caller Context.
+     * @param cursor The Cursor containing the query for the results.
+     * @param callback The callback object in order to deliver the results.
+     * @param unthreaded If true, the response is not to be delivered to another thread.
+     * @param requestObject The RequestObject for the WS.
+     * @param responseBody The response body.
+     * @return The NetworkObject with the results, or a failed one if the body couldn't be processed.
+     */
+    private static NetworkObject executeBodyOperations(Handler handler, Context context, Cursor cursor, OnNetworkResultsListener callback, boolean unthreaded, RequestObject requestObject, ResponseBody responseBody) {
+    	RequestTrace.startCurrentSpan(Span.PARSE);
+    	try {
+    		return requestObject.executeOperations(context, handler, callback, unthreaded, responseBody, cursor, requestObject);
+    	} catch (IOException e) {
+    		Log.e(TAG, "executeBodyOperations() - Unable to process the response", e);
+    		return failedResult(requestObject, cursor);
+    	} finally {
+    		RequestTrace.endCurrentSpan(Span.PARSE);
+    		responseBody.close();
+    	}
+    }
+    
+    /**
+     * @param requestObject The WS RequestObject.
+     * @param cursor The Cursor containing the query for the results.
+     * @return A failed NetworkObject, without a fail reason.
+     */
+    private static NetworkObject failedResult(RequestObject requestObject, Cursor cursor) {
+    	NetworkObject networkResponseObject = new NetworkObject(requestObject, cursor);
+    	networkResponseObject.result = false;
+    	return networkResponseObject;
+    }
+    
+    /**
+     * @param networkResponseObject The NetworkObject returned by the RequestObject. May be NULL, and is then passed as
+     * is to the callback.
+     * @return True if the NetworkObject isn't NULL and its result is successful.
+     */
+    private static boolean isSuccessful(NetworkObject networkResponseObject) {
+    	return networkResponseObject != null && networkResponseObject.result;
+    }
+    
     /**
      * Sends the WebService results back to the caller main UI thread through its callback object.
      * 
@@ -376,7 +546,12 @@ public class NetworkOperations {
 		
     	if (result) {
     		// Result is OK. We have a valid responseString to process.
-    		networkResponseObject = requestObject.executeOperations(context, handler, callback, unthreaded, responseString, cursor, requestObject);
+    		RequestTrace.startCurrentSpan(Span.PARSE);
+    		try {
+    			networkResponseObject = requestObject.executeOperations(context, handler, callback, unthreaded, responseString, cursor, requestObject);
+    		} finally {
+    			RequestTrace.endCurrentSpan(Span.PARSE);
+    		}
     		
     	} else {
     		networkResponseObject = new NetworkObject(requestObject, cursor);
@@ -384,19 +559,53 @@ public class NetworkOperations {
     		networkResponseObject.resultFailReason = failReason;
     	}
     	
+    	return sendResult(isSuccessful(networkResponseObject), networkResponseObject, handler, context, callback, unthreaded);
+    }
+    
+    /**
+     * Sends the already processed WebService results back to the caller main UI thread through its callback object.
+     * 
+     * @param result If true, the WebService call was successful.
+     * @param networkResponseObject The NetworkObject with the results.
+     * @param handler The main UI thread's of the caller Activity handler instance.
+     * @param context The application context.
+     * @param callback The callback object in order to deliver the results to the caller Activity.
+     * @param unthreaded If true, the response is not to be delivered to another thread.
+     */
+    protected static NetworkObject sendResult(
+    		final boolean result,
+    		final NetworkObject networkResponseObject,
+    		final Handler handler,
+    		final Context context,
+    		final OnNetworkResultsListener callback,
+    		final boolean unthreaded) {
+		final RequestTrace trace = RequestTrace.current();
+		
+		// The progress and partial results still waiting go before the results.
+		ProgressDispatcher.flushCurrent();
+		
         if (unthreaded) {
         	// Send results back to the AsyncTask
+        	finishTrace(trace, result);
         	return networkResponseObject;
             
         } else {
         	// Send results back to the UI thread if it's still there
         	if (handler == null || context == null) {
             	Log.d(TAG, "sendResult() - handler=null or context=null. Returning.");
+            	finishTrace(trace, result);
                 return null;
             }
             
+        	if (trace != null) {
+        		trace.startSpan(Span.DISPATCH);
+        	}
         	handler.post(new Runnable() {
                 public void run() {
+                	if (trace != null) {
+                		trace.endSpan(Span.DISPATCH);
+                		finishTrace(trace, result);
+                	}
                 	if (callback != null) {
                     	callback.onNetworkResults(networkResponseObject);
                     } else {
@@ -410,6 +619,48 @@ public class NetworkOperations {
         }
     }
     
+    /**
+     * Ends the trace of a request, if it was traced.
+     * 
+     * @param trace The RequestTrace of the request. May be NULL.
+     * @param result If true, the WebService call was successful.
+     */
+    private static void finishTrace(RequestTrace trace, boolean result) {
+    	if (trace != null) {
+    		trace.finish(result);
+    	}
+    }
+    
+    /**
+     * Runs the WS and parsing operations in the current thread, with the request trace attached to it.
+     * 
+     * @param trace The RequestTrace of the request.
+     * @param handler A Handler created in the UI thread of the caller Activity.
+     * @param context The application context.
+     * @param cursor The Cursor containing the query for the results.
+     * @param requestObject The request object describing the WS operations.
+     * @param callback The callback object in order to deliver the results.
+     * @param unthreaded If true, the response is not to be delivered to another thread.
+     * @return The NetworkObject with the results.
+     */
+    private static NetworkObject callWebServiceTraced(RequestTrace trace, Handler handler, Context context, Cursor cursor, RequestObject requestObject, OnNetworkResultsListener callback, boolean unthreaded) {
+    	RequestTrace previousTrace = RequestTrace.attach(trace);
+    	ProgressDispatcher previousDispatcher = ProgressDispatcher.attach(ProgressDispatcher.forCallback(handler, callback, unthreaded));
+    	try {
+    		if (requestObject.requiresOAuth()) {
+    			return callWebServiceWithOAuth(handler, context, cursor, callback, unthreaded, requestObject);
+    		} else {
+    			return callWebService(handler, context, cursor, callback, unthreaded, requestObject);
+    		}
+    	} catch (RuntimeException e) {
+    		trace.finish(false);
+    		throw e;
+    	} finally {
+    		ProgressDispatcher.attach(previousDispatcher);
+    		RequestTrace.attach(previousTrace);
+    	}
+    }
+    
     /**
      * Initiates a thread with the WS and parsing operations for retrieving the elements according to the Request Object.
      * 
@@ -424,25 +675,17 @@ public class NetworkOperations {
     	Log.d(TAG, "invokeWebServiceFromRequestObject() - Start");
     	dumpRequestObject(requestObject);
     	
-    	if (requestObject.requiresOAuth()) {
-    		final Runnable runnable = new Runnable() {
-                public void run() {
-                	callWebServiceWithOAuth(handler, context, cursor, callback, false, requestObject);
-                }
-            };
-            // Run on background thread.
-            return performOnBackgroundThread(runnable);
-            
-    	} else {
-    		final Runnable runnable = new Runnable() {
-                public void run() {
-            		callWebService(handler, context, cursor, callback, false, requestObject);
-                }
-            };
-            // Run on background thread.
-            return performOnBackgroundThread(runnable);
-    	}
+    	final RequestTrace trace = RequestTrace.begin(requestObject);
+    	trace.startSpan(Span.QUEUE_WAIT);
     	
+    	final Runnable runnable = new Runnable() {
+    		public void run() {
+    			trace.endSpan(Span.QUEUE_WAIT);
+    			callWebServiceTraced(trace, handler, context, cursor, requestObject, callback, false);
+    		}
+    	};
+    	// Run on background thread.
+    	return performOnBackgroundThread(runnable);
     }
     
     /**
@@ -459,10 +702,59 @@ public class NetworkOperations {
     	Log.d(TAG, "invokeWebServiceFromRequestObjectUnthreaded() - Start");
     	dumpRequestObject(requestObject);
     	
-    	if (requestObject.requiresOAuth()) {
-    		return callWebServiceWithOAuth(handler, context, cursor, callback, true, requestObject);
-    	} else {
-    		return callWebService(handler, context, cursor, callback, true, requestObject);
+    	return callWebServiceTraced(RequestTrace.begin(requestObject), handler, context, cursor, requestObject, callback, true);
+    }
+
+    /**
+     * The response stream of the connection, which records if reading it failed, to tell the connection errors from
+     * the processing errors of executeStreamOperations().
+     */
+    private static class ConnectionInputStream extends FilterInputStream {
+    	
+    	private boolean failed;
+    	
+    	private ConnectionInputStream(InputStream in) {
+    		super(in);
+    	}
+    	
+    	@Override
+    	public int read() throws IOException {
+    		try {
+    			return super.read();
+    		} catch (IOException e) {
+    			failed = true;
+    			throw e;
+    		}
+    	}
+    	
+    	@Override
+    	public int read(byte[] buffer, int offset, int count) throws IOException {
+    		try {
+    			return super.read(buffer, offset, count);
+    		} catch (IOException e) {
+    			failed = true;
+    			throw e;
+    		}
+    	}
+    	
+    	@Override
+    	public long skip(long count) throws IOException {
+    		try {
+    			return super.skip(count);
+    		} catch (IOException e) {
+    			failed = true;
+    			throw e;
+    		}
+    	}
+    	
+    	@Override
+    	public int available() throws IOException {
+    		try {
+    			return super.available();
+    		} catch (IOException e) {
+    			failed = true;
+    			throw e;
+    		}
     	}
     }
 
@@ -11,11 +11,10 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpHead;
 
 import pt.sapo.mobile.android.connect.R;
+import pt.sapo.mobile.android.connect.http.DnsCache;
 import pt.sapo.mobile.android.connect.system.Log;
 
 import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.text.TextUtils;
 
 /**
@@ -81,8 +80,8 @@ public class NetworkUtilities {
             Log.i(TAG, "checkConnectionStatus() - No network connection available.");
             return STATUS_NO_NETWORK_CONNECTION;
 
-            // See if there is a server connection.
-        } else if (!checkServerState(context, httpClient, host, servicesEndpoint)) {
+            // See if there is a server connection. The verdict is shared by all the failing requests.
+        } else if (!ReachabilityProber.getInstance().isReachable(httpClient, host, servicesEndpoint)) {
             // There is no server connection
             Log.i(TAG, "checkConnectionStatus() - Network connection is available but server is not available.");
             return STATUS_NO_CONNECTION_TO_SERVER;
@@ -93,52 +92,34 @@ public class NetworkUtilities {
     }
 
     /**
-     * Determines if there is an open network connection.
+     * Determines if there is an open network connection. The state is read from the ConnectivityMonitor snapshot, which is
+     * kept up to date by the network change broadcasts, so there is no ConnectivityManager query on each invocation.
      * 
      * @param context
      *            The application Context.
      * @return True if there is network connectivity or false if it isn't.
      */
     public static boolean checkNetworkConnection(Context context) {
-        Log.d(TAG, "checkNetworkConnection() - Start");
-
-        // Get hold of the ConnectivityManager
-        ConnectivityManager mConnectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        // Get the Network information through the ConectivityManager
-        NetworkInfo info = mConnectivity.getActiveNetworkInfo();
-
-        if (info == null || !mConnectivity.getBackgroundDataSetting()) {
-            Log.d(TAG, "checkNetworkConnection() - getActiveNetworkInfo() is NULL or getBackgroundDataSetting() returned FALSE");
-            return false;
-        }
-
-        int netType = info.getType();
-
-        if (netType == ConnectivityManager.TYPE_WIFI || netType == ConnectivityManager.TYPE_MOBILE) {
-            Log.d(TAG, "checkNetworkConnection() - ConnectivityManager type is WIFI(1) or MOBILE(0). Type=" + netType);
-            return info.isConnected();
-        } else {
-            Log.d(TAG, "checkNetworkConnection() - ConnectivityManager type is not WIFI(1) or MOBILE(0). Type=" + netType);
-        }
-
-        // There is no network available
-        return false;
+        ConnectivityMonitor.ConnectivityState state = ConnectivityMonitor.getInstance(context).getState();
+        Log.d(TAG, "checkNetworkConnection() - %s", state);
+        return state.isConnected();
     }
 
     /**
      * Determines if the Pond server is reachable. Requires an active network connection. First invoke checkNetworkConnection(Context context).
+     * This is a blocking operation. Use the ReachabilityProber to get a cached or shared verdict.
      * 
-     * @param context
-     *            The application Context.
+     * @param httpClient A configured instance of the HTTP Client.
+     * @param host A hostname for the service (e.g: services.sapo.pt).
+     * @param servicesEndpoint The services endpoint (e.g.: https://services.sapo.pt/Pond/).
      * @return True if the Pond server can be reached or false if it doesn't.
      */
-    private static boolean checkServerState(Context context, HttpClient httpClient, String host, String servicesEndpoint) {
+    static boolean checkServerState(HttpClient httpClient, String host, String servicesEndpoint) {
         Log.d(TAG, "checkServerState() - Start");
 
         // Check if the hostname can be resolved in the DNS server
         boolean lookupHostResult = lookupHost(host);
-        Log.d(TAG, "checkServerState() - lookupHostResult=" + lookupHostResult);
+        Log.d(TAG, "checkServerState() - lookupHostResult=%s", lookupHostResult);
 
         if (!lookupHostResult) {
             // Hostname could not be resolved
@@ -157,7 +138,7 @@ public class NetworkUtilities {
         try {
             HttpResponse httpResponse = httpClient.execute(httpHead);
             int statusCode = httpResponse.getStatusLine().getStatusCode();
-            Log.d(TAG, "checkServerState() - Status code for the HTTP HEAD request=" + statusCode);
+            Log.d(TAG, "checkServerState() - Status code for the HTTP HEAD request=%d", statusCode);
             if (statusCode == 500) {
                 // Internal server error: it's OK, because services doesn't support HEAD, but responded
                 Log.d(TAG, "checkServerState() - Server reachable");
@@ -192,10 +173,10 @@ public class NetworkUtilities {
      */
     private static boolean lookupHost(String hostname) {
         try {
-            InetAddress inetAddress = InetAddress.getByName(hostname);
-            Log.d(TAG, "lookupHost() - The hostname " + hostname + " was found with IP address " + inetAddress.getHostAddress());
+            InetAddress inetAddress = DnsCache.getInstance().resolve(hostname);
+            Log.d(TAG, "lookupHost() - The hostname %s was found with IP address %s", hostname, inetAddress);
         } catch (UnknownHostException e) {
-            Log.i(TAG, "lookupHost() - Unable to find hostname " + hostname);
+            Log.i(TAG, "lookupHost() - Unable to find hostname %s", hostname);
             return false;
         }
         return true;
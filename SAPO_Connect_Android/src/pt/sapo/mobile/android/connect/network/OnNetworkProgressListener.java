@@ -0,0 +1,28 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.List;
+
+/**
+ * OnNetworkResultsListener that is also told how the response download is going, and gets the records of the streamed
+ * responses (JsonStreamRequestObject, XmlPullRequestObject) in batches, while the rest of the response is still being
+ * read. E.g. to show the first page of a long list before the request ends.
+ *
+ * The callbacks are throttled by ProgressDispatcher and, like onNetworkResults(), run in the thread of the caller
+ * Handler. For the unthreaded requests, they run in the request thread. onNetworkResults() is always the last one.
+ *
+ * @param <T> The type of the records.
+ */
+public interface OnNetworkProgressListener<T> extends OnNetworkResultsListener {
+
+	/**
+	 * @param bytes The response body bytes read so far.
+	 * @param total The response body length, or -1 if the server didn't send it.
+	 */
+	void onProgress(long bytes, long total);
+
+	/**
+	 * @param batch The records read since the previous batch, in the response order.
+	 */
+	void onPartialResults(List<T> batch);
+
+}
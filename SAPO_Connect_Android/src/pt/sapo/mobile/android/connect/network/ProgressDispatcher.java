@@ -0,0 +1,227 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Delivers the progress and the partial results of a request to its OnNetworkProgressListener. The network thread
+ * reports every read and every record, and they are sent to the caller Handler at most once per MIN_INTERVAL_MS (or
+ * when MAX_BATCH_SIZE records are waiting), so the UI thread isn't flooded with messages.
+ *
+ * Like the RequestTrace, the dispatcher is attached to the thread of the request while it runs, so that the HTTP layer
+ * and the RequestObjects can report to it without knowing the request. It's only attached when the callback is an
+ * OnNetworkProgressListener, otherwise the static methods do nothing.
+ *
+ * E.g., in the parseResponse() of an XmlPullRequestObject:
+ *
+ *   myDatabase.insert(image);
+ *   ProgressDispatcher.addCurrentPartialResult(image);
+ */
+public class ProgressDispatcher {
+
+	/**
+	 * The minimum time between two deliveries of each kind, in milliseconds.
+	 */
+	public static final long MIN_INTERVAL_MS = 200;
+
+	/**
+	 * The number of records that are delivered without waiting for MIN_INTERVAL_MS.
+	 */
+	public static final int MAX_BATCH_SIZE = 50;
+
+	/**
+	 * The dispatcher of the request running in each thread.
+	 */
+	private static final ThreadLocal<ProgressDispatcher> currentDispatcher = new ThreadLocal<ProgressDispatcher>();
+
+	/**
+	 * The Handler of the caller, or NULL for the unthreaded requests.
+	 */
+	private final Handler handler;
+	private final OnNetworkProgressListener<Object> listener;
+
+	private long totalBytes = -1;
+	private long bytesRead;
+	private long deliveredBytes;
+	private long lastProgressTime;
+
+	/**
+	 * The records not delivered yet, or NULL if there are none.
+	 */
+	private List<Object> batch;
+	private long lastBatchTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param handler The Handler of the caller, or NULL to deliver in the current thread.
+	 * @param listener The listener.
+	 */
+	private ProgressDispatcher(Handler handler, OnNetworkProgressListener<Object> listener) {
+		this.handler = handler;
+		this.listener = listener;
+		this.lastBatchTime = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * @param handler The Handler of the caller.
+	 * @param callback The callback of the request.
+	 * @param unthreaded If true, the request is running in the caller's thread.
+	 * @return The dispatcher for the request, or NULL if the callback isn't an OnNetworkProgressListener or can't be
+	 *         reached.
+	 */
+	@SuppressWarnings("unchecked")
+	static ProgressDispatcher forCallback(Handler handler, OnNetworkResultsListener callback, boolean unthreaded) {
+		if (!(callback instanceof OnNetworkProgressListener) || (!unthreaded && handler == null)) {
+			return null;
+		}
+		return new ProgressDispatcher(unthreaded ? null : handler, (OnNetworkProgressListener<Object>) callback);
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            CURRENT THREAD                                                  //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Attaches a dispatcher to the current thread.
+	 *
+	 * @param dispatcher The dispatcher of the request that will run in this thread, or NULL to detach.
+	 * @return The dispatcher previously attached, to be restored with another attach() when the request ends.
+	 */
+	static ProgressDispatcher attach(ProgressDispatcher dispatcher) {
+		ProgressDispatcher previous = currentDispatcher.get();
+		currentDispatcher.set(dispatcher);
+		return previous;
+	}
+
+	/**
+	 * @return The dispatcher of the request running in the current thread, or NULL if there is none.
+	 */
+	public static ProgressDispatcher current() {
+		return currentDispatcher.get();
+	}
+
+	/**
+	 * Sets the response body length of the request running in the current thread.
+	 *
+	 * @param totalBytes The Content-Length, or a negative number if unknown.
+	 */
+	public static void setCurrentTotalBytes(long totalBytes) {
+		ProgressDispatcher dispatcher = currentDispatcher.get();
+		if (dispatcher != null) {
+			dispatcher.totalBytes = totalBytes < 0 ? -1 : totalBytes;
+		}
+	}
+
+	/**
+	 * Adds to the response body bytes read by the request running in the current thread.
+	 *
+	 * @param bytes The number of bytes read.
+	 */
+	public static void addCurrentBytesRead(long bytes) {
+		ProgressDispatcher dispatcher = currentDispatcher.get();
+		if (dispatcher != null) {
+			dispatcher.addBytesRead(bytes);
+		}
+	}
+
+	/**
+	 * Adds a record to the partial results of the request running in the current thread.
+	 *
+	 * @param record The record, already processed.
+	 */
+	public static void addCurrentPartialResult(Object record) {
+		ProgressDispatcher dispatcher = currentDispatcher.get();
+		if (dispatcher != null) {
+			dispatcher.addPartialResult(record);
+		}
+	}
+
+	/**
+	 * Delivers what is still waiting in the dispatcher of the current thread, before the results.
+	 */
+	static void flushCurrent() {
+		ProgressDispatcher dispatcher = currentDispatcher.get();
+		if (dispatcher != null) {
+			dispatcher.flush();
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                              DISPATCHING                                                   //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * @param bytes The number of bytes read.
+	 */
+	public void addBytesRead(long bytes) {
+		bytesRead += bytes;
+		long now = SystemClock.uptimeMillis();
+		if (now - lastProgressTime >= MIN_INTERVAL_MS) {
+			lastProgressTime = now;
+			deliverProgress();
+		}
+	}
+
+	/**
+	 * @param record The record, already processed.
+	 */
+	public void addPartialResult(Object record) {
+		if (batch == null) {
+			batch = new ArrayList<Object>();
+		}
+		batch.add(record);
+		long now = SystemClock.uptimeMillis();
+		if (batch.size() >= MAX_BATCH_SIZE || now - lastBatchTime >= MIN_INTERVAL_MS) {
+			lastBatchTime = now;
+			deliverBatch();
+		}
+	}
+
+	/**
+	 * Delivers the records waiting and the last progress, if not delivered yet.
+	 */
+	void flush() {
+		if (batch != null) {
+			deliverBatch();
+		}
+		if (deliveredBytes != bytesRead) {
+			deliverProgress();
+		}
+	}
+
+	private void deliverProgress() {
+		final long bytes = bytesRead;
+		final long total = totalBytes;
+		deliveredBytes = bytes;
+		if (handler == null) {
+			listener.onProgress(bytes, total);
+		} else {
+			handler.post(new Runnable() {
+				public void run() {
+					listener.onProgress(bytes, total);
+				}
+			});
+		}
+	}
+
+	private void deliverBatch() {
+		final List<Object> records = batch;
+		batch = null;
+		if (handler == null) {
+			listener.onPartialResults(records);
+		} else {
+			handler.post(new Runnable() {
+				public void run() {
+					listener.onPartialResults(records);
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.HttpClient;
+
+import pt.sapo.mobile.android.connect.system.Log;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+/**
+ * Singleton that determines if a services host is reachable, shared by all the failing requests. The probe (DNS lookup
+ * plus an HTTP HEAD to the services endpoint) runs on its own background thread, at most one per host at a time, and
+ * its verdict is cached per host with a TTL. During an outage, the concurrent failures wait for the same probe or get
+ * the cached verdict, instead of each probing the server again.
+ *
+ * Simple usage:
+ *   ReachabilityProber.getInstance().isReachable(httpClient, "services.sapo.pt", "https://services.sapo.pt/Pond/");
+ */
+public class ReachabilityProber {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "ReachabilityProber";
+
+	/**
+	 * Time to live of a verdict when the host was reachable.
+	 */
+	private static final long REACHABLE_TTL = DateUtils.SECOND_IN_MILLIS * 30;
+
+	/**
+	 * Time to live of a verdict when the host was unreachable. Shorter, so that the recovery is detected quickly.
+	 */
+	private static final long UNREACHABLE_TTL = DateUtils.SECOND_IN_MILLIS * 10;
+
+	/**
+	 * Maximum time a failing request waits for the probe verdict. If the probe takes longer, the host is considered
+	 * unreachable by that request, but the probe goes on and its verdict is cached for the next ones.
+	 */
+	private static final long PROBE_WAIT_TIMEOUT = Services.CONNECTION_TIMEOUT;
+
+	/**
+	 * Instance for this Singleton.
+	 */
+	private static ReachabilityProber instance;
+
+	/**
+	 * The cached verdicts, per host.
+	 */
+	private final ConcurrentHashMap<String, Verdict> verdicts = new ConcurrentHashMap<String, Verdict>();
+
+	/**
+	 * The probes currently running, per host.
+	 */
+	private final ConcurrentHashMap<String, FutureTask<Boolean>> probesInFlight = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+
+	/**
+	 * Incremented by invalidate(). A probe only caches its verdict if it was started in the current generation, so that a
+	 * probe still running on the previous network doesn't restore a stale verdict. Guarded by this instance.
+	 */
+	private int generation;
+
+
+	private ReachabilityProber() {}
+
+	/**
+	 * Get the instance of the ReachabilityProber.
+	 *
+	 * @return The instance of this Singleton.
+	 */
+	public static synchronized ReachabilityProber getInstance() {
+		if (instance == null) {
+			instance = new ReachabilityProber();
+		}
+		return instance;
+	}
+
+	/**
+	 * Determines if the host is reachable. Returns the cached verdict if it is still valid. Otherwise, waits at most
+	 * PROBE_WAIT_TIMEOUT for the probe, which is shared with any other thread asking for the same host.
+	 *
+	 * @param httpClient A configured instance of the HTTP Client, used if a new probe is started.
+	 * @param host A hostname for the service (e.g: services.sapo.pt).
+	 * @param servicesEndpoint The services endpoint (e.g.: https://services.sapo.pt/Pond/).
+	 * @return True if the host is reachable.
+	 */
+	public boolean isReachable(HttpClient httpClient, String host, String servicesEndpoint) {
+		Boolean cachedVerdict = getCachedVerdict(host);
+		if (cachedVerdict != null) {
+			Log.d(TAG, "isReachable() - Cached verdict for %s: %s", host, cachedVerdict);
+			return cachedVerdict;
+		}
+
+		try {
+			return probe(httpClient, host, servicesEndpoint).get(PROBE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			Log.i(TAG, "isReachable() - The probe for %s is taking too long. Considering it unreachable.", host);
+		} catch (ExecutionException e) {
+			Log.d(TAG, "isReachable() - ExecutionException: ", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the cached verdict for the host, without probing.
+	 *
+	 * @param host The hostname.
+	 * @return The verdict, or NULL if there is no valid verdict cached.
+	 */
+	public Boolean getCachedVerdict(String host) {
+		Verdict verdict = verdicts.get(host);
+		if (verdict == null || verdict.expiresAt <= SystemClock.elapsedRealtime()) {
+			return null;
+		}
+		return verdict.reachable;
+	}
+
+	/**
+	 * Starts a probe for the host in a background thread, unless there is already one running for the same host.
+	 *
+	 * @param httpClient A configured instance of the HTTP Client.
+	 * @param host A hostname for the service (e.g: services.sapo.pt).
+	 * @param servicesEndpoint The services endpoint (e.g.: https://services.sapo.pt/Pond/).
+	 * @return The Future for the probe verdict.
+	 */
+	public Future<Boolean> probe(final HttpClient httpClient, final String host, final String servicesEndpoint) {
+		FutureTask<Boolean> probe = probesInFlight.get(host);
+		if (probe != null) {
+			return probe;
+		}
+
+		final FutureTask<Boolean> newProbe;
+		synchronized (this) {
+			// The generation is read and the probe published under the same lock as invalidate(), so that a probe of the
+			// previous network is never added after the probes in flight were cleared.
+			final int probeGeneration = generation;
+			newProbe = new FutureTask<Boolean>(new Callable<Boolean>() {
+				public Boolean call() {
+					boolean reachable = NetworkUtilities.checkServerState(httpClient, host, servicesEndpoint);
+					storeVerdict(host, reachable, probeGeneration);
+					return reachable;
+				}
+			}) {
+				@Override
+				protected void done() {
+					// Only if it wasn't replaced by a probe of a newer generation.
+					probesInFlight.remove(host, this);
+				}
+			};
+
+			probe = probesInFlight.putIfAbsent(host, newProbe);
+			if (probe != null) {
+				// Another thread started a probe for the same host in the meantime.
+				return probe;
+			}
+		}
+
+		NetworkOperations.performOnBackgroundThread(newProbe);
+		return newProbe;
+	}
+
+	/**
+	 * Discards all the cached verdicts, and forgets the probes in flight, whose verdicts will be discarded. Invoked when
+	 * the network changes, because they are no longer valid.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		verdicts.clear();
+		probesInFlight.clear();
+	}
+
+	/**
+	 * Caches the verdict of a probe, unless the verdicts were invalidated since the probe started.
+	 */
+	private synchronized void storeVerdict(String host, boolean reachable, int probeGeneration) {
+		if (probeGeneration != generation) {
+			Log.d(TAG, "storeVerdict() - Discarding the verdict for %s from the previous network: %s", host, reachable);
+			return;
+		}
+		long ttl = reachable ? REACHABLE_TTL : UNREACHABLE_TTL;
+		verdicts.put(host, new Verdict(reachable, SystemClock.elapsedRealtime() + ttl));
+		Log.d(TAG, "storeVerdict() - Verdict for %s: %s", host, reachable);
+	}
+
+	/**
+	 * A cached probe result.
+	 */
+	private static class Verdict {
+
+		private final boolean reachable;
+		private final long expiresAt;
+
+		private Verdict(boolean reachable, long expiresAt) {
+			this.reachable = reachable;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
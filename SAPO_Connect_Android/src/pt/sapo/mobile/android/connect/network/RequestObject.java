@@ -1,5 +1,8 @@
 package pt.sapo.mobile.android.connect.network;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import pt.sapo.mobile.android.connect.network.NetworkOperations.HttpMethod;
 import pt.sapo.mobile.android.connect.network.OnNetworkResultsListener;
 import android.content.Context;
@@ -135,6 +138,27 @@ public abstract class RequestObject {
 	 */
 	public abstract String getXmlPost();
 	
+	/**
+	 * Determines if the XML for the HTTP Post is written to the connection with writeXmlPost(), as the request is sent,
+	 * instead of built as a String by getXmlPost(). Override it to return true for large bodies.
+	 * 
+	 * @return True if the XML for the HTTP Post is streamed. False by default.
+	 */
+	public boolean streamsXmlPost() {
+		return false;
+	}
+	
+	/**
+	 * Writes the XML for the HTTP Post to the connection. Only invoked if streamsXmlPost() returns true. It may be invoked
+	 * more than once, if the request is retried, so it must write the same XML every time.
+	 * 
+	 * @param writer The XmlBodyWriter for the body. The elements left open are closed after this method returns.
+	 * @throws IOException If the body can't be written to the connection.
+	 */
+	public void writeXmlPost(XmlBodyWriter writer) throws IOException {
+		writer.raw(getXmlPost());
+	}
+	
 	/**
 	 * This method can contain any type of operations to be executed after we receive a valid response from the WebService.
 	 * The string from the service, which may contain XML, JSON, etc, is given in the 'responseString' parameter.
@@ -150,6 +174,64 @@ public abstract class RequestObject {
 	 */
 	public abstract NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, String responseString, Cursor cursor, RequestObject requestObject);
 	
+	/**
+	 * Version of executeOperations() with the response as bytes, for the requests that don't stream the response. By
+	 * default, it decodes the body and invokes executeOperations() with the String. Override it for the large responses,
+	 * to read them with responseBody.asByteBuffer() or responseBody.openStream() instead, as the bodies above
+	 * getResponseSpillThreshold() are in a temporary file. The body is closed by the library when this method returns.
+	 * 
+	 * @param context The caller Context.
+	 * @param handler The main UI thread's of the caller Activity handler instance.
+	 * @param callback The callback object in order to deliver the results to the caller Activity.
+	 * @param unthreaded If true, the response is not to be delivered to another thread.
+	 * @param responseBody The body retrieved from the WebService.
+	 * @param cursor The Cursor containing the query for the results.
+	 * @param requestObject The original RequestObject that originated the 'responseBody'.
+	 * @return A NetworkResponseObject containing the results.
+	 * @throws IOException If the body can't be read.
+	 */
+	public NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, ResponseBody responseBody, Cursor cursor, RequestObject requestObject) throws IOException {
+		return executeOperations(context, handler, callback, unthreaded, responseBody.asString(), cursor, requestObject);
+	}
+	
+	/**
+	 * @return The size, in bytes, above which the response body is written to a temporary file instead of kept in
+	 *         memory. ResponseBody.DEFAULT_SPILL_THRESHOLD by default.
+	 */
+	public int getResponseSpillThreshold() {
+		return ResponseBody.DEFAULT_SPILL_THRESHOLD;
+	}
+	
+	/**
+	 * Determines if the response is processed as it is downloaded, with executeStreamOperations(), instead of read into
+	 * a String for executeOperations(). The OAuth requests always get the response as a String.
+	 * 
+	 * @return True if the response is streamed. False by default.
+	 */
+	public boolean streamsResponse() {
+		return false;
+	}
+	
+	/**
+	 * Streaming version of executeOperations(), only invoked if streamsResponse() returns true. It runs in the network
+	 * thread while the response is downloaded, so it should process the response in chunks instead of reading it all.
+	 * The stream is consumed and closed by the library when this method returns.
+	 * 
+	 * @param context The caller Context.
+	 * @param handler The main UI thread's of the caller Activity handler instance.
+	 * @param callback The callback object in order to deliver the results to the caller Activity.
+	 * @param unthreaded If true, the response is not to be delivered to another thread.
+	 * @param responseStream The response body, as it is downloaded.
+	 * @param charset The charset of the response, from the Content-Type header, or NULL if it isn't known.
+	 * @param cursor The Cursor containing the query for the results.
+	 * @param requestObject The original RequestObject that originated the response.
+	 * @return A NetworkResponseObject containing the results.
+	 * @throws IOException If the response can't be read from the connection.
+	 */
+	public NetworkObject executeStreamOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, InputStream responseStream, String charset, Cursor cursor, RequestObject requestObject) throws IOException {
+		throw new UnsupportedOperationException(getWebServiceName() + " doesn't stream the response");
+	}
+	
 	
 	@Override
 	public String toString() {
@@ -165,7 +247,38 @@ public abstract class RequestObject {
 		sb.append("\n    TTL String         = " + this.getTtlString());
 		sb.append("\n    HTTP Method        = " + this.getHttpMethod());
 		if (getHttpMethod() == HttpMethod.POST) {
-			sb.append("\n    XML Content        = " + this.getXmlPost());	
+			sb.append("\n    XML Content        = " + (this.streamsXmlPost() ? "(streamed)" : this.getXmlPost()));	
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds the URL parameters for toUrlParamaters(), percent-encoding the values with UrlTemplate.appendEncoded().
+	 * E.g. getUrlParameters("user", "rui roque", "page", "1") returns "user=rui%20roque&page=1".
+	 * 
+	 * @param namesAndValues The parameter names and values, alternately. The parameters with a NULL value are skipped.
+	 * @return The URL parameters, or NULL if there are none.
+	 */
+	protected String getUrlParameters(String... namesAndValues) {
+		int length = 0;
+		for (int i = 1; i < namesAndValues.length; i += 2) {
+			if (namesAndValues[i] != null) {
+				length += namesAndValues[i - 1].length() + namesAndValues[i].length() + 2;
+			}
+		}
+		if (length == 0) {
+			return null;
+		}
+		
+		StringBuilder sb = new StringBuilder(length + length / 2);
+		for (int i = 1; i < namesAndValues.length; i += 2) {
+			if (namesAndValues[i] != null) {
+				if (sb.length() > 0) {
+					sb.append('&');
+				}
+				sb.append(namesAndValues[i - 1]).append('=');
+				UrlTemplate.appendEncoded(sb, namesAndValues[i]);
+			}
 		}
 		return sb.toString();
 	}
@@ -0,0 +1,540 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pt.sapo.mobile.android.connect.system.Log;
+
+/**
+ * Measures where the time goes in a single WebService request. Every invokeWebServiceFromRequestObject() call creates a
+ * RequestTrace, and each stage of the network pipeline records a Span in it: the queue wait before the background
+ * thread runs, the DNS lookup, the TCP connect, the TLS handshake, the request write, the time to the first response
+ * byte, the body download, the executeOperations() parsing and the Handler dispatch to the UI thread.
+ *
+ * While the request runs in the background thread, the trace is attached to that thread, so that the HTTP layer
+ * (the connection operator and the request executor) can record the spans without knowing the request. When
+ * the request ends, the trace is delivered to the registered OnRequestTraceListener. The traces can be exported in the
+ * Chrome trace-event JSON format, to be opened in chrome://tracing or Perfetto.
+ *
+ * The spans are timestamped with the monotonic System.nanoTime() clock, since most of them are below the millisecond.
+ *
+ * Simple usage (e.g. in the Application onCreate()):
+ *
+ * RequestTrace.setOnRequestTraceListener(new OnRequestTraceListener() {
+ *     @Override
+ *     public void onRequestTrace(RequestTrace trace) {
+ *         myTraces.add(trace);
+ *     }
+ * });
+ *
+ * String json = RequestTrace.toChromeTraceJson(myTraces);
+ */
+public class RequestTrace {
+
+	/**
+	 * Log tag for this class.
+	 */
+	private static final String TAG = "RequestTrace";
+
+	/**
+	 * The log level of the tag, for the checks on the request path.
+	 */
+	private static final Log.LevelSlot LEVEL_SLOT = Log.getLevelSlot(TAG);
+
+	/**
+	 * The stages of a request, in the order they usually happen.
+	 */
+	public enum Span {
+		/** From the invokeWebServiceFromRequestObject() call until the background thread starts running. */
+		QUEUE_WAIT,
+		/** Resolving the hostname. Only present on a DnsCache miss or expired entry. */
+		DNS,
+		/** Opening the TCP connection. Not present when a pooled connection is reused. */
+		CONNECT,
+		/** The TLS handshake and hostname verification of HTTPS connections. */
+		TLS,
+		/** Writing the request line, headers and body. */
+		REQUEST_WRITE,
+		/** Waiting for the response status line and headers. */
+		TIME_TO_FIRST_BYTE,
+		/** Reading the response body. */
+		BODY_DOWNLOAD,
+		/** The executeOperations() of the RequestObject, parsing the response and writing the database. */
+		PARSE,
+		/** From the Handler post() until the Runnable runs in the UI thread. */
+		DISPATCH
+	}
+
+	/**
+	 * Receives every finished RequestTrace. It is invoked in the thread that ended the request, which may be the UI
+	 * thread, so implementations should return quickly.
+	 */
+	public interface OnRequestTraceListener {
+		void onRequestTrace(RequestTrace trace);
+	}
+
+	/**
+	 * Sequential identifier for the traces.
+	 */
+	private static final AtomicInteger traceSequence = new AtomicInteger();
+
+	/**
+	 * The optional listener for the finished traces.
+	 */
+	private static volatile OnRequestTraceListener onRequestTraceListener;
+
+	/**
+	 * The trace of the request running in each thread.
+	 */
+	private static final ThreadLocal<RequestTrace> currentTrace = new ThreadLocal<RequestTrace>();
+
+	private final int traceId;
+	private final String name;
+	private final long startTime;
+	private long endTime = -1;
+	private long serviceStartTime = -1;
+	private boolean success;
+	private int failureStatus = NetworkUtilities.STATUS_CONNECTION_OK;
+	private long bytesSent;
+	private long bytesReceived;
+	private boolean dnsCacheHit;
+
+	/**
+	 * Start time of each running span, or -1 if the span is not running.
+	 */
+	private final long[] spanStart = new long[Span.values().length];
+
+	/**
+	 * The spans that have ended, in the order they ended.
+	 */
+	private final List<SpanRecord> spanRecords = new ArrayList<SpanRecord>(Span.values().length);
+
+	/**
+	 * Constructor. Starts the trace.
+	 *
+	 * @param name The name of the request (WebService name and HTTP method).
+	 */
+	private RequestTrace(String name) {
+		this.traceId = traceSequence.incrementAndGet();
+		this.name = name;
+		this.startTime = System.nanoTime();
+		Arrays.fill(spanStart, -1);
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                LISTENER                                                    //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Registers the listener that will receive the trace of every request.
+	 *
+	 * @param listener The listener, or NULL to stop receiving traces.
+	 */
+	public static void setOnRequestTraceListener(OnRequestTraceListener listener) {
+		onRequestTraceListener = listener;
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            CURRENT THREAD                                                  //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Starts the trace of a request.
+	 *
+	 * @param requestObject The RequestObject being invoked.
+	 * @return The new trace.
+	 */
+	static RequestTrace begin(RequestObject requestObject) {
+		return new RequestTrace(requestObject.getHttpMethod() + " " + requestObject.getWebServiceName());
+	}
+
+	/**
+	 * Attaches a trace to the current thread.
+	 *
+	 * @param trace The trace of the request that will run in this thread, or NULL to detach.
+	 * @return The trace previously attached, to be restored with another attach() when the request ends.
+	 */
+	static RequestTrace attach(RequestTrace trace) {
+		RequestTrace previous = currentTrace.get();
+		currentTrace.set(trace);
+		return previous;
+	}
+
+	/**
+	 * @return The trace of the request running in the current thread, or NULL if there is none.
+	 */
+	public static RequestTrace current() {
+		return currentTrace.get();
+	}
+
+	/**
+	 * Starts a span in the trace of the current thread. Does nothing if there is no trace attached.
+	 *
+	 * @param span The span that is starting.
+	 */
+	public static void startCurrentSpan(Span span) {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			trace.startSpan(span);
+		}
+	}
+
+	/**
+	 * Ends a span in the trace of the current thread. Does nothing if there is no trace attached.
+	 *
+	 * @param span The span that has ended.
+	 */
+	public static void endCurrentSpan(Span span) {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			trace.endSpan(span);
+		}
+	}
+
+
+	/**
+	 * Sets the failure status of the request running in the current thread. Does nothing if there is no trace attached.
+	 *
+	 * @param status One of NetworkUtilities.STATUS_*.
+	 */
+	public static void setCurrentFailureStatus(int status) {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			synchronized (trace) {
+				trace.failureStatus = status;
+			}
+		}
+	}
+
+	/**
+	 * Adds to the request body bytes sent by the request running in the current thread.
+	 *
+	 * @param bytes The number of bytes sent.
+	 */
+	public static void addCurrentBytesSent(long bytes) {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			synchronized (trace) {
+				trace.bytesSent += bytes;
+			}
+		}
+	}
+
+	/**
+	 * Adds to the response body bytes received by the request running in the current thread.
+	 *
+	 * @param bytes The number of bytes received.
+	 */
+	public static void addCurrentBytesReceived(long bytes) {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			synchronized (trace) {
+				trace.bytesReceived += bytes;
+			}
+		}
+	}
+
+	/**
+	 * Marks that the request running in the current thread starts executing, after the queue wait and the offline
+	 * hold. Does nothing if there is no trace attached.
+	 */
+	static void markCurrentServiceStart() {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			synchronized (trace) {
+				if (trace.endTime < 0) {
+					trace.serviceStartTime = System.nanoTime();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks that the request running in the current thread was resolved from the DnsCache, without a DNS lookup.
+	 */
+	public static void setCurrentDnsCacheHit() {
+		RequestTrace trace = currentTrace.get();
+		if (trace != null) {
+			synchronized (trace) {
+				trace.dnsCacheHit = true;
+			}
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                 SPANS                                                      //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Marks the start of a span.
+	 *
+	 * @param span The span that is starting.
+	 */
+	public synchronized void startSpan(Span span) {
+		if (endTime < 0) {
+			spanStart[span.ordinal()] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Marks the end of a span. A span that runs more than once (e.g. DNS of a redirect) is recorded every time.
+	 *
+	 * @param span The span that has ended.
+	 */
+	public synchronized void endSpan(Span span) {
+		int index = span.ordinal();
+		if (endTime < 0 && spanStart[index] >= 0) {
+			spanRecords.add(new SpanRecord(span, spanStart[index], System.nanoTime(), Thread.currentThread().getName()));
+			spanStart[index] = -1;
+		}
+	}
+
+	/**
+	 * Ends the trace, records it in the NetworkMetrics and delivers it to the listener. Does nothing if the trace has
+	 * already ended.
+	 *
+	 * @param success True if the request was successful.
+	 */
+	void finish(boolean success) {
+		synchronized (this) {
+			if (endTime >= 0) {
+				return;
+			}
+			for (Span span: Span.values()) {
+				// The span was interrupted by the end of the request.
+				endSpan(span);
+			}
+			this.endTime = System.nanoTime();
+			this.success = success;
+		}
+
+		NetworkMetrics.getInstance().record(this);
+
+		if (LEVEL_SLOT.isLoggable(Log.DEBUG)) {
+			Log.d(TAG, toString());
+		}
+
+		OnRequestTraceListener listener = onRequestTraceListener;
+		if (listener != null) {
+			listener.onRequestTrace(this);
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                 GETTERS                                                    //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	public int getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * @return The HTTP method and WebService name of the request (e.g. "GET GetUserInfo").
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public synchronized boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @return The NetworkUtilities.STATUS_* of a failed request. STATUS_CONNECTION_OK if the network and the server were
+	 *         available, but the request failed for some other reason.
+	 */
+	public synchronized int getFailureStatus() {
+		return failureStatus;
+	}
+
+	/**
+	 * @return The request body bytes sent.
+	 */
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return The response body bytes received.
+	 */
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return True if the connection of the request was resolved from the DnsCache. False if it needed a DNS lookup, or
+	 *         if no new connection was opened.
+	 */
+	public synchronized boolean isDnsCacheHit() {
+		return dnsCacheHit;
+	}
+
+	/**
+	 * @return The time from the invocation until the request ended, in microseconds, or -1 if it has not ended.
+	 */
+	public synchronized long getTotalTime() {
+		return endTime < 0 ? -1 : (endTime - startTime) / 1000;
+	}
+
+	/**
+	 * @return The time from when the request started executing until its results were ready, in microseconds, without
+	 *         the queue wait, the offline hold and the dispatch to the UI thread. -1 if it has not ended, or if it ended
+	 *         before it started executing.
+	 */
+	public synchronized long getServiceTime() {
+		if (endTime < 0 || serviceStartTime < 0) {
+			return -1;
+		}
+		return (endTime - serviceStartTime) / 1000 - Math.max(getSpanDuration(Span.DISPATCH), 0);
+	}
+
+	/**
+	 * @param span The span.
+	 * @return The total time spent in the span, in microseconds, or -1 if the request never reached it.
+	 */
+	public synchronized long getSpanDuration(Span span) {
+		long duration = -1;
+		for (SpanRecord record: spanRecords) {
+			if (record.span == span) {
+				duration = Math.max(duration, 0) + (record.end - record.start) / 1000;
+			}
+		}
+		return duration;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("RequestTrace:");
+		sb.append("\n    Trace               = ").append(traceId);
+		sb.append("\n    Name                = ").append(name);
+		sb.append("\n    Success             = ").append(success);
+		sb.append("\n    Total Time (us)     = ").append(getTotalTime());
+		sb.append("\n    Service Time (us)   = ").append(getServiceTime());
+		sb.append("\n    Bytes Sent          = ").append(bytesSent);
+		sb.append("\n    Bytes Received      = ").append(bytesReceived);
+		sb.append("\n    DNS Cache Hit       = ").append(dnsCacheHit);
+		for (Span span: Span.values()) {
+			sb.append("\n    ").append(span).append(" = ").append(getSpanDuration(span));
+		}
+		return sb.toString();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                           CHROME TRACE EXPORT                                              //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Exports this trace in the Chrome trace-event JSON format.
+	 *
+	 * @return The JSON document.
+	 */
+	public String toChromeTraceJson() {
+		return toChromeTraceJson(Collections.singletonList(this));
+	}
+
+	/**
+	 * Exports several traces in a single Chrome trace-event JSON document. Each request is shown in its own row, with
+	 * a complete event for the whole request and nested events for its spans. The timestamps are in microseconds.
+	 *
+	 * @param traces The traces to export. The unfinished ones are skipped.
+	 * @return The JSON document.
+	 */
+	public static String toChromeTraceJson(Collection<RequestTrace> traces) {
+		StringBuilder sb = new StringBuilder(256 * (traces.size() + 1));
+		sb.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		boolean first = true;
+		for (RequestTrace trace: traces) {
+			synchronized (trace) {
+				if (trace.endTime < 0) {
+					continue;
+				}
+				if (!first) {
+					sb.append(',');
+				}
+				first = false;
+				trace.appendChromeTraceEvents(sb);
+			}
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the events of this trace, comma separated. Must be called while holding the trace lock.
+	 */
+	private void appendChromeTraceEvents(StringBuilder sb) {
+		// Names the row of this request.
+		sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(traceId);
+		sb.append(",\"args\":{\"name\":").append(quote("#" + traceId + " " + name)).append("}}");
+
+		sb.append(',');
+		appendChromeTraceEvent(sb, name, startTime, endTime, null);
+		sb.append(",\"args\":{\"success\":").append(success);
+		sb.append(",\"bytesSent\":").append(bytesSent);
+		sb.append(",\"bytesReceived\":").append(bytesReceived).append("}}");
+
+		for (SpanRecord record: spanRecords) {
+			sb.append(',');
+			appendChromeTraceEvent(sb, record.span.name(), record.start, record.end, "network");
+			sb.append(",\"args\":{\"thread\":").append(quote(record.threadName)).append("}}");
+		}
+	}
+
+	/**
+	 * Appends a complete ("X") event, without the closing brace, so that the caller can add the args.
+	 */
+	private void appendChromeTraceEvent(StringBuilder sb, String eventName, long start, long end, String category) {
+		sb.append("{\"name\":").append(quote(eventName));
+		sb.append(",\"cat\":").append(quote(category == null ? "request" : category));
+		sb.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(traceId);
+		sb.append(",\"ts\":").append(start / 1000);
+		sb.append(",\"dur\":").append((end - start) / 1000);
+	}
+
+	/**
+	 * Quotes a string as a JSON string literal.
+	 */
+	private static String quote(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * A span that has ended. The times are System.nanoTime() values.
+	 */
+	private static class SpanRecord {
+
+		private final Span span;
+		private final long start;
+		private final long end;
+		private final String threadName;
+
+		private SpanRecord(Span span, long start, long end, String threadName) {
+			this.span = span;
+			this.start = start;
+			this.end = end;
+			this.threadName = threadName;
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.apache.http.protocol.HTTP;
+
+import pt.sapo.mobile.android.connect.http.BufferPool;
+import pt.sapo.mobile.android.connect.system.Log;
+
+/**
+ * The body of a WebService response, as bytes. The bodies up to the spill threshold are kept in memory, and the bigger
+ * ones are written to a temporary file as they are downloaded, so that a large response doesn't need the heap for
+ * itself and its String (two bytes per char). The bigger ones are read with asByteBuffer(), which maps the file into
+ * memory instead of copying it, or openStream().
+ *
+ * The bodies in memory are read into buffers of the BufferPool, pre-sized from the Content-Length when there is one,
+ * and the buffers are returned to the pool when the body is closed. The body is closed by the library after
+ * executeOperations(), which also deletes the temporary file. Neither the body nor its buffers (from asByteBuffer()) are
+ * to be used after that, as the pool may already have given them to another request.
+ */
+public class ResponseBody {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "ResponseBody";
+
+	/**
+	 * The log level of the tag, for the checks on the request path.
+	 */
+	private static final Log.LevelSlot LEVEL_SLOT = Log.getLevelSlot(TAG);
+
+	/**
+	 * The default size, in bytes, above which the body is written to a temporary file.
+	 */
+	public static final int DEFAULT_SPILL_THRESHOLD = 512 * 1024;
+
+	/**
+	 * The buffer size when the length is unknown, and for copying to the temporary file.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String charset;
+
+	/**
+	 * The body, when kept in memory, in a buffer of the BufferPool.
+	 */
+	private byte[] bytes;
+	private int count;
+
+	/**
+	 * The temporary file with the body, when spilled, and its length.
+	 */
+	private File file;
+	private long fileLength;
+
+	/**
+	 * The file opened by asByteBuffer(), closed with the body.
+	 */
+	private RandomAccessFile mappedFile;
+
+	private ResponseBody(String charset) {
+		this.charset = charset != null ? charset : HTTP.UTF_8;
+	}
+
+	/**
+	 * Reads a response body, in memory or to a temporary file in the directory.
+	 *
+	 * @param in The response content. Not closed.
+	 * @param contentLength The Content-Length, or a negative number if unknown.
+	 * @param charset The charset of the response, or NULL for UTF-8.
+	 * @param spillDirectory The directory for the temporary file (e.g. Context.getCacheDir()).
+	 * @param spillThreshold The size, in bytes, above which the body is written to the temporary file.
+	 * @return The body.
+	 * @throws IOException If the response can't be read or the temporary file can't be written.
+	 */
+	public static ResponseBody read(InputStream in, long contentLength, String charset, File spillDirectory, int spillThreshold) throws IOException {
+		ResponseBody body = new ResponseBody(charset);
+		BufferPool bufferPool = BufferPool.getInstance();
+		if (contentLength > spillThreshold) {
+			body.spill(in, null, 0, -1, spillDirectory);
+			return body;
+		}
+
+		byte[] buffer = bufferPool.acquire(contentLength >= 0 ? (int) contentLength : Math.min(BUFFER_SIZE, spillThreshold));
+		// The pooled buffers may be larger than the threshold.
+		int capacity = Math.min(buffer.length, spillThreshold);
+		int count = 0;
+		try {
+			while (true) {
+				if (count == capacity) {
+					// Only grow the buffer if the response hasn't ended, as it's usually full at the Content-Length.
+					int next = in.read();
+					if (next < 0) {
+						break;
+					}
+					if (count >= spillThreshold) {
+						// Larger than the threshold, so the rest goes to the file, which releases the buffer.
+						byte[] spillBuffer = buffer;
+						buffer = null;
+						body.spill(in, spillBuffer, count, next, spillDirectory);
+						return body;
+					}
+					if (count == buffer.length) {
+						byte[] grown = bufferPool.acquire(Math.max(buffer.length * 2, BUFFER_SIZE));
+						System.arraycopy(buffer, 0, grown, 0, count);
+						bufferPool.release(buffer);
+						buffer = grown;
+					}
+					buffer[count++] = (byte) next;
+					capacity = Math.min(buffer.length, spillThreshold);
+					continue;
+				}
+				int read = in.read(buffer, count, capacity - count);
+				if (read < 0) {
+					break;
+				}
+				count += read;
+			}
+		} catch (IOException e) {
+			bufferPool.release(buffer);
+			throw e;
+		}
+		body.bytes = buffer;
+		body.count = count;
+		return body;
+	}
+
+	/**
+	 * Writes the bytes already read and the rest of the response to a temporary file.
+	 *
+	 * @param in The response content.
+	 * @param buffer The bytes already read, also used for the copy, and released to the BufferPool. May be NULL.
+	 * @param count The number of bytes already read.
+	 * @param next The byte read after them, or -1 if there is none.
+	 * @param spillDirectory The directory for the temporary file.
+	 * @throws IOException If the response can't be read or the temporary file can't be written.
+	 */
+	private void spill(InputStream in, byte[] buffer, int count, int next, File spillDirectory) throws IOException {
+		BufferPool bufferPool = BufferPool.getInstance();
+		boolean done = false;
+		OutputStream out = null;
+		try {
+			file = File.createTempFile("response", ".tmp", spillDirectory);
+			out = new FileOutputStream(file);
+			long length = count;
+			if (count > 0) {
+				out.write(buffer, 0, count);
+			}
+			if (next >= 0) {
+				out.write(next);
+				length++;
+			}
+			if (buffer == null || buffer.length < BUFFER_SIZE) {
+				bufferPool.release(buffer);
+				buffer = bufferPool.acquire(BUFFER_SIZE);
+			}
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+				length += read;
+			}
+			fileLength = length;
+			done = true;
+		} finally {
+			bufferPool.release(buffer);
+			if (out != null) {
+				out.close();
+			}
+			if (!done && file != null) {
+				file.delete();
+				file = null;
+			}
+		}
+		if (LEVEL_SLOT.isLoggable(Log.DEBUG)) {
+			Log.d(TAG, "spill() - Wrote %d bytes to %s", fileLength, file);
+		}
+	}
+
+	/**
+	 * @return The charset of the body.
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return The length of the body, in bytes.
+	 */
+	public long length() {
+		return file != null ? fileLength : count;
+	}
+
+	/**
+	 * @return True if the body is in a temporary file.
+	 */
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * @return A new stream with the body.
+	 * @throws IOException If the temporary file can't be opened.
+	 */
+	public InputStream openStream() throws IOException {
+		if (file != null) {
+			return new FileInputStream(file);
+		}
+		return new ByteArrayInputStream(bytes, 0, count);
+	}
+
+	/**
+	 * @return A read-only buffer with the body, without copying it. The spilled bodies are memory mapped.
+	 * @throws IOException If the temporary file can't be mapped.
+	 */
+	public ByteBuffer asByteBuffer() throws IOException {
+		if (file == null) {
+			return ByteBuffer.wrap(bytes, 0, count).asReadOnlyBuffer();
+		}
+		if (mappedFile == null) {
+			mappedFile = new RandomAccessFile(file, "r");
+		}
+		return mappedFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+	}
+
+	/**
+	 * Decodes the body. For a spilled body, the String takes twice its length of heap, so prefer asByteBuffer() or
+	 * openStream() for those.
+	 *
+	 * @return The body, decoded with its charset.
+	 * @throws IOException If the charset isn't supported or the temporary file can't be mapped.
+	 */
+	public String asString() throws IOException {
+		if (file == null) {
+			return new String(bytes, 0, count, charset);
+		}
+		return Charset.forName(charset).decode(asByteBuffer()).toString();
+	}
+
+	/**
+	 * Releases the body and deletes the temporary file. Can be invoked more than once.
+	 */
+	public void close() {
+		if (bytes != null) {
+			BufferPool.getInstance().release(bytes);
+			bytes = null;
+			count = 0;
+		}
+		if (mappedFile != null) {
+			try {
+				mappedFile.close();
+			} catch (IOException e) {
+				Log.w(TAG, "close() - Unable to close " + file, e);
+			}
+			mappedFile = null;
+		}
+		if (file != null) {
+			// The buffers already mapped stay valid until they are collected.
+			if (!file.delete()) {
+				Log.w(TAG, "close() - Unable to delete " + file);
+			}
+			file = null;
+			fileLength = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseBody[" + length() + " bytes" + (file != null ? " in " + file : "") + "]";
+	}
+
+}
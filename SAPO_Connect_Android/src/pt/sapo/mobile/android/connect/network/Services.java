@@ -13,6 +13,11 @@ public interface Services {
      */
     public static final int CONNECTION_TIMEOUT = (int)(DateUtils.SECOND_IN_MILLIS * 6);
     
+    /**
+     * Maximum time a threaded request is held while there is no network connection, waiting for the network to return.
+     */
+    public static final int OFFLINE_REQUEST_HOLD_TIMEOUT = (int)(DateUtils.SECOND_IN_MILLIS * 15);
+    
 	// ----------------------------------------------------------------------------------------------------------------------------------- //
     //                                                         SERVICES ENDPOINTS                                                          //
     // ----------------------------------------------------------------------------------------------------------------------------------- //
@@ -0,0 +1,166 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import pt.sapo.mobile.android.connect.R;
+import android.content.Context;
+
+/**
+ * The compiled URL of a RequestObject class. The constant part of the URL (base URL, WebService name, client_id and
+ * jsonArg parameters) is built once, the first time the class is used, and only the dynamic parameters of each request
+ * are appended to it, into a buffer with the final size. E.g.:
+ *
+ *   https://services.sapo.pt/Photos/ImageGetListByUser?client_id=4368fh73fbfv&jsonArg=false&
+ *
+ * The templates are cached by RequestObject class, so getWebServiceName(), requiresClientId() and
+ * requiresExplicitJsonResponse() must return the same values for all the instances of a class, as they are meant to.
+ * The getBaseUrl() is checked on every request, and the template is compiled again if it changes.
+ */
+public final class UrlTemplate {
+
+	/**
+	 * The upper case hexadecimal digits for the percent-encoding.
+	 */
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * The compiled templates of each RequestObject class.
+	 */
+	private static final ConcurrentHashMap<Class<?>, UrlTemplate> templates = new ConcurrentHashMap<Class<?>, UrlTemplate>();
+
+	/**
+	 * The base URL the template was compiled for.
+	 */
+	private final String baseUrl;
+
+	/**
+	 * The URL prefix for the requests with parameters, ending with '?' or '&'.
+	 */
+	private final String prefix;
+
+	/**
+	 * The URL for the requests without parameters, as built by NetworkOperations.buildUrlWithParamsString().
+	 */
+	private final String urlWithoutParameters;
+
+	/**
+	 * The URL for the POST requests, as built by NetworkOperations.buildUrl().
+	 */
+	private final String postUrl;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param baseUrl The base URL of the WebService.
+	 * @param wsName The WebService name.
+	 * @param requiresExplicitJsonResponse If true, the jsonArg will be used in the URL.
+	 * @param clientId The Client ID for the URL, or NULL if it is not required.
+	 */
+	UrlTemplate(String baseUrl, String wsName, boolean requiresExplicitJsonResponse, String clientId) {
+		this.baseUrl = baseUrl;
+
+		StringBuilder sb = new StringBuilder(baseUrl.length() + wsName.length() + (clientId != null ? clientId.length() * 3 : 0) + 40);
+		sb.append(baseUrl).append(wsName).append('?');
+		if (clientId != null) {
+			sb.append(Services.PARAM_CLIENT_ID).append('=');
+			appendEncoded(sb, clientId);
+			sb.append('&');
+		}
+		if (requiresExplicitJsonResponse) {
+			sb.append(Services.PARAM_JSON_ARG).append("=false&");
+		}
+		this.prefix = sb.toString();
+
+		this.urlWithoutParameters = prefix.endsWith("&") ? prefix.substring(0, prefix.length() - 1) : prefix;
+		this.postUrl = requiresExplicitJsonResponse
+				? baseUrl + wsName + '?' + Services.PARAM_JSON_ARG + "=false"
+				: baseUrl + wsName;
+	}
+
+	/**
+	 * Gets the template of the RequestObject class, compiling it if it's the first request of the class or if the base
+	 * URL has changed.
+	 *
+	 * @param context The caller Context, for the Client ID.
+	 * @param requestObject The RequestObject for the WS.
+	 * @return The URL template.
+	 */
+	public static UrlTemplate forRequestObject(Context context, RequestObject requestObject) {
+		Class<?> requestClass = requestObject.getClass();
+		String baseUrl = requestObject.getBaseUrl();
+		UrlTemplate template = templates.get(requestClass);
+		if (template == null || !template.baseUrl.equals(baseUrl)) {
+			template = new UrlTemplate(baseUrl, requestObject.getWebServiceName(), requestObject.requiresExplicitJsonResponse(),
+					requestObject.requiresClientId() ? context.getString(R.string.sapo_network_client_id) : null);
+			templates.put(requestClass, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Builds the URL of a GET request.
+	 *
+	 * @param paramsString A sequence of params URL Encoded in the form of paramName=paramValue, as returned by
+	 *        RequestObject.toUrlParamaters(). Can be NULL.
+	 * @return The encoded URL.
+	 */
+	public String build(String paramsString) {
+		if (paramsString == null) {
+			return urlWithoutParameters;
+		}
+		return new StringBuilder(prefix.length() + paramsString.length()).append(prefix).append(paramsString).toString();
+	}
+
+	/**
+	 * @return The URL of a POST request, which has no parameters besides the jsonArg.
+	 */
+	public String buildPostUrl() {
+		return postUrl;
+	}
+
+	/**
+	 * Appends a percent-encoded (RFC 3986) value to a URL. All the characters except the unreserved ones (letters,
+	 * digits, '-', '.', '_' and '~') are encoded as the UTF-8 bytes, so a space is "%20" and not '+', as with
+	 * java.net.URLEncoder.
+	 *
+	 * @param sb The URL being built.
+	 * @param value The value to encode.
+	 */
+	public static void appendEncoded(StringBuilder sb, String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+				sb.append(c);
+			} else if (c < 0x80) {
+				appendEncodedByte(sb, c);
+			} else if (c < 0x800) {
+				appendEncodedByte(sb, 0xC0 | (c >> 6));
+				appendEncodedByte(sb, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				appendEncodedByte(sb, 0xF0 | (codePoint >> 18));
+				appendEncodedByte(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+				appendEncodedByte(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+				appendEncodedByte(sb, 0x80 | (codePoint & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// Unpaired surrogate: encoded as '?', as String.getBytes() does.
+				appendEncodedByte(sb, '?');
+			} else {
+				appendEncodedByte(sb, 0xE0 | (c >> 12));
+				appendEncodedByte(sb, 0x80 | ((c >> 6) & 0x3F));
+				appendEncodedByte(sb, 0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private static void appendEncodedByte(StringBuilder sb, int b) {
+		sb.append('%').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+	}
+
+	@Override
+	public String toString() {
+		return "UrlTemplate: " + prefix;
+	}
+
+}
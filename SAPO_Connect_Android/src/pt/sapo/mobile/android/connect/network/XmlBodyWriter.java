@@ -0,0 +1,190 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Writes the XML body of an HTTP Post straight to the connection, with the same elements as the RequestObject helpers
+ * (getRootObject(), getComplexType(), getParamXmlString() and getEsbCredentialsXmlString()), so that a large body is
+ * never built in memory. E.g., for a RequestObject with streamsXmlPost() returning true:
+ *
+ *   public void writeXmlPost(XmlBodyWriter writer) throws IOException {
+ *       writer.startRootObject("ImageEditList", SCHEMA).esbCredentials(esbToken).startComplexType("ImageList");
+ *       for (Image image: images) {
+ *           writer.startComplexType("Image").param("Id", image.id).param("Title", image.title).end();
+ *       }
+ *   }
+ *
+ * The elements still open when the RequestObject returns are closed by the library. Unlike getParamXmlString(), the
+ * param() values are escaped, so they must be plain text. Use raw() for XML fragments.
+ */
+public final class XmlBodyWriter {
+
+	/**
+	 * The namespace of the ESB credentials.
+	 */
+	private static final String ESB_DEFINITIONS_NAMESPACE = "http://services.sapo.pt/definitions";
+
+	/**
+	 * The namespace prefix of the service elements.
+	 */
+	private static final String PREFIX = "tran:";
+
+	private final Writer writer;
+
+	/**
+	 * The names of the open elements, from the root.
+	 */
+	private final ArrayList<String> openElements = new ArrayList<String>(8);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param writer The Writer for the body, already with the UTF-8 encoding. It's not closed by this class.
+	 */
+	public XmlBodyWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Opens the root element, as getRootObject() does: <tran:name xmlns:tran="schema">
+	 *
+	 * @param name The element name.
+	 * @param schema The schema of the service, for the "tran" namespace.
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 */
+	public XmlBodyWriter startRootObject(String name, String schema) throws IOException {
+		writer.write('<');
+		writer.write(PREFIX);
+		writer.write(name);
+		writer.write(" xmlns:tran=\"");
+		writeEscaped(schema);
+		writer.write("\">");
+		openElements.add(name);
+		return this;
+	}
+
+	/**
+	 * Opens a complex type element, as getComplexType() does: <tran:name>
+	 *
+	 * @param name The element name.
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 */
+	public XmlBodyWriter startComplexType(String name) throws IOException {
+		writeTag(name, false);
+		openElements.add(name);
+		return this;
+	}
+
+	/**
+	 * Closes the last open element.
+	 *
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 * @throws IllegalStateException If there are no open elements.
+	 */
+	public XmlBodyWriter end() throws IOException {
+		if (openElements.isEmpty()) {
+			throw new IllegalStateException("There are no open elements");
+		}
+		writeTag(openElements.remove(openElements.size() - 1), true);
+		return this;
+	}
+
+	/**
+	 * Writes a simple element, as getParamXmlString() does, but with the value escaped: <tran:name>value</tran:name>
+	 *
+	 * @param name The element name.
+	 * @param value The element text. NULL writes an empty element.
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 */
+	public XmlBodyWriter param(String name, String value) throws IOException {
+		writeTag(name, false);
+		if (value != null) {
+			writeEscaped(value);
+		}
+		writeTag(name, true);
+		return this;
+	}
+
+	/**
+	 * Writes the ESB credentials, as getEsbCredentialsXmlString() does.
+	 *
+	 * @param esbToken The ESB token.
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 */
+	public XmlBodyWriter esbCredentials(String esbToken) throws IOException {
+		writer.write("<def:ESBCredentials xmlns:def=\"");
+		writer.write(ESB_DEFINITIONS_NAMESPACE);
+		writer.write("\"><def:ESBToken>");
+		writeEscaped(esbToken);
+		writer.write("</def:ESBToken></def:ESBCredentials>");
+		return this;
+	}
+
+	/**
+	 * Writes an XML fragment as it is.
+	 *
+	 * @param xml The XML fragment.
+	 * @return This XmlBodyWriter.
+	 * @throws IOException If the body can't be written.
+	 */
+	public XmlBodyWriter raw(String xml) throws IOException {
+		if (xml != null) {
+			writer.write(xml);
+		}
+		return this;
+	}
+
+	/**
+	 * Closes all the open elements and flushes the Writer. Invoked by the library after RequestObject.writeXmlPost().
+	 *
+	 * @throws IOException If the body can't be written.
+	 */
+	public void finish() throws IOException {
+		while (!openElements.isEmpty()) {
+			end();
+		}
+		writer.flush();
+	}
+
+	private void writeTag(String name, boolean closing) throws IOException {
+		writer.write(closing ? "</" : "<");
+		writer.write(PREFIX);
+		writer.write(name);
+		writer.write('>');
+	}
+
+	/**
+	 * Writes a text or attribute value with the XML special characters escaped, in runs of the characters that don't
+	 * need escaping.
+	 */
+	private void writeEscaped(String value) throws IOException {
+		int length = value.length();
+		int runStart = 0;
+		for (int i = 0; i < length; i++) {
+			String entity;
+			switch (value.charAt(i)) {
+				case '&': entity = "&amp;";  break;
+				case '<': entity = "&lt;";   break;
+				case '>': entity = "&gt;";   break;
+				case '"': entity = "&quot;"; break;
+				default: continue;
+			}
+			if (i > runStart) {
+				writer.write(value, runStart, i - runStart);
+			}
+			writer.write(entity);
+			runStart = i + 1;
+		}
+		if (length > runStart) {
+			writer.write(value, runStart, length - runStart);
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import pt.sapo.mobile.android.connect.system.Log;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+
+/**
+ * Base class for the RequestObjects of the WebServices that reply in XML. The response is parsed with an XmlPullParser
+ * as it is downloaded, so the subclasses can map each element to an object or a DB row as it arrives, in constant
+ * memory, instead of parsing a response String. The OAuth requests get the response as a String, which is parsed the
+ * same way.
+ *
+ * The parser is namespace aware, so the element names are the local names (e.g. "Image" for "tran:Image"). E.g.:
+ *
+ *   protected boolean parseResponse(Context context, XmlPullParser parser, NetworkObject networkObject) throws XmlPullParserException, IOException {
+ *       while (nextStartTag(parser, "Image")) {
+ *           int depth = parser.getDepth();
+ *           Image image = new Image();
+ *           while (nextChildElement(parser, depth)) {
+ *               if ("Id".equals(parser.getName())) {
+ *                   image.id = readText(parser);
+ *               } else {
+ *                   skipElement(parser);
+ *               }
+ *           }
+ *           myDatabase.insert(image);
+ *           networkObject.insertedResults++;
+ *           // Only delivered if the callback is an OnNetworkProgressListener.
+ *           ProgressDispatcher.addCurrentPartialResult(image);
+ *       }
+ *       return true;
+ *   }
+ */
+public abstract class XmlPullRequestObject extends RequestObject {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "XmlPullRequestObject";
+
+	/**
+	 * The factory for the parsers. Created on first use.
+	 */
+	private static XmlPullParserFactory parserFactory;
+
+	/**
+	 * Parses the response. Invoked in the network thread, with the parser before the first element.
+	 *
+	 * @param context The caller Context.
+	 * @param parser The parser of the response.
+	 * @param networkObject The NetworkObject for the results, with the request code, result set and cursor already set.
+	 * @return True if the response was successful.
+	 * @throws XmlPullParserException If the response isn't valid XML.
+	 * @throws IOException If the response can't be read from the connection.
+	 */
+	protected abstract boolean parseResponse(Context context, XmlPullParser parser, NetworkObject networkObject) throws XmlPullParserException, IOException;
+
+	@Override
+	public boolean streamsResponse() {
+		return true;
+	}
+
+	@Override
+	public NetworkObject executeStreamOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, InputStream responseStream, String charset, Cursor cursor, RequestObject requestObject) throws IOException {
+		NetworkObject networkObject = new NetworkObject(requestObject, cursor);
+		try {
+			XmlPullParser parser = newPullParser();
+			// Without a charset, the parser takes it from the XML declaration.
+			parser.setInput(responseStream, charset);
+			networkObject.result = parseResponse(context, parser, networkObject);
+		} catch (XmlPullParserException e) {
+			Log.e(TAG, "executeStreamOperations() - Invalid XML response from " + getWebServiceName(), e);
+			networkObject.result = false;
+		}
+		return networkObject;
+	}
+
+	@Override
+	public NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, String responseString, Cursor cursor, RequestObject requestObject) {
+		NetworkObject networkObject = new NetworkObject(requestObject, cursor);
+		try {
+			XmlPullParser parser = newPullParser();
+			parser.setInput(new StringReader(responseString));
+			networkObject.result = parseResponse(context, parser, networkObject);
+		} catch (XmlPullParserException e) {
+			Log.e(TAG, "executeOperations() - Invalid XML response from " + getWebServiceName(), e);
+			networkObject.result = false;
+		} catch (IOException e) {
+			// Not expected from a StringReader.
+			Log.e(TAG, "executeOperations() - Unable to read the response from " + getWebServiceName(), e);
+			networkObject.result = false;
+		}
+		return networkObject;
+	}
+
+	/**
+	 * @return A new namespace aware XmlPullParser.
+	 * @throws XmlPullParserException If the parser can't be created.
+	 */
+	private static XmlPullParser newPullParser() throws XmlPullParserException {
+		XmlPullParserFactory factory;
+		synchronized (XmlPullRequestObject.class) {
+			if (parserFactory == null) {
+				parserFactory = XmlPullParserFactory.newInstance();
+				parserFactory.setNamespaceAware(true);
+			}
+			factory = parserFactory;
+		}
+		return factory.newPullParser();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                             PARSING HELPERS                                                //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Advances to the next start tag with the name, at any depth.
+	 *
+	 * @param parser The parser.
+	 * @param name The element local name.
+	 * @return True if the parser is at the start tag. False if the document has ended.
+	 * @throws XmlPullParserException If the response isn't valid XML.
+	 * @throws IOException If the response can't be read.
+	 */
+	protected static boolean nextStartTag(XmlPullParser parser, String name) throws XmlPullParserException, IOException {
+		int eventType;
+		while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.START_TAG && name.equals(parser.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Advances to the next child element of the element at the depth. Use it in a loop, reading or skipping each child.
+	 *
+	 * @param parser The parser.
+	 * @param depth The depth of the parent element, from parser.getDepth() at its start tag.
+	 * @return True if the parser is at the start tag of a child. False if it's at the end tag of the parent.
+	 * @throws XmlPullParserException If the response isn't valid XML.
+	 * @throws IOException If the response can't be read.
+	 */
+	protected static boolean nextChildElement(XmlPullParser parser, int depth) throws XmlPullParserException, IOException {
+		int eventType;
+		while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.START_TAG && parser.getDepth() == depth + 1) {
+				return true;
+			}
+			if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the text of the current element, ignoring the text of its children, and advances to its end tag.
+	 *
+	 * @param parser The parser, at a start tag.
+	 * @return The text, or an empty String if the element has none.
+	 * @throws XmlPullParserException If the response isn't valid XML.
+	 * @throws IOException If the response can't be read.
+	 */
+	protected static String readText(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int depth = parser.getDepth();
+		String text = null;
+		StringBuilder sb = null;
+		int eventType;
+		while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+				break;
+			}
+			if (eventType == XmlPullParser.TEXT && parser.getDepth() == depth) {
+				// Most elements have a single text event, so the StringBuilder is only created for the others.
+				if (text == null) {
+					text = parser.getText();
+				} else {
+					if (sb == null) {
+						sb = new StringBuilder(text);
+					}
+					sb.append(parser.getText());
+				}
+			}
+		}
+		return sb != null ? sb.toString() : (text != null ? text : "");
+	}
+
+	/**
+	 * Skips the current element and its children, advancing to its end tag.
+	 *
+	 * @param parser The parser, at a start tag.
+	 * @throws XmlPullParserException If the response isn't valid XML.
+	 * @throws IOException If the response can't be read.
+	 */
+	protected static void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int depth = parser.getDepth();
+		int eventType;
+		while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+				return;
+			}
+		}
+	}
+
+}
@@ -34,6 +34,7 @@ import java.net.InetAddress;
 import java.net.SocketException;
 import java.text.DecimalFormat;
 
+import pt.sapo.mobile.android.connect.http.DnsCache;
 import pt.sapo.mobile.android.connect.system.Log;
 
 import android.text.format.DateUtils;
@@ -56,7 +57,7 @@ public class NTPClient {
 	/**
 	 * The Public NTP Server.
 	 */
-	private static final String SERVER_NAME = "europe.pool.ntp.org";
+	public static final String SERVER_NAME = "europe.pool.ntp.org";
 		
 	/**
 	 * The delta time between the NTP server time and the local device time.
@@ -94,7 +95,7 @@ public class NTPClient {
 			// Set the timeout so that we don't get blocked forever waiting for the package.
 			socket.setSoTimeout(TIMEOUT_MILLIS);
 			
-			InetAddress address = InetAddress.getByName(SERVER_NAME);
+			InetAddress address = DnsCache.getInstance().resolve(SERVER_NAME);
 			byte[] buf = new NtpMessage().toByteArray();
 			DatagramPacket packet = new DatagramPacket(buf, buf.length, address, 123);
 
@@ -119,11 +120,13 @@ public class NTPClient {
 			double localClockOffset = ((msg.receiveTimestamp - msg.originateTimestamp) + (msg.transmitTimestamp - destinationTimestamp)) / 2;
 
 			// Display response
-			Log.d(TAG, "NTPClient() - NTP server: " + SERVER_NAME);
-			Log.d(TAG, "NTPClient() - " + msg.toString());
-			Log.d(TAG, "NTPClient() - Dest. timestamp:    " + NtpMessage.timestampToString(destinationTimestamp));
-			Log.d(TAG, "NTPClient() - Round-trip delay:   " + new DecimalFormat("0.00").format(roundTripDelay * 1000) + " ms");
-			Log.d(TAG, "NTPClient() - Local clock offset: " + new DecimalFormat("0.00").format(localClockOffset * 1000) + " ms");
+			if (Log.isLoggable(TAG, Log.DEBUG)) {
+				Log.d(TAG, "NTPClient() - NTP server: " + SERVER_NAME);
+				Log.d(TAG, "NTPClient() - " + msg.toString());
+				Log.d(TAG, "NTPClient() - Dest. timestamp:    " + NtpMessage.timestampToString(destinationTimestamp));
+				Log.d(TAG, "NTPClient() - Round-trip delay:   " + new DecimalFormat("0.00").format(roundTripDelay * 1000) + " ms");
+				Log.d(TAG, "NTPClient() - Local clock offset: " + new DecimalFormat("0.00").format(localClockOffset * 1000) + " ms");
+			}
 			
 			double utcReceiveTimestamp = msg.receiveTimestamp - (2208988800.0);
 			long longReceiveTimestamp = (long) (utcReceiveTimestamp * 1000.0);
@@ -1,8 +1,14 @@
 package pt.sapo.mobile.android.connect.system;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.concurrent.ConcurrentHashMap;
+
 import pt.sapo.mobile.android.connect.R;
 import android.app.Application;
 import android.content.Context;
+import android.content.res.Resources;
 
 /**
  * Wrapper class for android.util.Log intended to seamlessly replace imports of
@@ -19,6 +25,10 @@ import android.content.Context;
  *     ERROR   = 6
  *     ASSERT  = 7
  *
+ * For messages that are expensive to build, use the lazy methods, which only build the message if the level is enabled:
+ *
+ *     Log.d(TAG, "callWebService() - Response string=%s", responseString);
+ *
  * @author Rui Roque
  * @author António Alegria
  */
@@ -44,6 +54,39 @@ public class Log {
 	 */
 	private static int LOG_LEVEL = WARN;
 
+	/**
+	 * Optional destination for the log records, in addition to the logcat. NULL if there is none.
+	 */
+	private static volatile LogSink sink;
+
+	/**
+	 * Log levels that override LOG_LEVEL for specific tags.
+	 */
+	private static final ConcurrentHashMap<String, Integer> tagLevels = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * True if there are tag levels. Checked before the LevelSlot lookup, which is skipped without tag levels.
+	 */
+	private static volatile boolean hasTagLevels;
+
+	/**
+	 * Maximum number of LevelSlots created by the log calls. The tags are usually constants, but a tag built at runtime
+	 * would add a slot per value. Past this size, the log calls resolve the level of the new tags on every call.
+	 */
+	private static final int MAX_LEVEL_SLOTS = 256;
+
+	/**
+	 * The resolved level for each tag (String) or class (Class) that has logged, so that the level check is a map
+	 * lookup plus an int comparison, and for each slot from getLevelSlot(). Only used by the log calls when there are
+	 * tag levels.
+	 */
+	private static final ConcurrentHashMap<Object, LevelSlot> levelSlots = new ConcurrentHashMap<Object, LevelSlot>();
+
+	/**
+	 * The key of the LevelSlot of the NULL tag, which has the application level.
+	 */
+	private static final Object NULL_TAG_KEY = new Object();
+
 
 	/**
 	 * Query if a specific logging level is active.
@@ -67,6 +110,13 @@ public class Log {
 	 *
 	 * Currently, you may configure the following string attributes:
 	 * - pt.sapo.mobile.android.connect.system.Log.level: string representations of logging level (e.g. "debug", "info", ...)
+	 * - pt.sapo.mobile.android.connect.Log.tagLevels: string array with levels for specific tags, as "tag=level"
+	 *   (e.g. "NetworkOperations=debug"), which override the level above
+	 * - pt.sapo.mobile.android.connect.Log.sink: "file" to also write the logs to a file, or "none"
+	 * - pt.sapo.mobile.android.connect.Log.sink.fileName: name of the log file, in the application "logs" directory
+	 * - pt.sapo.mobile.android.connect.Log.sink.maxFileSize: size, in bytes, at which the log file is rotated
+	 * - pt.sapo.mobile.android.connect.Log.sink.maxFiles: maximum number of log files kept
+	 * - pt.sapo.mobile.android.connect.Log.sink.capacity: maximum number of records waiting to be written
 	 *
 	 * @param context The application context.
 	 * @author António Alegria
@@ -91,7 +141,45 @@ public class Log {
 			setLevel(SUPPRESS);
 		} else {
 			Log.e(TAG, "Incorrect level: " + levelStr);
-			return;
+		}
+
+		for (String tagLevelStr: context.getResources().getStringArray(R.array.pt_sapo_mobile_android_connect_Log_tagLevels)) {
+			int separator = tagLevelStr.indexOf('=');
+			int level = (separator > 0) ? levelFromString(tagLevelStr.substring(separator + 1).trim()) : -1;
+			if (level >= 0) {
+				setTagLevel(tagLevelStr.substring(0, separator).trim(), level);
+			} else {
+				Log.e(TAG, "Incorrect tag level: " + tagLevelStr);
+			}
+		}
+
+		configSinkFromContext(context);
+	}
+
+	/**
+	 * Configure the log sink according to the resource values set in the context. See configFromContext().
+	 *
+	 * @param context The application context.
+	 */
+	private static void configSinkFromContext(Context context) {
+		Resources resources = context.getResources();
+		String sinkStr = resources.getString(R.string.pt_sapo_mobile_android_connect_Log_sink);
+
+		if (sinkStr.equals("file")) {
+			try {
+				File file = new File(context.getDir("logs", Context.MODE_PRIVATE), resources.getString(R.string.pt_sapo_mobile_android_connect_Log_sink_fileName));
+				long maxFileSize = Long.parseLong(resources.getString(R.string.pt_sapo_mobile_android_connect_Log_sink_maxFileSize));
+				int maxFiles = Integer.parseInt(resources.getString(R.string.pt_sapo_mobile_android_connect_Log_sink_maxFiles));
+				int capacity = Integer.parseInt(resources.getString(R.string.pt_sapo_mobile_android_connect_Log_sink_capacity));
+				setSink(new RingBufferLogSink(file, capacity, maxFileSize, maxFiles));
+				Log.w(TAG, "configSinkFromContext() - Logging to file: " + file.getPath());
+			} catch (NumberFormatException e) {
+				Log.e(TAG, "configSinkFromContext() - Incorrect sink configuration.", e);
+			}
+		} else if (sinkStr.equals("none")) {
+			setSink(null);
+		} else {
+			Log.e(TAG, "configSinkFromContext() - Incorrect sink: " + sinkStr);
 		}
 	}
 
@@ -104,12 +192,56 @@ public class Log {
 	public static void setLevel(int level) {
 		if (level >= VERBOSE && level <= SUPPRESS) {
 			LOG_LEVEL = level;
+			refreshLevelSlots();
 			Log.w(TAG, "setLevel() - Log level set to: " + LEVEL_STRINGS[level] );
 		} else {
 			Log.e(TAG, "setLevel() - Incorrect level: " + level);
 		}
 	}
 
+	/**
+	 * Set the logging level for a specific tag, overriding the application logging level. For the log methods that
+	 * take an object instead of a tag, the tag is the simple name of the object class.
+	 *
+	 * @param tag The log tag.
+	 * @param level The log level. You can choose from VERBOSE, DEBUG, INFO, WARN, ERROR or ASSERT.
+	 */
+	public static void setTagLevel(String tag, int level) {
+		if (level >= VERBOSE && level <= SUPPRESS) {
+			tagLevels.put(tag, level);
+			hasTagLevels = true;
+			refreshLevelSlots();
+			Log.w(TAG, "setTagLevel() - Log level for " + tag + " set to: " + LEVEL_STRINGS[level]);
+		} else {
+			Log.e(TAG, "setTagLevel() - Incorrect level: " + level);
+		}
+	}
+
+	/**
+	 * Removes the logging level for a specific tag, which goes back to the application logging level.
+	 *
+	 * @param tag The log tag.
+	 */
+	public static void removeTagLevel(String tag) {
+		if (tagLevels.remove(tag) != null) {
+			hasTagLevels = !tagLevels.isEmpty();
+			refreshLevelSlots();
+		}
+	}
+
+	/**
+	 * Sets the destination for the log records, in addition to the logcat. The previous sink, if any, is closed.
+	 *
+	 * @param logSink The LogSink, or NULL to only log to the logcat.
+	 */
+	public static void setSink(LogSink logSink) {
+		LogSink previousSink = sink;
+		sink = logSink;
+		if (previousSink != null && previousSink != logSink) {
+			previousSink.close();
+		}
+	}
+
 	/**
 	 * Mirror method for android.util.Log.isLoggable. Doesn't call the native method.
 	 * Instead, calls the internal method isInternalLoggable.
@@ -123,25 +255,133 @@ public class Log {
 	}
 
 	/**
-	 * Used internally, only for this class. Calls the overloaded method without the
-	 * log tag.
+	 * Used internally, only for this class. Determines if the log level is allowed for the tag.
+	 * Without tag levels, it is a comparison with LOG_LEVEL. Otherwise, with the level resolved for the tag.
 	 *
-	 * @param tag The log level.
+	 * @param tag The log tag. May be NULL, with the application level.
 	 * @param level The log level.
 	 * @return The boolean result.
 	 */
 	private static boolean isInternalLoggable(String tag, int level) {
-		return isInternalLoggable(level);
+		if (!hasTagLevels || tag == null) {
+			return level >= LOG_LEVEL;
+		}
+		LevelSlot levelSlot = levelSlots.get(tag);
+		if (levelSlot != null) {
+			return level >= levelSlot.level;
+		}
+		return level >= ((levelSlots.size() < MAX_LEVEL_SLOTS) ? newLevelSlot(tag, tag).level : resolveLevel(tag));
 	}
 
 	/**
-	 * Used internally, only for this class. Determines if the log level is allowed.
+	 * Used internally, only for this class. Determines if the log level is allowed for the tag of the class, which is
+	 * the class simple name. The simple name is only computed when the class logs for the first time.
 	 *
+	 * @param clazz The class of the object that is logging.
 	 * @param level The log level.
 	 * @return The boolean result.
 	 */
-	private static boolean isInternalLoggable(int level) {
-		return level >= LOG_LEVEL;
+	private static boolean isInternalLoggable(Class<?> clazz, int level) {
+		if (!hasTagLevels) {
+			return level >= LOG_LEVEL;
+		}
+		LevelSlot levelSlot = levelSlots.get(clazz);
+		if (levelSlot != null) {
+			return level >= levelSlot.level;
+		}
+		String tag = clazz.getSimpleName();
+		return level >= ((levelSlots.size() < MAX_LEVEL_SLOTS) ? newLevelSlot(clazz, tag).level : resolveLevel(tag));
+	}
+
+	/**
+	 * Gets the LevelSlot of a tag, to keep in a static final field of the class that logs, so that its level checks are
+	 * a single int comparison, without the map lookup of isLoggable(). E.g.:
+	 *
+	 *     private static final Log.LevelSlot LEVEL_SLOT = Log.getLevelSlot(TAG);
+	 *     ...
+	 *     if (LEVEL_SLOT.isLoggable(Log.DEBUG)) {
+	 *
+	 * The slot follows the changes to the application and tag levels.
+	 *
+	 * @param tag The log tag. May be NULL, with the application level.
+	 * @return The LevelSlot of the tag.
+	 */
+	public static LevelSlot getLevelSlot(String tag) {
+		Object key = (tag != null) ? tag : NULL_TAG_KEY;
+		LevelSlot levelSlot = levelSlots.get(key);
+		return (levelSlot != null) ? levelSlot : newLevelSlot(key, tag);
+	}
+
+	/**
+	 * Creates the LevelSlot for a tag or a class, the first time it logs. The slot resolves its level in the constructor,
+	 * so the other threads never see it without one.
+	 *
+	 * @param key The tag or the class.
+	 * @param tag The log tag.
+	 * @return The LevelSlot.
+	 */
+	private static LevelSlot newLevelSlot(Object key, String tag) {
+		LevelSlot levelSlot = new LevelSlot(tag);
+		LevelSlot existingLevelSlot = levelSlots.putIfAbsent(key, levelSlot);
+		if (existingLevelSlot != null) {
+			return existingLevelSlot;
+		}
+		// The levels may have changed after the constructor, and refreshLevelSlots() may have missed the slot.
+		levelSlot.level = resolveLevel(tag);
+		return levelSlot;
+	}
+
+	/**
+	 * Resolves the level of each LevelSlot again, after the application or a tag level is changed.
+	 */
+	private static void refreshLevelSlots() {
+		for (LevelSlot levelSlot: levelSlots.values()) {
+			levelSlot.level = resolveLevel(levelSlot.tag);
+		}
+	}
+
+	/**
+	 * @param tag The log tag. May be NULL.
+	 * @return The level for the tag, if there is one. Otherwise, the application level.
+	 */
+	private static int resolveLevel(String tag) {
+		Integer tagLevel = (tag != null) ? tagLevels.get(tag) : null;
+		return (tagLevel != null) ? tagLevel : LOG_LEVEL;
+	}
+
+	/**
+	 * @param levelStr The string representation of a logging level (e.g. "debug").
+	 * @return The logging level, or -1 if the string is incorrect.
+	 */
+	private static int levelFromString(String levelStr) {
+		for (int level = VERBOSE; level <= SUPPRESS; level++) {
+			if (LEVEL_STRINGS[level].equals(levelStr)) {
+				return level;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The resolved log level for a tag.
+	 */
+	public static final class LevelSlot {
+
+		private final String tag;
+		private volatile int level;
+
+		private LevelSlot(String tag) {
+			this.tag = tag;
+			this.level = resolveLevel(tag);
+		}
+
+		/**
+		 * @param level The log level.
+		 * @return True if the log level is allowed for the tag.
+		 */
+		public boolean isLoggable(int level) {
+			return level >= this.level;
+		}
 	}
 
 	/**
@@ -151,8 +391,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void d(String tag, String msg) {
-		if (isInternalLoggable(android.util.Log.DEBUG)) {
-			android.util.Log.d(tag, msg);
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, msg, null);
 		}
 	}
 
@@ -165,8 +405,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void d(Object object, String msg) {
-		if (isInternalLoggable(android.util.Log.DEBUG)) {
-			android.util.Log.d(object.getClass().getSimpleName(), msg);
+		if (isInternalLoggable(object.getClass(), android.util.Log.DEBUG)) {
+			println(DEBUG, object.getClass().getSimpleName(), msg, null);
 		}
 	}
 
@@ -179,8 +419,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void d(String tag, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.DEBUG)) {
-			android.util.Log.d(tag, msg, tr);
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, msg, tr);
 		}
 	}
 
@@ -194,8 +434,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void d(Object object, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.DEBUG)) {
-			android.util.Log.d(object.getClass().getSimpleName(), msg, tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.DEBUG)) {
+			println(DEBUG, object.getClass().getSimpleName(), msg, tr);
 		}
 	}
 
@@ -206,8 +446,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void e(String tag, String msg) {
-		if (isInternalLoggable(android.util.Log.ERROR)) {
-			android.util.Log.e(tag, msg);
+		if (isInternalLoggable(tag, android.util.Log.ERROR)) {
+			println(ERROR, tag, msg, null);
 		}
 	}
 
@@ -220,8 +460,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void e(Object object, String msg) {
-		if (isInternalLoggable(android.util.Log.ERROR)) {
-			android.util.Log.e(object.getClass().getSimpleName(), msg);
+		if (isInternalLoggable(object.getClass(), android.util.Log.ERROR)) {
+			println(ERROR, object.getClass().getSimpleName(), msg, null);
 		}
 	}
 
@@ -234,8 +474,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void e(String tag, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.ERROR)) {
-			android.util.Log.e(tag, msg, tr);
+		if (isInternalLoggable(tag, android.util.Log.ERROR)) {
+			println(ERROR, tag, msg, tr);
 		}
 	}
 
@@ -249,8 +489,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void e(Object object, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.ERROR)) {
-			android.util.Log.e(object.getClass().getSimpleName(), msg, tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.ERROR)) {
+			println(ERROR, object.getClass().getSimpleName(), msg, tr);
 		}
 	}
 
@@ -261,8 +501,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void i(String tag, String msg) {
-		if (isInternalLoggable(android.util.Log.INFO)) {
-			android.util.Log.i(tag, msg);
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, msg, null);
 		}
 	}
 
@@ -275,8 +515,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void i(Object object, String msg) {
-		if (isInternalLoggable(android.util.Log.INFO)) {
-			android.util.Log.i(object.getClass().getSimpleName(), msg);
+		if (isInternalLoggable(object.getClass(), android.util.Log.INFO)) {
+			println(INFO, object.getClass().getSimpleName(), msg, null);
 		}
 	}
 
@@ -289,8 +529,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void i(String tag, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.INFO)) {
-			android.util.Log.i(tag, msg, tr);
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, msg, tr);
 		}
 	}
 
@@ -304,8 +544,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void i(Object object, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.INFO)) {
-			android.util.Log.i(object.getClass().getSimpleName(), msg, tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.INFO)) {
+			println(INFO, object.getClass().getSimpleName(), msg, tr);
 		}
 	}
 
@@ -316,8 +556,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void v(String tag, String msg) {
-		if (isInternalLoggable(android.util.Log.VERBOSE)) {
-			android.util.Log.v(tag, msg);
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, msg, null);
 		}
 	}
 
@@ -330,8 +570,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void v(Object object, String msg) {
-		if (isInternalLoggable(android.util.Log.VERBOSE)) {
-			android.util.Log.v(object.getClass().getSimpleName(), msg);
+		if (isInternalLoggable(object.getClass(), android.util.Log.VERBOSE)) {
+			println(VERBOSE, object.getClass().getSimpleName(), msg, null);
 		}
 	}
 
@@ -344,8 +584,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void v(String tag, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.VERBOSE)) {
-			android.util.Log.v(tag, msg, tr);
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, msg, tr);
 		}
 	}
 
@@ -359,8 +599,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void v(Object object, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.VERBOSE)) {
-			android.util.Log.v(object.getClass().getSimpleName(), msg, tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.VERBOSE)) {
+			println(VERBOSE, object.getClass().getSimpleName(), msg, tr);
 		}
 	}
 
@@ -371,8 +611,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void w(String tag, String msg) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(tag, msg);
+		if (isInternalLoggable(tag, android.util.Log.WARN)) {
+			println(WARN, tag, msg, null);
 		}
 	}
 
@@ -385,8 +625,8 @@ public class Log {
 	 * @param msg The message for logging.
 	 */
 	public static void w(Object object, String msg) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(object.getClass().getSimpleName(), msg);
+		if (isInternalLoggable(object.getClass(), android.util.Log.WARN)) {
+			println(WARN, object.getClass().getSimpleName(), msg, null);
 		}
 	}
 
@@ -397,8 +637,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void w(String tag, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(tag, tr);
+		if (isInternalLoggable(tag, android.util.Log.WARN)) {
+			println(WARN, tag, null, tr);
 		}
 	}
 
@@ -411,8 +651,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void w(Object object, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(object.getClass().getSimpleName(), tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.WARN)) {
+			println(WARN, object.getClass().getSimpleName(), null, tr);
 		}
 	}
 
@@ -425,8 +665,8 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void w(String tag, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(tag, msg, tr);
+		if (isInternalLoggable(tag, android.util.Log.WARN)) {
+			println(WARN, tag, msg, tr);
 		}
 	}
 
@@ -440,8 +680,257 @@ public class Log {
 	 * @param tr The throwable for displaying the stack trace in the log.
 	 */
 	public static void w(Object object, String msg, Throwable tr) {
-		if (isInternalLoggable(android.util.Log.WARN)) {
-			android.util.Log.w(object.getClass().getSimpleName(), msg, tr);
+		if (isInternalLoggable(object.getClass(), android.util.Log.WARN)) {
+			println(WARN, object.getClass().getSimpleName(), msg, tr);
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                             LAZY LOG METHODS                                               //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Builds a log message only when the log level is enabled. Implement it in a field or in an object that already
+	 * exists, so that there is no allocation when the level is suppressed.
+	 */
+	public interface MessageBuilder {
+		String buildMessage();
+	}
+
+	/**
+	 * Lazy version of d(String tag, String msg). The message is only formatted with String.format() if the debug
+	 * level is enabled, so the arguments' toString() is not invoked when the level is suppressed. There are fixed-arity
+	 * overloads up to four arguments to avoid the varargs array allocation. Note that a single Throwable argument
+	 * selects d(String tag, String msg, Throwable tr) instead.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void d(String tag, String format, Object arg1) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1, arg2, arg3), null);
+		}
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1, arg2, arg3, arg4), null);
+		}
+	}
+
+	/**
+	 * Primitive versions of the lazy d() methods, so that the int and long arguments (e.g. counts and sizes) are only
+	 * boxed if the debug level is enabled. The arguments are formatted as Long, so use %d.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void d(String tag, String format, long arg1) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void d(String tag, String format, long arg1, long arg2) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	/**
+	 * Lazy version of d(String tag, String msg). The MessageBuilder is only invoked if the debug level is enabled.
+	 *
+	 * @param tag The log tag.
+	 * @param messageBuilder Builds the message for logging.
+	 */
+	public static void d(String tag, MessageBuilder messageBuilder) {
+		if (isInternalLoggable(tag, android.util.Log.DEBUG)) {
+			println(DEBUG, tag, messageBuilder.buildMessage(), null);
+		}
+	}
+
+	/**
+	 * Lazy version of i(String tag, String msg). The message is only formatted with String.format() if the info
+	 * level is enabled, so the arguments' toString() is not invoked when the level is suppressed. There are fixed-arity
+	 * overloads up to four arguments to avoid the varargs array allocation. Note that a single Throwable argument
+	 * selects i(String tag, String msg, Throwable tr) instead.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void i(String tag, String format, Object arg1) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void i(String tag, String format, Object arg1, Object arg2) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	public static void i(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1, arg2, arg3), null);
+		}
+	}
+
+	public static void i(String tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1, arg2, arg3, arg4), null);
+		}
+	}
+
+	/**
+	 * Primitive versions of the lazy i() methods, so that the int and long arguments (e.g. counts and sizes) are only
+	 * boxed if the info level is enabled. The arguments are formatted as Long, so use %d.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void i(String tag, String format, long arg1) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void i(String tag, String format, long arg1, long arg2) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	/**
+	 * Lazy version of i(String tag, String msg). The MessageBuilder is only invoked if the info level is enabled.
+	 *
+	 * @param tag The log tag.
+	 * @param messageBuilder Builds the message for logging.
+	 */
+	public static void i(String tag, MessageBuilder messageBuilder) {
+		if (isInternalLoggable(tag, android.util.Log.INFO)) {
+			println(INFO, tag, messageBuilder.buildMessage(), null);
+		}
+	}
+
+	/**
+	 * Lazy version of v(String tag, String msg). The message is only formatted with String.format() if the verbose
+	 * level is enabled, so the arguments' toString() is not invoked when the level is suppressed. There are fixed-arity
+	 * overloads up to four arguments to avoid the varargs array allocation. Note that a single Throwable argument
+	 * selects v(String tag, String msg, Throwable tr) instead.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void v(String tag, String format, Object arg1) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, Object arg2) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1, arg2, arg3), null);
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1, arg2, arg3, arg4), null);
+		}
+	}
+
+	/**
+	 * Primitive versions of the lazy v() methods, so that the int and long arguments (e.g. counts and sizes) are only
+	 * boxed if the verbose level is enabled. The arguments are formatted as Long, so use %d.
+	 *
+	 * @param tag The log tag.
+	 * @param format The format string, as in String.format().
+	 * @param arg1 The format argument.
+	 */
+	public static void v(String tag, String format, long arg1) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1), null);
+		}
+	}
+
+	public static void v(String tag, String format, long arg1, long arg2) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, format(format, arg1, arg2), null);
+		}
+	}
+
+	/**
+	 * Lazy version of v(String tag, String msg). The MessageBuilder is only invoked if the verbose level is enabled.
+	 *
+	 * @param tag The log tag.
+	 * @param messageBuilder Builds the message for logging.
+	 */
+	public static void v(String tag, MessageBuilder messageBuilder) {
+		if (isInternalLoggable(tag, android.util.Log.VERBOSE)) {
+			println(VERBOSE, tag, messageBuilder.buildMessage(), null);
+		}
+	}
+
+	/**
+	 * Writes a log record that passed the log level check to the logcat and to the sink. The logcat output is the same
+	 * as the one of the android.util.Log methods with the Throwable parameter.
+	 *
+	 * @param level The log level.
+	 * @param tag The log tag.
+	 * @param msg The message for logging. May be NULL if there is a Throwable.
+	 * @param tr The throwable for displaying the stack trace in the log. May be NULL.
+	 */
+	private static void println(int level, String tag, String msg, Throwable tr) {
+		if (tr == null) {
+			android.util.Log.println(level, tag, msg);
+		} else if (msg == null) {
+			android.util.Log.println(level, tag, android.util.Log.getStackTraceString(tr));
+		} else {
+			android.util.Log.println(level, tag, msg + '\n' + android.util.Log.getStackTraceString(tr));
+		}
+
+		LogSink currentSink = sink;
+		if (currentSink != null) {
+			currentSink.write(level, tag, msg, tr);
+		}
+	}
+
+	/**
+	 * Formats the message for the lazy log methods. Only invoked after the log level check.
+	 *
+	 * @param format The format string.
+	 * @param args The format arguments.
+	 * @return The formatted message, or the format string followed by the arguments if the format is invalid.
+	 */
+	private static String format(String format, Object... args) {
+		try {
+			return String.format(format, args);
+		} catch (IllegalFormatException e) {
+			return format + " " + Arrays.toString(args);
 		}
 	}
 
@@ -0,0 +1,27 @@
+package pt.sapo.mobile.android.connect.system;
+
+/**
+ * Destination for the log records, in addition to the Android logcat. A sink is registered with Log.setSink() or
+ * through the Log.configFromContext() resources.
+ *
+ * The write() method is invoked in the thread that is logging, which may be the UI thread or a network thread, so
+ * implementations must never block.
+ */
+public interface LogSink {
+
+	/**
+	 * Receives a log record that passed the log level check.
+	 *
+	 * @param level The log level (e.g. Log.DEBUG).
+	 * @param tag The log tag.
+	 * @param msg The message. May be NULL.
+	 * @param tr The Throwable logged with the message. May be NULL.
+	 */
+	void write(int level, String tag, String msg, Throwable tr);
+
+	/**
+	 * Stops the sink, writing any pending records if possible. The records written after close() are discarded.
+	 */
+	void close();
+
+}
@@ -0,0 +1,319 @@
+package pt.sapo.mobile.android.connect.system;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LogSink that keeps the records in a bounded, lock-free ring buffer and writes them to a file in batches, on a single
+ * background thread. The logging threads only claim a slot with a compare-and-set, so they never block: when the
+ * buffer is full, the record is dropped and counted in getDroppedRecords().
+ *
+ * The file is rotated when it reaches the maximum size: 'name' is renamed to 'name.1', 'name.1' to 'name.2', and so on,
+ * keeping at most 'maxFiles' files.
+ *
+ * Simple usage:
+ *   Log.setSink(new RingBufferLogSink(new File(context.getDir("logs", Context.MODE_PRIVATE), "sapo_connect.log"), 1024, 256 * 1024, 3));
+ */
+public class RingBufferLogSink implements LogSink {
+
+	/**
+	 * The Log tag for this class. Its own errors only go to the logcat, to avoid recursion.
+	 */
+	private static final String TAG = "RingBufferLogSink";
+
+	/**
+	 * Maximum time the writer waits before writing the pending records.
+	 */
+	private static final long FLUSH_INTERVAL_NANOS = 1000L * 1000L * 1000L;
+
+	/**
+	 * Level letters, indexed by the log level, as in the logcat output.
+	 */
+	private static final char[] LEVEL_LETTERS = {'V', 'V', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+	/**
+	 * The ring buffer slots. A NULL slot is free, or claimed but not yet published.
+	 */
+	private final AtomicReferenceArray<Record> slots;
+
+	/**
+	 * Capacity - 1, for the slot index. The capacity is a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * Sequence of the next slot to claim by the logging threads.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Sequence of the next slot to read by the writer. Only changed by the writer thread.
+	 */
+	private volatile long head;
+
+	/**
+	 * Number of records dropped because the buffer was full.
+	 */
+	private final AtomicLong droppedRecords = new AtomicLong();
+
+	/**
+	 * Number of records dropped, as already reported in the file.
+	 */
+	private long reportedDroppedRecords;
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxFiles;
+
+	private final Thread writerThread;
+	private volatile boolean closed;
+
+	private Writer writer;
+	private long fileSize;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+
+
+	/**
+	 * Constructor. Starts the writer thread.
+	 *
+	 * @param file The log file.
+	 * @param capacity The maximum number of pending records. Rounded up to a power of two.
+	 * @param maxFileSize The size, in bytes, at which the file is rotated.
+	 * @param maxFiles The maximum number of files kept, including the current one.
+	 */
+	public RingBufferLogSink(File file, int capacity, long maxFileSize, int maxFiles) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<Record>(size);
+		this.mask = size - 1;
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = Math.max(maxFiles, 1);
+
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "SAPOConnect-LogWriter");
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.start();
+	}
+
+	@Override
+	public void write(int level, String tag, String msg, Throwable tr) {
+		if (closed) {
+			return;
+		}
+
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				droppedRecords.incrementAndGet();
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		slots.set((int) sequence & mask, new Record(System.currentTimeMillis(), level, tag, msg, tr));
+
+		// Wakes the writer early when the buffer is half full. unpark() never blocks.
+		if (sequence - head == (mask + 1) / 2) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * @return The number of records dropped because the buffer was full.
+	 */
+	public long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+
+	/**
+	 * The writer thread loop. Drains the buffer in batches, flushing the file once per batch.
+	 */
+	private void writeLoop() {
+		try {
+			while (!closed) {
+				LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+				drain();
+			}
+			drain();
+		} finally {
+			closeWriter();
+		}
+	}
+
+	/**
+	 * Writes all the published records to the file. Stops at the first claimed slot that is not published yet.
+	 */
+	private void drain() {
+		long sequence = head;
+		boolean written = false;
+		Record record;
+
+		while ((record = slots.get((int) sequence & mask)) != null) {
+			slots.set((int) sequence & mask, null);
+			sequence++;
+			head = sequence;
+			written |= writeRecord(record);
+		}
+
+		long dropped = droppedRecords.get();
+		if (dropped != reportedDroppedRecords) {
+			written |= writeLine("--- " + (dropped - reportedDroppedRecords) + " log records dropped ---\n");
+			reportedDroppedRecords = dropped;
+		}
+
+		// A failed write closes the writer, even after the earlier records of the batch were written.
+		if (written && writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				android.util.Log.w(TAG, "drain() - Unable to flush the log file.", e);
+				closeWriter();
+			}
+		}
+	}
+
+	private boolean writeRecord(Record record) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(dateFormat.format(new Date(record.time)));
+		sb.append(' ').append(LEVEL_LETTERS[Math.min(record.level, LEVEL_LETTERS.length - 1)]);
+		sb.append('/').append(record.tag).append(": ");
+		if (record.msg != null) {
+			sb.append(record.msg);
+		}
+		if (record.tr != null) {
+			sb.append('\n').append(android.util.Log.getStackTraceString(record.tr));
+		}
+		sb.append('\n');
+		return writeLine(sb.toString());
+	}
+
+	/**
+	 * Writes a line to the file, rotating it first if it is full.
+	 *
+	 * @param line The line to write.
+	 * @return True if the line was written.
+	 */
+	private boolean writeLine(String line) {
+		try {
+			if (writer == null || fileSize >= maxFileSize) {
+				rotate();
+			}
+			writer.write(line);
+			fileSize += utf8Length(line);
+			return true;
+		} catch (IOException e) {
+			android.util.Log.w(TAG, "writeLine() - Unable to write to the log file.", e);
+			closeWriter();
+			return false;
+		}
+	}
+
+	/**
+	 * Opens the file for appending. If it is full, renames the existing files first, discarding the oldest one.
+	 *
+	 * @throws IOException If the file could not be opened.
+	 */
+	private void rotate() throws IOException {
+		closeWriter();
+		if (file.length() >= maxFileSize) {
+			new File(file.getPath() + "." + (maxFiles - 1)).delete();
+			for (int i = maxFiles - 2; i >= 1; i--) {
+				new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+			if (maxFiles > 1) {
+				file.renameTo(new File(file.getPath() + ".1"));
+			} else {
+				file.delete();
+			}
+		}
+		writer = openWriter();
+		fileSize = file.length();
+	}
+
+	/**
+	 * Opens the file for appending, in UTF-8. Package-private for the tests.
+	 *
+	 * @return The Writer for the file.
+	 * @throws IOException If the file could not be opened.
+	 */
+	Writer openWriter() throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"), 8192);
+	}
+
+	/**
+	 * @param line The line.
+	 * @return The size of the line in UTF-8, in bytes, without encoding it.
+	 */
+	private static int utf8Length(String line) {
+		int length = line.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = line.charAt(i);
+			if (c >= 0x800) {
+				bytes += 2;
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+					// 4 bytes for the pair, already counted as 2 chars.
+					i++;
+				}
+			} else if (c >= 0x80) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+
+	private void closeWriter() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				android.util.Log.w(TAG, "closeWriter() - IOException: ", e);
+			}
+			writer = null;
+		}
+	}
+
+	/**
+	 * A log record waiting to be written.
+	 */
+	private static class Record {
+
+		private final long time;
+		private final int level;
+		private final String tag;
+		private final String msg;
+		private final Throwable tr;
+
+		private Record(long time, int level, String tag, String msg, Throwable tr) {
+			this.time = time;
+			this.level = level;
+			this.tag = tag;
+			this.msg = msg;
+			this.tr = tr;
+		}
+	}
+
+}
@@ -9,19 +9,21 @@ package pt.sapo.mobile.android.connect.system;
  */
 public class VersionCodes {
 	
-	public static final int CUR_DEVELOPMENT = 10000;
-	public static final int BASE            = 1;
-	public static final int BASE_1_1        = 2;
-	public static final int CUPCAKE         = 3;
-	public static final int DONUT           = 4;
-	public static final int ECLAIR          = 5;
-	public static final int ECLAIR_0_1      = 6;
-	public static final int ECLAIR_MR1      = 7;
-	public static final int FROYO           = 8;
-	public static final int GINGERBREAD     = 9;
-	public static final int GINGERBREAD_MR1 = 10;
-	public static final int HONEYCOMB       = 11;
-	public static final int HONEYCOMB_MR1   = 12;
+	public static final int CUR_DEVELOPMENT    = 10000;
+	public static final int BASE               = 1;
+	public static final int BASE_1_1           = 2;
+	public static final int CUPCAKE            = 3;
+	public static final int DONUT              = 4;
+	public static final int ECLAIR             = 5;
+	public static final int ECLAIR_0_1         = 6;
+	public static final int ECLAIR_MR1         = 7;
+	public static final int FROYO              = 8;
+	public static final int GINGERBREAD        = 9;
+	public static final int GINGERBREAD_MR1    = 10;
+	public static final int HONEYCOMB          = 11;
+	public static final int HONEYCOMB_MR1      = 12;
+	public static final int HONEYCOMB_MR2      = 13;
+	public static final int ICE_CREAM_SANDWICH = 14;
 	
 	/**
 	 * Warning: Do not use SDK_INT because it is only available on API Level 4.
@@ -0,0 +1,803 @@
+package pt.sapo.mobile.android.connect.system.sharedpreference;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+import pt.sapo.mobile.android.connect.system.Log;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * SharedPreferences implementation backed by an append-only binary log in a memory-mapped file, instead of the XML file
+ * that the platform fully parses on the first access and fully rewrites on every change.
+ *
+ * Every commit() or apply() appends a single record with all the changes of the Editor, so a write costs the size of the
+ * changes and not the size of the file. Each record is protected by a CRC32 checksum, and its length is written last: a
+ * record torn by a crash is discarded as a whole when the log is replayed. When the log fills the mapped region or has
+ * too many stale entries, it is compacted into a new file with a single snapshot record, which then atomically replaces
+ * the old file.
+ *
+ * The values are kept in memory after the log is replayed, so the reads never touch the disk. commit() forces the mapped
+ * pages to the storage before returning; apply() leaves it to the kernel, which keeps the pages if the process dies.
+ *
+ * Note that the files are not covered by the SharedPreferencesBackupHelper, so they are not backed up to the cloud.
+ *
+ * Not to be used directly. Select it for a SharedPreferences file with SharedPreferencesOperations.setStorage().
+ */
+public class MappedSharedPreferences implements SharedPreferences {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "MappedSharedPreferences";
+
+	/**
+	 * Directory, inside the application data directory, with the mapped files.
+	 */
+	private static final String DIRECTORY_NAME = "mapped_prefs";
+
+	/**
+	 * Magic number at the start of the file ("SPKV").
+	 */
+	private static final int MAGIC = 0x53504B56;
+
+	/**
+	 * Version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * File header: the magic number and the version.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Record header: the payload length and the payload CRC32.
+	 */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * Initial size of the mapped region. The credential files are expected to stay in this size.
+	 */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/**
+	 * Number of stale entries in the log (overwritten or removed keys) that triggers a compaction.
+	 */
+	private static final int COMPACTION_STALE_ENTRIES = 128;
+
+	/**
+	 * Entry operations.
+	 */
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+	private static final byte OP_CLEAR = 3;
+
+	/**
+	 * Value types.
+	 */
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_LONG = 3;
+	private static final byte TYPE_FLOAT = 4;
+	private static final byte TYPE_BOOLEAN = 5;
+	private static final byte TYPE_STRING_SET = 6;
+
+	/**
+	 * Marker for the keys removed in an Editor.
+	 */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * One instance per file, since two instances appending to the same file would corrupt it.
+	 */
+	private static final HashMap<String, MappedSharedPreferences> instances = new HashMap<String, MappedSharedPreferences>();
+
+	/**
+	 * The log file.
+	 */
+	private final File file;
+
+	/**
+	 * The current values, as replayed from the log. Guarded by 'this'.
+	 */
+	private final HashMap<String, Object> values = new HashMap<String, Object>();
+
+	/**
+	 * The registered listeners. Weak keys, as in the platform implementation.
+	 */
+	private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+
+	/**
+	 * Handler for delivering the change notifications in the main thread.
+	 */
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+
+	/**
+	 * The mapped log. NULL if the file could not be opened, in which case the values are only kept in memory, or if
+	 * the last compaction failed.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * True after a failed compaction. The log is then rewritten from the values in memory on the next append, so that
+	 * the changes made in the meantime are not lost.
+	 */
+	private boolean rewritePending;
+
+	/**
+	 * Position where the next record is appended.
+	 */
+	private int writePosition;
+
+	/**
+	 * Number of entries in the log.
+	 */
+	private int logEntries;
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                    CONSTRUCTOR AND INSTANCE GETTERS                                        //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Constructor. Package-private for the tests, use getInstance() instead.
+	 *
+	 * @param file The log file.
+	 */
+	MappedSharedPreferences(File file) {
+		this.file = file;
+		load();
+	}
+
+	/**
+	 * Get the instance for the file. On the first access, the existing values in the XML SharedPreferences file with
+	 * the same name are moved to the new file.
+	 *
+	 * @param context The caller Context.
+	 * @param name The name of the SharedPreferences file.
+	 * @return The instance of MappedSharedPreferences.
+	 */
+	public static synchronized MappedSharedPreferences getInstance(Context context, String name) {
+		MappedSharedPreferences instance = instances.get(name);
+		if (instance == null) {
+			File file = new File(context.getDir(DIRECTORY_NAME, Context.MODE_PRIVATE), name + ".kv");
+			boolean newFile = !file.exists();
+			instance = new MappedSharedPreferences(file);
+			if (newFile) {
+				instance.importFrom(context.getSharedPreferences(name, Context.MODE_PRIVATE));
+			}
+			instances.put(name, instance);
+		}
+		return instance;
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                          RETRIEVAL OPERATIONS                                              //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<String, Object>(values);
+	}
+
+	@Override
+	public synchronized String getString(String key, String defValue) {
+		String value = (String) values.get(key);
+		return (value != null) ? value : defValue;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+		Set<String> value = (Set<String>) values.get(key);
+		return (value != null) ? value : defValues;
+	}
+
+	@Override
+	public synchronized int getInt(String key, int defValue) {
+		Integer value = (Integer) values.get(key);
+		return (value != null) ? value : defValue;
+	}
+
+	@Override
+	public synchronized long getLong(String key, long defValue) {
+		Long value = (Long) values.get(key);
+		return (value != null) ? value : defValue;
+	}
+
+	@Override
+	public synchronized float getFloat(String key, float defValue) {
+		Float value = (Float) values.get(key);
+		return (value != null) ? value : defValue;
+	}
+
+	@Override
+	public synchronized boolean getBoolean(String key, boolean defValue) {
+		Boolean value = (Boolean) values.get(key);
+		return (value != null) ? value : defValue;
+	}
+
+	@Override
+	public synchronized boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Editor edit() {
+		return new MappedEditor();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		synchronized (listeners) {
+			listeners.put(listener, REMOVED);
+		}
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		synchronized (listeners) {
+			listeners.remove(listener);
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                 EDITOR                                                     //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Editor that collects the changes and writes them as a single log record.
+	 */
+	public final class MappedEditor implements Editor {
+
+		private final HashMap<String, Object> modifications = new HashMap<String, Object>();
+		private boolean clear;
+
+		private MappedEditor() {}
+
+		@Override
+		public Editor putString(String key, String value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putStringSet(String key, Set<String> values) {
+			return put(key, (values == null) ? null : new HashSet<String>(values));
+		}
+
+		@Override
+		public Editor putInt(String key, int value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putLong(String key, long value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putFloat(String key, float value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putBoolean(String key, boolean value) {
+			return put(key, value);
+		}
+
+		@Override
+		public synchronized Editor remove(String key) {
+			modifications.put(key, REMOVED);
+			return this;
+		}
+
+		@Override
+		public synchronized Editor clear() {
+			clear = true;
+			return this;
+		}
+
+		@Override
+		public boolean commit() {
+			return commitToLog(this, true);
+		}
+
+		@Override
+		public void apply() {
+			commitToLog(this, false);
+		}
+
+		/**
+		 * Puts a value of any of the supported types. A NULL value removes the key, as in the platform implementation.
+		 */
+		private synchronized Editor put(String key, Object value) {
+			modifications.put(key, (value == null) ? REMOVED : value);
+			return this;
+		}
+	}
+
+	/**
+	 * Appends the changes of the Editor to the log, applies them to the values in memory and notifies the listeners.
+	 *
+	 * @param editor The Editor with the changes.
+	 * @param force True to force the record to the storage before returning.
+	 * @return True if the record was written to the log.
+	 */
+	private boolean commitToLog(MappedEditor editor, boolean force) {
+		List<String> changedKeys = new ArrayList<String>();
+		boolean written = true;
+
+		synchronized (editor) {
+			synchronized (this) {
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(payload);
+				int entries = 0;
+				try {
+					if (editor.clear) {
+						out.writeByte(OP_CLEAR);
+						entries++;
+					}
+					for (Map.Entry<String, Object> modification: editor.modifications.entrySet()) {
+						String key = modification.getKey();
+						Object value = modification.getValue();
+						boolean present = !editor.clear && values.containsKey(key);
+						if (value == REMOVED) {
+							if (present) {
+								writeRemove(out, key);
+								changedKeys.add(key);
+								entries++;
+							}
+						} else if (!present || !value.equals(values.get(key))) {
+							writePut(out, key, value);
+							changedKeys.add(key);
+							entries++;
+						}
+					}
+				} catch (IOException e) {
+					// Not expected when writing to memory.
+					Log.e(TAG, "commitToLog() - IOException: ", e);
+					return false;
+				}
+
+				if (entries == 0) {
+					return true;
+				}
+
+				written = append(payload.toByteArray(), entries, force);
+
+				// Even if the record could not be written, the values in memory are changed, as in the platform implementation.
+				if (editor.clear) {
+					values.clear();
+				}
+				for (String key: changedKeys) {
+					Object value = editor.modifications.get(key);
+					if (value == REMOVED) {
+						values.remove(key);
+					} else {
+						values.put(key, value);
+					}
+				}
+
+				editor.clear = false;
+				editor.modifications.clear();
+			}
+		}
+
+		notifyListeners(changedKeys);
+		return written;
+	}
+
+	/**
+	 * Notifies the registered listeners in the main thread.
+	 *
+	 * @param changedKeys The keys that were changed.
+	 */
+	private void notifyListeners(final List<String> changedKeys) {
+		final List<OnSharedPreferenceChangeListener> listenersCopy;
+		synchronized (listeners) {
+			if (changedKeys.isEmpty() || listeners.isEmpty()) {
+				return;
+			}
+			listenersCopy = new ArrayList<OnSharedPreferenceChangeListener>(listeners.keySet());
+		}
+
+		Runnable notification = new Runnable() {
+			public void run() {
+				for (String key: changedKeys) {
+					for (OnSharedPreferenceChangeListener listener: listenersCopy) {
+						listener.onSharedPreferenceChanged(MappedSharedPreferences.this, key);
+					}
+				}
+			}
+		};
+
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			notification.run();
+		} else {
+			mainHandler.post(notification);
+		}
+	}
+
+	/**
+	 * Copies all the values of another SharedPreferences into this file, and clears the other SharedPreferences.
+	 *
+	 * @param sharedPreferences The SharedPreferences to import.
+	 */
+	private void importFrom(SharedPreferences sharedPreferences) {
+		Map<String, ?> all = sharedPreferences.getAll();
+		if (all.isEmpty()) {
+			return;
+		}
+
+		MappedEditor editor = new MappedEditor();
+		for (Map.Entry<String, ?> entry: all.entrySet()) {
+			editor.put(entry.getKey(), entry.getValue());
+		}
+		if (editor.commit()) {
+			sharedPreferences.edit().clear().commit();
+			Log.d(TAG, "importFrom() - Imported " + all.size() + " values into " + file.getName());
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                              LOG OPERATIONS                                                //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Maps the file and replays the log. If the file is new or unreadable, starts an empty log.
+	 */
+	private synchronized void load() {
+		try {
+			open(INITIAL_CAPACITY);
+			if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+				replay();
+			} else {
+				if (buffer.getInt(0) != 0) {
+					Log.w(TAG, "load() - Invalid header in " + file.getName() + ". Starting an empty log.");
+				}
+				clearMappedRegion(0);
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				writePosition = HEADER_SIZE;
+				logEntries = 0;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "load() - Unable to map " + file.getName() + ". The values will only be kept in memory.", e);
+			close();
+		}
+	}
+
+	/**
+	 * Opens and maps the file, with at least the requested capacity.
+	 *
+	 * @param minimumCapacity The minimum size of the mapped region.
+	 * @throws IOException If the file could not be opened or mapped.
+	 */
+	private void open(int minimumCapacity) throws IOException {
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		int capacity = (int) Math.max(minimumCapacity, randomAccessFile.length());
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Closes the file. The mapped region is released when it is garbage collected.
+	 */
+	private void close() {
+		buffer = null;
+		try {
+			if (randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "close() - IOException: ", e);
+		}
+		randomAccessFile = null;
+		channel = null;
+	}
+
+	/**
+	 * Replays the records of the log into the values map. Stops at the first empty, torn or corrupted record, and clears
+	 * the rest of the mapped region so that the next record is appended on a clean area.
+	 */
+	private void replay() {
+		int position = HEADER_SIZE;
+		int capacity = buffer.capacity();
+
+		while (position + RECORD_HEADER_SIZE <= capacity) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+				break;
+			}
+
+			byte[] payload = new byte[length];
+			buffer.position(position + RECORD_HEADER_SIZE);
+			buffer.get(payload);
+			if (checksum(payload) != buffer.getInt(position + 4)) {
+				Log.w(TAG, "replay() - Discarding a corrupted record at position " + position + " of " + file.getName());
+				break;
+			}
+
+			try {
+				logEntries += readRecord(payload);
+			} catch (IOException e) {
+				Log.w(TAG, "replay() - Discarding an unreadable record at position " + position + " of " + file.getName());
+				break;
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+
+		writePosition = position;
+		clearMappedRegion(position);
+	}
+
+	/**
+	 * Decodes a record and applies it to the values map. The record is decoded before being applied, so that an
+	 * unreadable record is not partially applied.
+	 *
+	 * @param payload The record payload.
+	 * @return The number of entries in the record.
+	 * @throws IOException If the record is unreadable.
+	 */
+	private int readRecord(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int entries = in.readInt();
+		boolean clear = false;
+		HashMap<String, Object> modifications = new HashMap<String, Object>();
+
+		for (int i = 0; i < entries; i++) {
+			byte op = in.readByte();
+			if (op == OP_CLEAR) {
+				clear = true;
+				modifications.clear();
+			} else if (op == OP_REMOVE) {
+				modifications.put(in.readUTF(), REMOVED);
+			} else if (op == OP_PUT) {
+				String key = in.readUTF();
+				modifications.put(key, readValue(in));
+			} else {
+				throw new IOException("Unknown operation " + op);
+			}
+		}
+
+		if (clear) {
+			values.clear();
+		}
+		for (Map.Entry<String, Object> modification: modifications.entrySet()) {
+			if (modification.getValue() == REMOVED) {
+				values.remove(modification.getKey());
+			} else {
+				values.put(modification.getKey(), modification.getValue());
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Appends a record to the log, compacting or growing the mapped region if it is needed. After a failed compaction,
+	 * the log is compacted again before the record is appended.
+	 *
+	 * @param entriesPayload The encoded entries.
+	 * @param entries The number of entries.
+	 * @param force True to force the record to the storage.
+	 * @return True if the record was written.
+	 */
+	private boolean append(byte[] entriesPayload, int entries, boolean force) {
+		if (buffer == null && !rewritePending) {
+			return false;
+		}
+
+		byte[] payload = new byte[4 + entriesPayload.length];
+		payload[0] = (byte) (entries >>> 24);
+		payload[1] = (byte) (entries >>> 16);
+		payload[2] = (byte) (entries >>> 8);
+		payload[3] = (byte) entries;
+		System.arraycopy(entriesPayload, 0, payload, 4, entriesPayload.length);
+		int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+		try {
+			if (rewritePending || writePosition + recordSize > buffer.capacity() || logEntries - values.size() >= COMPACTION_STALE_ENTRIES) {
+				// The record is appended to the compacted log, which already reflects the current values.
+				compact(recordSize);
+				rewritePending = false;
+			}
+		} catch (IOException e) {
+			// The values in memory are still changed, and are written with the next record.
+			Log.e(TAG, "append() - Unable to compact " + file.getName() + ". Retrying with the next record.", e);
+			close();
+			rewritePending = true;
+			return false;
+		}
+
+		// The length is written last, so a record torn by a crash has length 0 and is ignored on replay.
+		buffer.position(writePosition + RECORD_HEADER_SIZE);
+		buffer.put(payload);
+		buffer.putInt(writePosition + 4, checksum(payload));
+		buffer.putInt(writePosition, payload.length);
+		writePosition += recordSize;
+		logEntries += entries;
+
+		if (force) {
+			buffer.force();
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the log with a single snapshot record of the current values, leaving room for the next record. The new
+	 * log is written to a temporary file, which then replaces the old one with an atomic rename.
+	 *
+	 * @param reservedSize Room needed after the snapshot, in bytes.
+	 * @throws IOException If the new log could not be written.
+	 */
+	private void compact(int reservedSize) throws IOException {
+		ByteArrayOutputStream entriesPayload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(entriesPayload);
+		out.writeInt(values.size());
+		for (Map.Entry<String, Object> entry: values.entrySet()) {
+			writePut(out, entry.getKey(), entry.getValue());
+		}
+		byte[] payload = entriesPayload.toByteArray();
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream fileOut = new DataOutputStream(fileOutputStream);
+			fileOut.writeInt(MAGIC);
+			fileOut.writeInt(VERSION);
+			if (!values.isEmpty()) {
+				fileOut.writeInt(payload.length);
+				fileOut.writeInt(checksum(payload));
+				fileOut.write(payload);
+			}
+			fileOut.flush();
+			fileOutputStream.getFD().sync();
+		} finally {
+			fileOutputStream.close();
+		}
+
+		close();
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("Unable to rename " + tempFile.getName());
+		}
+
+		int snapshotSize = values.isEmpty() ? 0 : RECORD_HEADER_SIZE + payload.length;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < (HEADER_SIZE + snapshotSize + reservedSize) * 2) {
+			capacity *= 2;
+		}
+		open(capacity);
+		writePosition = HEADER_SIZE + snapshotSize;
+		logEntries = values.size();
+		Log.d(TAG, "compact() - Compacted " + file.getName() + " to " + writePosition + " bytes. Capacity: " + capacity);
+	}
+
+	/**
+	 * Clears the mapped region from the position to the end.
+	 */
+	private void clearMappedRegion(int position) {
+		int capacity = buffer.capacity();
+		for (int i = position; i < capacity; i++) {
+			if (buffer.get(i) != 0) {
+				buffer.put(i, (byte) 0);
+			}
+		}
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(payload);
+		return (int) crc32.getValue();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                             ENCODING METHODS                                               //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	private static void writeRemove(DataOutputStream out, String key) throws IOException {
+		out.writeByte(OP_REMOVE);
+		out.writeUTF(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writePut(DataOutputStream out, String key, Object value) throws IOException {
+		out.writeByte(OP_PUT);
+		out.writeUTF(key);
+		if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Set) {
+			Set<String> set = (Set<String>) value;
+			out.writeByte(TYPE_STRING_SET);
+			out.writeInt(set.size());
+			for (String item: set) {
+				writeString(out, item);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported value type for key " + key);
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_STRING:
+			return readString(in);
+		case TYPE_INT:
+			return in.readInt();
+		case TYPE_LONG:
+			return in.readLong();
+		case TYPE_FLOAT:
+			return in.readFloat();
+		case TYPE_BOOLEAN:
+			return in.readBoolean();
+		case TYPE_STRING_SET:
+			int size = in.readInt();
+			HashSet<String> set = new HashSet<String>();
+			for (int i = 0; i < size; i++) {
+				set.add(readString(in));
+			}
+			return set;
+		default:
+			throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	/**
+	 * Strings are written as length plus UTF-8 bytes, since writeUTF() is limited to 64KB.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
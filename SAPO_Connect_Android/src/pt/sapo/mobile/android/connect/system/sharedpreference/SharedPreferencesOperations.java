@@ -1,21 +1,49 @@
 package pt.sapo.mobile.android.connect.system.sharedpreference;
 
-import java.lang.ref.SoftReference;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import pt.sapo.mobile.android.connect.system.VersionCodes;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 /**
  * Abstract utility class for operations in the SharedPreferences. Each implementing class must implement methods
  * for retrieving and storing values according to the targeted platform.
  * 
+ * There is only one instance per SharedPreferences file name. The instances are created on the first getInstance()
+ * invocation and kept in a registry, so that the frequent lookups don't allocate a new SharedPreferences Editor (or a
+ * new BackupManager) each time. Reading from the registry is lock-free.
+ * 
+ * To store or remove several keys at once, use a Transaction. The changes are written with a single commit (or apply)
+ * and, if requested, a single BackupManager.dataChanged():
+ * 
+ * SharedPreferencesOperations.getInstance(context, "MyPrefs").beginTransaction()
+ *     .storeValue("token", token, false)
+ *     .removeKey("secret", false)
+ *     .commit();
+ * 
+ * By default, the values are stored in the platform XML SharedPreferences files. A file can be moved to the
+ * memory-mapped binary log of MappedSharedPreferences by calling setStorage() at application start:
+ * 
+ * SharedPreferencesOperations.setStorage("MyPrefs", SharedPreferencesOperations.Storage.MAPPED);
+ * 
  * @author Rui Roque
  */
 public abstract class SharedPreferencesOperations {
+	
+	/**
+	 * The available storage backends for a SharedPreferences file.
+	 */
+	public enum Storage {
+		/** The platform XML SharedPreferences file. */
+		XML,
+		/** The memory-mapped binary log of MappedSharedPreferences. */
+		MAPPED
+	}
 
 	/**
 	 * The application Context.
@@ -25,12 +53,22 @@ public abstract class SharedPreferencesOperations {
 	/**
 	 * The name of the SharedPreferences file. Can be NULL if using the application default SharedPreferences. 
 	 */
-	protected static String sharedPreferencesName;
+	protected final String sharedPreferencesName;
 	
 	/**
-	 * The SoftReference for an instance of this class to implement the Singleton pattern.
+	 * Registry key for the application default SharedPreferences, since the ConcurrentHashMap does not allow NULL keys.
 	 */
-	protected static SoftReference<SharedPreferencesOperations> instanceRef;
+	private static final String DEFAULT_SHARED_PREFERENCES_KEY = "";
+	
+	/**
+	 * The registry with one instance of this class per SharedPreferences file name.
+	 */
+	private static final ConcurrentHashMap<String, SharedPreferencesOperations> instances = new ConcurrentHashMap<String, SharedPreferencesOperations>();
+	
+	/**
+	 * The storage backend selected for each SharedPreferences file. The files not present use the XML storage.
+	 */
+	private static final ConcurrentHashMap<String, Storage> storages = new ConcurrentHashMap<String, Storage>();
 
 	/**
 	 * SharedPreferences referenced by 'sharedPreferencesName'.
@@ -48,13 +86,57 @@ public abstract class SharedPreferencesOperations {
 	// ---------------------------------------------------------------------------------------------------------- //
 	
 	public SharedPreferencesOperations(Context context, String mSharedPreferencesName) {
-		sharedPreferencesName = mSharedPreferencesName;
+		this.sharedPreferencesName = mSharedPreferencesName;
 		this.context = context.getApplicationContext();
 		this.sharedPreferences = getSharedPreferences();
         this.editor = sharedPreferences.edit();
 	}
 	
-	public synchronized static SharedPreferencesOperations getInstance(Context context, String sharedPreferencesName) {
+	/**
+	 * Get the instance for the SharedPreferences file, creating it on the first invocation for that file name.
+	 * 
+	 * @param context The caller Context.
+	 * @param sharedPreferencesName The name of the SharedPreferences file, or NULL for the application default SharedPreferences.
+	 * @return The instance of SharedPreferencesOperations for the targeted platform.
+	 */
+	public static SharedPreferencesOperations getInstance(Context context, String sharedPreferencesName) {
+		String key = (sharedPreferencesName == null) ? DEFAULT_SHARED_PREFERENCES_KEY : sharedPreferencesName;
+		SharedPreferencesOperations instance = instances.get(key);
+		if (instance != null) {
+			return instance;
+		}
+		
+		instance = newInstance(context, sharedPreferencesName);
+		SharedPreferencesOperations existingInstance = instances.putIfAbsent(key, instance);
+		return (existingInstance != null) ? existingInstance : instance;
+	}
+	
+	/**
+	 * Selects the storage backend for a SharedPreferences file. Must be called before the first getInstance() for the
+	 * file, usually in the Application onCreate(). When the MAPPED storage is selected for a file that already has
+	 * values in the XML storage, the values are moved on the first access.
+	 * 
+	 * @param sharedPreferencesName The name of the SharedPreferences file. The default SharedPreferences are not supported.
+	 * @param storage The storage backend.
+	 */
+	public static void setStorage(String sharedPreferencesName, Storage storage) {
+		if (TextUtils.isEmpty(sharedPreferencesName)) {
+			throw new IllegalArgumentException("SharedPreferencesName must not be empty or null");
+		}
+		if (storages.put(sharedPreferencesName, storage) != storage) {
+			// Any instance created with the previous storage is discarded.
+			instances.remove(sharedPreferencesName);
+		}
+	}
+	
+	/**
+	 * Creates a new instance of the implementation for the current platform.
+	 * 
+	 * @param context The caller Context.
+	 * @param sharedPreferencesName The name of the SharedPreferences file, or NULL for the application default SharedPreferences.
+	 * @return The new instance of SharedPreferencesOperations.
+	 */
+	private static SharedPreferencesOperations newInstance(Context context, String sharedPreferencesName) {
 		return VersionCodes.SUPPORTS_HONEYCOMB ? new SharedPreferencesOperationsHoneycomb(context, sharedPreferencesName) :
 			(VersionCodes.SUPPORTS_GINGERBREAD ? new SharedPreferencesOperationsGingerbread(context, sharedPreferencesName) :
 				VersionCodes.SUPPORTS_FROYO ? new SharedPreferencesOperationsFroyo(context, sharedPreferencesName) :
@@ -184,6 +266,136 @@ public abstract class SharedPreferencesOperations {
      */
     public abstract void commitOrApply();
     
+    /**
+     * Registers a listener for the changes in the SharedPreferences. As in the platform, the listener is weakly referenced,
+     * so the caller must keep a reference to it.
+     * 
+     * @param listener The listener to register.
+     */
+    public void registerOnSharedPreferenceChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+    	sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+    
+    /**
+     * Unregisters a listener for the changes in the SharedPreferences.
+     * 
+     * @param listener The listener to unregister.
+     */
+    public void unregisterOnSharedPreferenceChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+    	sharedPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+    
+    /**
+     * Starts a Transaction to store or remove several keys with a single write to the SharedPreferences file.
+     * 
+     * @return The new Transaction.
+     */
+    public Transaction beginTransaction() {
+    	return new Transaction(sharedPreferences.edit());
+    }
+    
+    
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                          TRANSACTION OPERATIONS                                            //       
+	// ---------------------------------------------------------------------------------------------------------- //
+    
+    /**
+     * Writes the changes of the Editor to the SharedPreferences file. Depending on the API level, performs a commit()
+     * or an apply().
+     * 
+     * @param transactionEditor The Editor with the changes.
+     */
+    protected abstract void commitOrApply(SharedPreferences.Editor transactionEditor);
+    
+    /**
+     * Puts a String Set in the Editor, if supported by the API level.
+     * 
+     * @param transactionEditor The Editor where to put the value.
+     * @param key The string identifier for the pair value.
+     * @param value The String Set to put under the provided key.
+     */
+    protected abstract void putStringSet(SharedPreferences.Editor transactionEditor, String key, Set<String> value);
+    
+    /**
+     * Notifies the Android Backup Service that the SharedPreferences have changed, if supported by the API level.
+     */
+    protected abstract void notifyDataChanged();
+    
+    /**
+     * A set of changes to the SharedPreferences that are written together on commit(). Each Transaction has its own
+     * Editor, so it is not affected by the single-key operations made by other threads in the meantime.
+     * A Transaction must not be reused after commit().
+     */
+    public class Transaction {
+    	
+    	/**
+    	 * The Editor holding the changes of this Transaction.
+    	 */
+    	private final SharedPreferences.Editor transactionEditor;
+    	
+    	/**
+    	 * True if any of the changes requested a backup to the cloud.
+    	 */
+    	private boolean backup;
+    	
+    	private Transaction(SharedPreferences.Editor transactionEditor) {
+    		this.transactionEditor = transactionEditor;
+    	}
+    	
+    	public Transaction storeValue(String key, long value, boolean backup) {
+    		transactionEditor.putLong(key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction storeValue(String key, String value, boolean backup) {
+    		transactionEditor.putString(key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction storeValue(String key, Set<String> value, boolean backup) {
+    		putStringSet(transactionEditor, key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction storeValue(String key, boolean value, boolean backup) {
+    		transactionEditor.putBoolean(key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction storeValue(String key, float value, boolean backup) {
+    		transactionEditor.putFloat(key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction storeValue(String key, int value, boolean backup) {
+    		transactionEditor.putInt(key, value);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	public Transaction removeKey(String key, boolean backup) {
+    		transactionEditor.remove(key);
+    		this.backup |= backup;
+    		return this;
+    	}
+    	
+    	/**
+    	 * Writes all the changes of this Transaction to the SharedPreferences file at once, and notifies the Backup
+    	 * Service once if any of the changes requested a backup.
+    	 */
+    	public void commit() {
+    		commitOrApply(transactionEditor);
+    		if (backup) {
+    			notifyDataChanged();
+    		}
+    	}
+    }
+    
     
 	// ---------------------------------------------------------------------------------------------------------- //
 	//                                             HELPER METHODS                                                 //       
@@ -196,7 +408,9 @@ public abstract class SharedPreferencesOperations {
      * @return This instance of SharedPreferencesOperations.
      */
     protected SharedPreferences getSharedPreferences() {
-    	if (sharedPreferencesName != null) {
+    	if (sharedPreferencesName != null && storages.get(sharedPreferencesName) == Storage.MAPPED) {
+    		return MappedSharedPreferences.getInstance(context, sharedPreferencesName);
+    	} else if (sharedPreferencesName != null) {
     		return context.getSharedPreferences(sharedPreferencesName, Context.MODE_PRIVATE);	
     	} else {
     		return PreferenceManager.getDefaultSharedPreferences(context);
@@ -1,11 +1,9 @@
 package pt.sapo.mobile.android.connect.system.sharedpreference;
 
-import java.lang.ref.SoftReference;
 import java.util.Set;
 
 import android.app.backup.BackupManager;
 import android.content.Context;
-import android.text.TextUtils;
 
 /**
  * Utility class for operations in the SharedPreferences targeting Froyo.
@@ -28,18 +26,6 @@ public class SharedPreferencesOperationsFroyo extends SharedPreferencesOperation
 		backupManager = new BackupManager(context);
 	}
 	
-	public synchronized static SharedPreferencesOperations getInstance(Context context, String mSharedPreferencesName) {
-		if (TextUtils.isEmpty(mSharedPreferencesName)) {
-			throw new UnsupportedOperationException("SharedPreferencesName must not be empty or null");
-		}
-		if (sharedPreferencesName.equals(mSharedPreferencesName) && instanceRef != null && instanceRef.get() != null) {
-			return instanceRef.get();
-		} else {
-			instanceRef = new SoftReference<SharedPreferencesOperations>(new SharedPreferencesOperationsFroyo(context, mSharedPreferencesName));
-			return instanceRef.get();	
-		}
-	}
-	
 	// ---------------------------------------------------------------------------------------------------------- //
 	//                                          RETRIEVAL OPERATIONS                                              //       
 	// ---------------------------------------------------------------------------------------------------------- //
@@ -136,5 +122,14 @@ public class SharedPreferencesOperationsFroyo extends SharedPreferencesOperation
     public void commitOrApply() {
     	super.commitOrApply();
     }
+    
+    // ---------------------------------------------------------------------------------------------------------- //
+	//                                          TRANSACTION OPERATIONS                                            //       
+	// ---------------------------------------------------------------------------------------------------------- //
+    
+    @Override
+    protected void notifyDataChanged() {
+    	backupManager.dataChanged();
+    }
         
 }
@@ -1,10 +1,9 @@
 package pt.sapo.mobile.android.connect.system.sharedpreference;
 
-import java.lang.ref.SoftReference;
 import java.util.Set;
 
 import android.content.Context;
-import android.text.TextUtils;
+import android.content.SharedPreferences;
 
 /**
  * Utility class for operations in the SharedPreferences targeting Gingerbread.
@@ -21,18 +20,6 @@ public class SharedPreferencesOperationsHoneycomb extends SharedPreferencesOpera
 		super(context, sharedPreferencesName);
 	}
 	
-	public synchronized static SharedPreferencesOperations getInstance(Context context, String mSharedPreferencesName) {
-		if (TextUtils.isEmpty(mSharedPreferencesName)) {
-			throw new UnsupportedOperationException("SharedPreferencesName must not be empty or null");
-		}
-		if (sharedPreferencesName.equals(mSharedPreferencesName) && instanceRef != null && instanceRef.get() != null) {
-			return instanceRef.get();
-		} else {
-			instanceRef = new SoftReference<SharedPreferencesOperations>(new SharedPreferencesOperationsHoneycomb(context, mSharedPreferencesName));
-			return instanceRef.get();	
-		}
-	}
-	
 	// ---------------------------------------------------------------------------------------------------------- //
 	//                                          RETRIEVAL OPERATIONS                                              //       
 	// ---------------------------------------------------------------------------------------------------------- //
@@ -123,5 +110,14 @@ public class SharedPreferencesOperationsHoneycomb extends SharedPreferencesOpera
     public void commitOrApply() {
     	super.commitOrApply();
     }
+    
+    // ---------------------------------------------------------------------------------------------------------- //
+	//                                          TRANSACTION OPERATIONS                                            //       
+	// ---------------------------------------------------------------------------------------------------------- //
+    
+    @Override
+    protected void putStringSet(SharedPreferences.Editor transactionEditor, String key, Set<String> value) {
+    	transactionEditor.putStringSet(key, value);
+    }
             
 }
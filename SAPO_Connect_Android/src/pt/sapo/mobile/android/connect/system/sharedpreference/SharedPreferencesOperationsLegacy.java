@@ -1,10 +1,9 @@
 package pt.sapo.mobile.android.connect.system.sharedpreference;
 
-import java.lang.ref.SoftReference;
 import java.util.Set;
 
 import android.content.Context;
-import android.text.TextUtils;
+import android.content.SharedPreferences;
 
 /**
  * Utility class for operations in the SharedPreferences targeting Android versions pre-Froyo.
@@ -20,18 +19,6 @@ public class SharedPreferencesOperationsLegacy extends SharedPreferencesOperatio
 	public SharedPreferencesOperationsLegacy(Context context, String sharedPreferencesName) {
 		super(context, sharedPreferencesName);
 	}
-	
-	public synchronized static SharedPreferencesOperations getInstance(Context context, String mSharedPreferencesName) {
-		if (TextUtils.isEmpty(mSharedPreferencesName)) {
-			throw new UnsupportedOperationException("SharedPreferencesName must not be empty or null");
-		}
-		if (sharedPreferencesName.equals(mSharedPreferencesName) && instanceRef != null && instanceRef.get() != null) {
-			return instanceRef.get();
-		} else {
-			instanceRef = new SoftReference<SharedPreferencesOperations>(new SharedPreferencesOperationsLegacy(context, mSharedPreferencesName));
-			return instanceRef.get();	
-		}
-	}
 		
 	// ---------------------------------------------------------------------------------------------------------- //
 	//                                          RETRIEVAL OPERATIONS                                              //       
@@ -140,7 +127,6 @@ public class SharedPreferencesOperationsLegacy extends SharedPreferencesOperatio
     @Override
     public void removeKey(String key, boolean backup) {
         editor.remove(key);
-        commitOrApply();
         if (!(this instanceof SharedPreferencesOperationsGingerbread)) {
         	commitOrApply();
         }
@@ -148,7 +134,26 @@ public class SharedPreferencesOperationsLegacy extends SharedPreferencesOperatio
 
 	@Override
 	public void commitOrApply() {
-		editor.commit();
+		commitOrApply(editor);
+	}
+	
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                          TRANSACTION OPERATIONS                                            //       
+	// ---------------------------------------------------------------------------------------------------------- //
+	
+	@Override
+	protected void commitOrApply(SharedPreferences.Editor transactionEditor) {
+		transactionEditor.commit();
+	}
+	
+	@Override
+	protected void putStringSet(SharedPreferences.Editor transactionEditor, String key, Set<String> value) {
+		throw new UnsupportedOperationException("storeValue with StringSet is only available in API level 11");
+	}
+	
+	@Override
+	protected void notifyDataChanged() {
+		// The Backup Service is only available in API level 8.
 	}
         
 }
@@ -0,0 +1,140 @@
+package pt.sapo.android.connect.benchmark;
+
+import java.io.IOException;
+
+import pt.sapo.mobile.android.connect.network.NetworkMetrics;
+import pt.sapo.mobile.android.connect.system.Log;
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Runs the load benchmark against a StubServer started in the application process, and shows the reports. The run
+ * configuration comes from the benchmark.xml resources and can be overridden with Intent extras of the same names,
+ * e.g.:
+ *
+ *   adb shell am start -n pt.sapo.android.connect.benchmark/.BenchmarkActivity --ei threads 16 --ei latency 80 --ez autoStart true
+ *
+ * The reports are also written to the log, with the BenchmarkActivity and LoadDriver tags.
+ */
+public class BenchmarkActivity extends Activity {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "BenchmarkActivity";
+
+	/**
+	 * Intent extras.
+	 */
+	public static final String EXTRA_AUTO_START = "autoStart";
+	public static final String EXTRA_PORT = "port";
+	public static final String EXTRA_THREADS = "threads";
+	public static final String EXTRA_REQUESTS = "requests";
+	public static final String EXTRA_WARMUP = "warmup";
+	public static final String EXTRA_LATENCY = "latency";
+	public static final String EXTRA_JITTER = "jitter";
+	public static final String EXTRA_ITEMS = "items";
+	public static final String EXTRA_ERROR_RATE = "errorRate";
+
+	/**
+	 * Activity Views.
+	 */
+	private Button runButton;
+	private TextView reportTextView;
+
+	/**
+	 * Handler for posting the reports to the UI thread.
+	 */
+	private Handler handler;
+
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.benchmark);
+
+		handler = new Handler();
+		runButton = (Button) findViewById(R.id.run_btn);
+		reportTextView = (TextView) findViewById(R.id.report_text);
+
+		runButton.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View view) {
+				startBenchmark();
+			}
+		});
+
+		if (savedInstanceState == null && getIntent().getBooleanExtra(EXTRA_AUTO_START, false)) {
+			startBenchmark();
+		}
+	}
+
+	/**
+	 * Runs all the scenarios in a background thread.
+	 */
+	private void startBenchmark() {
+		runButton.setEnabled(false);
+		reportTextView.setText("");
+
+		final int port = getIntExtra(EXTRA_PORT, R.string.benchmark_port);
+		final int threads = getIntExtra(EXTRA_THREADS, R.string.benchmark_threads);
+		final int requests = getIntExtra(EXTRA_REQUESTS, R.string.benchmark_requests);
+		final int warmup = getIntExtra(EXTRA_WARMUP, R.string.benchmark_warmup);
+		final StubServer.Config config = new StubServer.Config()
+				.setLatency(getIntExtra(EXTRA_LATENCY, R.string.benchmark_latency), getIntExtra(EXTRA_JITTER, R.string.benchmark_jitter))
+				.setPayloadItems(getIntExtra(EXTRA_ITEMS, R.string.benchmark_items))
+				.setErrorRate(getIntent().getFloatExtra(EXTRA_ERROR_RATE, Float.parseFloat(getString(R.string.benchmark_error_rate))));
+
+		new Thread("Benchmark") {
+			@Override
+			public void run() {
+				StubServer server = new StubServer(port, config);
+				try {
+					server.start();
+					NetworkMetrics.getInstance().reset();
+					LoadDriver driver = new LoadDriver(getApplicationContext(), server.getBaseUrl());
+					for (LoadDriver.Scenario scenario: LoadDriver.Scenario.values()) {
+						showReport(driver.run(scenario, threads, requests, warmup).toString());
+					}
+					for (NetworkMetrics.ServiceSnapshot snapshot: NetworkMetrics.getInstance().getSnapshot()) {
+						showReport(snapshot.toString());
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "startBenchmark() - Unable to start the StubServer.", e);
+					showReport("Unable to start the StubServer: " + e.getMessage());
+				} catch (InterruptedException e) {
+					Log.w(TAG, "startBenchmark() - Interrupted.");
+				} finally {
+					server.stop();
+					handler.post(new Runnable() {
+						public void run() {
+							runButton.setEnabled(true);
+						}
+					});
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Appends a report line to the screen and to the log.
+	 */
+	private void showReport(final String report) {
+		Log.i(TAG, report);
+		handler.post(new Runnable() {
+			public void run() {
+				reportTextView.append(report + "\n\n");
+			}
+		});
+	}
+
+	private int getIntExtra(String name, int defaultValueResId) {
+		return getIntent().getIntExtra(name, Integer.parseInt(getString(defaultValueResId)));
+	}
+
+}
@@ -0,0 +1,282 @@
+package pt.sapo.android.connect.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthServiceProvider;
+import net.oauth.client.OAuthClient;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.ClientPNames;
+
+import pt.sapo.android.connect.benchmark.network.StubRequest;
+import pt.sapo.mobile.android.connect.SAPOConnect;
+import pt.sapo.mobile.android.connect.http.ConnectHttpClientConfiguration;
+import pt.sapo.mobile.android.connect.http.MyHttpClient;
+import pt.sapo.mobile.android.connect.network.NetworkObject;
+import pt.sapo.mobile.android.connect.network.NetworkOperations;
+import pt.sapo.mobile.android.connect.network.RequestObject;
+import pt.sapo.mobile.android.connect.system.Log;
+import android.content.Context;
+
+/**
+ * Drives load through the library's request pipeline against a StubServer, and reports the throughput and the latency
+ * percentiles. Each worker thread sends its requests back to back, in the caller's thread, through the
+ * NetworkOperations unthreaded path (or the SAPOConnect login legs, for the OAUTH_HANDSHAKE scenario), so the numbers
+ * measure the library and the stub, not the thread scheduling.
+ *
+ * The per-service metrics and traces of the library (NetworkMetrics and RequestTrace) are also fed by these requests.
+ *
+ * Simple usage (never in the UI thread):
+ *   LoadDriver.Report report = new LoadDriver(context, server.getBaseUrl()).run(LoadDriver.Scenario.JSON_GET, 8, 1000, 50);
+ */
+public class LoadDriver {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "LoadDriver";
+
+	/**
+	 * The number of items in the body of the XML_STREAMED_POST requests.
+	 */
+	private static final int STREAMED_BODY_ITEMS = 1000;
+
+	/**
+	 * The request mixes the driver can send.
+	 */
+	public enum Scenario {
+		/** GET of the fake Photos/ImageGetListByUser JSON service, through NetworkOperations. */
+		IMAGE_LIST,
+		/** GET of the Stub/JsonItems JSON service, through NetworkOperations. */
+		JSON_GET,
+		/** POST of an XML body to the Stub/XmlItems XML service, through NetworkOperations. */
+		XML_POST,
+		/** POST of a large XML body, streamed with the chunked transfer encoding, to the Stub/XmlItems XML service. */
+		XML_STREAMED_POST,
+		/** The OAuth 1.0a request_token, authorize and access_token sequence, through the SAPOConnect login legs. */
+		OAUTH_HANDSHAKE
+	}
+
+	private final Context context;
+	private final String serverUrl;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param context The application Context.
+	 * @param serverUrl The base URL of the StubServer, ending with '/'.
+	 */
+	public LoadDriver(Context context, String serverUrl) {
+		this.context = context.getApplicationContext();
+		this.serverUrl = serverUrl;
+	}
+
+	/**
+	 * Runs a scenario. Blocks until all the requests are done.
+	 *
+	 * @param scenario The requests to send.
+	 * @param threads The number of concurrent worker threads.
+	 * @param requests The total number of measured requests.
+	 * @param warmupRequests The number of requests sent before measuring, to warm up the connections and the JIT.
+	 * @return The Report of the measured requests.
+	 * @throws InterruptedException If interrupted while waiting for the workers.
+	 */
+	public Report run(final Scenario scenario, int threads, int requests, int warmupRequests) throws InterruptedException {
+		Log.i(TAG, "run() - %s: %d threads, %d requests, %d warm-up", scenario, threads, requests, warmupRequests);
+		for (int i = 0; i < warmupRequests; i++) {
+			execute(scenario);
+		}
+
+		final long[] latencies = new long[requests];
+		final AtomicInteger nextRequest = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			new Thread("LoadDriver-" + t) {
+				@Override
+				public void run() {
+					try {
+						int request;
+						while ((request = nextRequest.getAndIncrement()) < latencies.length) {
+							long requestStart = System.nanoTime();
+							if (!execute(scenario)) {
+								errors.incrementAndGet();
+							}
+							latencies[request] = System.nanoTime() - requestStart;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		Report report = new Report(scenario, threads, latencies, errors.get(), elapsed);
+		Log.i(TAG, "run() - %s", report);
+		return report;
+	}
+
+	/**
+	 * Sends one request of the scenario.
+	 *
+	 * @return True if successful.
+	 */
+	private boolean execute(Scenario scenario) {
+		switch (scenario) {
+			case IMAGE_LIST:
+				return invoke(StubRequest.imageList(serverUrl));
+			case JSON_GET:
+				return invoke(StubRequest.jsonItems(serverUrl));
+			case XML_POST:
+				return invoke(StubRequest.xmlItems(serverUrl));
+			case XML_STREAMED_POST:
+				return invoke(StubRequest.streamedXmlItems(serverUrl, STREAMED_BODY_ITEMS));
+			case OAUTH_HANDSHAKE:
+				return oAuthHandshake();
+		}
+		return false;
+	}
+
+	private boolean invoke(RequestObject requestObject) {
+		NetworkObject networkObject = NetworkOperations.invokeWebServiceFromRequestObjectUnthreaded(null, context, null, requestObject, null);
+		return networkObject != null && networkObject.result;
+	}
+
+	/**
+	 * Goes through the three legs of the OAuth 1.0a login with the same code as the SAPOConnect Activity, but following
+	 * the authorize redirect directly instead of in a WebView.
+	 *
+	 * @return True if an access token was obtained.
+	 */
+	private boolean oAuthHandshake() {
+		String callbackUrl = context.getString(pt.sapo.mobile.android.connect.R.string.sapo_connect_callback_url);
+		OAuthServiceProvider serviceProvider = new OAuthServiceProvider(serverUrl + "oauth/request_token", serverUrl + "oauth/authorize", serverUrl + "oauth/access_token");
+		OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(callbackUrl, "benchmark-key", "benchmark-secret", serviceProvider));
+		OAuthClient oAuthClient = SAPOConnect.getOAuthClient();
+
+		try {
+			String authorizeUrl = SAPOConnect.obtainRequestToken(oAuthClient, accessor);
+
+			HttpClient httpClient = MyHttpClient.getInstance(ConnectHttpClientConfiguration.getInstance()).getHttpClient(true);
+			HttpGet authorize = new HttpGet(authorizeUrl);
+			authorize.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
+			HttpResponse response = httpClient.execute(authorize);
+			Header location = response.getFirstHeader("Location");
+			if (response.getEntity() != null) {
+				response.getEntity().consumeContent();
+			}
+			if (location == null) {
+				return false;
+			}
+
+			SAPOConnect.obtainAccessToken(oAuthClient, accessor, location.getValue());
+			return accessor.accessToken != null;
+
+		} catch (Exception e) {
+			Log.d(TAG, "oAuthHandshake() - %s", e);
+			return false;
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                 REPORT                                                     //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * The results of a run. The latencies are in milliseconds, with microsecond precision.
+	 */
+	public static class Report {
+
+		private final Scenario scenario;
+		private final int threads;
+		private final int requests;
+		private final int errors;
+		private final double elapsedMillis;
+		private final double throughput;
+		private final double p50;
+		private final double p90;
+		private final double p99;
+		private final double max;
+
+		private Report(Scenario scenario, int threads, long[] latencies, int errors, long elapsedNanos) {
+			this.scenario = scenario;
+			this.threads = threads;
+			this.requests = latencies.length;
+			this.errors = errors;
+			this.elapsedMillis = elapsedNanos / 1000000.0;
+			this.throughput = elapsedNanos > 0 ? requests * 1000000000.0 / elapsedNanos : 0;
+
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			this.p50 = percentile(sorted, 50);
+			this.p90 = percentile(sorted, 90);
+			this.p99 = percentile(sorted, 99);
+			this.max = sorted.length == 0 ? -1 : sorted[sorted.length - 1] / 1000000.0;
+		}
+
+		/**
+		 * Nearest-rank percentile of an already sorted array of nanoseconds, in milliseconds.
+		 */
+		private static double percentile(long[] sortedLatencies, int percentile) {
+			if (sortedLatencies.length == 0) {
+				return -1;
+			}
+			int rank = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length);
+			return sortedLatencies[Math.max(rank, 1) - 1] / 1000000.0;
+		}
+
+		public Scenario getScenario() {
+			return scenario;
+		}
+
+		public int getRequests() {
+			return requests;
+		}
+
+		public int getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return The requests per second.
+		 */
+		public double getThroughput() {
+			return throughput;
+		}
+
+		public double getP50() {
+			return p50;
+		}
+
+		public double getP90() {
+			return p90;
+		}
+
+		public double getP99() {
+			return p99;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: threads=%d; requests=%d; errors=%d; elapsed=%.0fms; throughput=%.1f req/s; p50=%.2fms; p90=%.2fms; p99=%.2fms; max=%.2fms",
+					scenario, threads, requests, errors, elapsedMillis, throughput, p50, p90, p99, max);
+		}
+	}
+
+}
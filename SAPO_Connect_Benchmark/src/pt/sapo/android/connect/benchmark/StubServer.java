@@ -0,0 +1,589 @@
+package pt.sapo.android.connect.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pt.sapo.mobile.android.connect.system.Log;
+
+/**
+ * Local stand-in for services.sapo.pt and id.sapo.pt, to exercise the NetworkOperations and the SAPO Connect OAuth flow
+ * without the real services. It is a minimal HTTP/1.1 server (with keep-alive) over plain java.net sockets, so it runs
+ * inside the application process on the device, or on any JVM.
+ *
+ * Endpoints:
+ *   /oauth/request_token        OAuth 1.0a request token. Remembers the oauth_callback.
+ *   /oauth/authorize            Redirects to the oauth_callback with the oauth_token and an oauth_verifier.
+ *   /oauth/access_token         OAuth 1.0a access token.
+ *   /Photos/ImageGetListByUser  Fake SAPO Fotos JSON response.
+ *   /Stub/JsonItems             JSON list of items.
+ *   /Stub/XmlItems              XML list of items. Requires an XML POST body, which is discarded.
+ *
+ * The request bodies may be sent with a Content-Length or with the chunked transfer encoding (as the streamed XML
+ * bodies are), and after an "Expect: 100-continue". The OAuth signatures are not verified. The latency, the payload
+ * size and the error rate are set in the Config, and can be changed while the server is running.
+ *
+ * Simple usage:
+ *   StubServer server = new StubServer(8089, new StubServer.Config().setLatency(50, 20).setErrorRate(0.01));
+ *   server.start();
+ *   ...
+ *   server.stop();
+ */
+public class StubServer {
+
+	/**
+	 * The Log tag for this class.
+	 */
+	private static final String TAG = "StubServer";
+
+	/**
+	 * Maximum size of the request line and of each header line.
+	 */
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	/**
+	 * Maximum size of a request body.
+	 */
+	private static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * The response configuration.
+	 */
+	private final Config config;
+
+	/**
+	 * The port to listen on, or 0 for any free port.
+	 */
+	private final int requestedPort;
+
+	/**
+	 * Runs the accept loop and one task per connection.
+	 */
+	private ExecutorService executor;
+	private ServerSocket serverSocket;
+	private volatile boolean running;
+
+	/**
+	 * The oauth_callback of each request token.
+	 */
+	private final ConcurrentHashMap<String, String> callbacks = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * The open connections, closed by stop(), as the blocking reads aren't interrupted by the executor.
+	 */
+	private final ConcurrentHashMap<Socket, Boolean> connections = new ConcurrentHashMap<Socket, Boolean>();
+
+	private final AtomicInteger tokenSequence = new AtomicInteger();
+	private final AtomicLong requestsServed = new AtomicLong();
+	private final AtomicLong errorsInjected = new AtomicLong();
+	private final Random random = new Random();
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @param config The response configuration.
+	 */
+	public StubServer(int port, Config config) {
+		this.requestedPort = port;
+		this.config = config;
+	}
+
+	/**
+	 * Starts listening on the loopback interface.
+	 *
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		serverSocket = new ServerSocket(requestedPort, 64, InetAddress.getByName("127.0.0.1"));
+		executor = Executors.newCachedThreadPool();
+		running = true;
+		executor.execute(new Runnable() {
+			public void run() {
+				acceptLoop();
+			}
+		});
+		Log.i(TAG, "start() - Listening on %s", getBaseUrl());
+	}
+
+	/**
+	 * Stops the server, closing all the connections.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			Log.w(TAG, "stop() - IOException: ", e);
+		}
+		for (Socket socket: connections.keySet()) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing else to do.
+			}
+		}
+		executor.shutdownNow();
+		Log.i(TAG, "stop() - Served %d requests, %d injected errors", requestsServed.get(), errorsInjected.get());
+	}
+
+	/**
+	 * @return The port the server is listening on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return The base URL of the server, ending with '/' (e.g. "http://127.0.0.1:8089/").
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + getPort() + "/";
+	}
+
+	public Config getConfig() {
+		return config;
+	}
+
+	public long getRequestsServed() {
+		return requestsServed.get();
+	}
+
+	public long getErrorsInjected() {
+		return errorsInjected.get();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                               CONNECTIONS                                                  //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	private void acceptLoop() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				executor.execute(new Runnable() {
+					public void run() {
+						serveConnection(socket);
+					}
+				});
+			} catch (SocketException e) {
+				// The server socket was closed by stop().
+			} catch (IOException e) {
+				Log.w(TAG, "acceptLoop() - IOException: ", e);
+			}
+		}
+	}
+
+	/**
+	 * Serves the requests of a connection until the client closes it or asks to close it.
+	 */
+	private void serveConnection(Socket socket) {
+		connections.put(socket, Boolean.TRUE);
+		try {
+			if (!running) {
+				// Accepted while stopping, after the connections were closed.
+				return;
+			}
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+
+			boolean keepAlive = true;
+			while (keepAlive && running) {
+				String requestLine = readLine(in);
+				if (requestLine == null) {
+					break;
+				}
+				if (requestLine.length() == 0) {
+					continue;
+				}
+
+				Map<String, String> headers = new HashMap<String, String>();
+				String line;
+				while ((line = readLine(in)) != null && line.length() > 0) {
+					int colon = line.indexOf(':');
+					if (colon > 0) {
+						headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+					}
+				}
+
+				if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+					// Otherwise the client waits a few seconds before sending the body.
+					out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("US-ASCII"));
+					out.flush();
+				}
+
+				byte[] body;
+				String transferEncoding = headers.get("transfer-encoding");
+				if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+					if (!"chunked".equalsIgnoreCase(transferEncoding)) {
+						// Can't find the end of the body, so the connection can't be reused.
+						new Response(501, "text/plain", "Unsupported Transfer-Encoding: " + transferEncoding).write(out, false);
+						break;
+					}
+					body = readChunkedBody(in);
+				} else {
+					String contentLength = headers.get("content-length");
+					body = readBody(in, contentLength == null ? 0 : parseLength(contentLength, 10));
+				}
+
+				String[] parts = requestLine.split(" ");
+				keepAlive = !"close".equalsIgnoreCase(headers.get("connection")) && !(parts.length > 2 && "HTTP/1.0".equals(parts[2]));
+				Response response = parts.length < 2 ? new Response(400, "text/plain", "Bad request") : handle(parts[0], parts[1], body);
+				requestsServed.incrementAndGet();
+				response.write(out, keepAlive);
+			}
+		} catch (IOException e) {
+			// The client went away.
+		} finally {
+			connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing else to do.
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder(128);
+		int c;
+		while ((c = in.read()) >= 0) {
+			if (c == '\n') {
+				int length = sb.length();
+				if (length > 0 && sb.charAt(length - 1) == '\r') {
+					sb.setLength(length - 1);
+				}
+				return sb.toString();
+			}
+			if (sb.length() >= MAX_LINE_LENGTH) {
+				throw new IOException("Line too long");
+			}
+			sb.append((char) c);
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	private static byte[] readBody(InputStream in, int length) throws IOException {
+		byte[] body = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(body, offset, length - offset);
+			if (read < 0) {
+				throw new IOException("Truncated body");
+			}
+			offset += read;
+		}
+		return body;
+	}
+
+
+	/**
+	 * Reads a body sent with the chunked transfer encoding: each chunk is preceded by its size in hexadecimal (with
+	 * optional extensions after a ';'), and the body ends with a chunk of size 0, followed by optional trailer headers
+	 * and an empty line.
+	 */
+	private static byte[] readChunkedBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		while (true) {
+			String sizeLine = readLine(in);
+			if (sizeLine == null) {
+				throw new IOException("Truncated chunked body");
+			}
+			int extensions = sizeLine.indexOf(';');
+			int size = parseLength(extensions < 0 ? sizeLine : sizeLine.substring(0, extensions), 16);
+			if (size == 0) {
+				break;
+			}
+			if (body.size() + size > MAX_BODY_LENGTH) {
+				throw new IOException("Body too long");
+			}
+			body.write(readBody(in, size));
+			if (!"".equals(readLine(in))) {
+				throw new IOException("Missing CRLF after a chunk");
+			}
+		}
+
+		// The trailer headers, if any, are ignored.
+		String line;
+		do {
+			line = readLine(in);
+		} while (line != null && line.length() > 0);
+		return body.toByteArray();
+	}
+
+	/**
+	 * Parses a Content-Length or a chunk size.
+	 *
+	 * @throws IOException If it's not a valid length.
+	 */
+	private static int parseLength(String value, int radix) throws IOException {
+		try {
+			int length = Integer.parseInt(value.trim(), radix);
+			if (length < 0 || length > MAX_BODY_LENGTH) {
+				throw new IOException("Invalid length: " + value);
+			}
+			return length;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid length: " + value);
+		}
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                                ENDPOINTS                                                   //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * Routes a request to its endpoint, after the configured latency and error injection.
+	 */
+	private Response handle(String method, String target, byte[] body) throws UnsupportedEncodingException {
+		int query = target.indexOf('?');
+		String path = query < 0 ? target : target.substring(0, query);
+		Map<String, String> params = parseParams(query < 0 ? null : target.substring(query + 1));
+		if ("POST".equals(method) && body.length > 0 && path.startsWith("/oauth/")) {
+			params.putAll(parseParams(new String(body, "UTF-8")));
+		}
+
+		simulateLatency();
+		if (shouldInjectError()) {
+			errorsInjected.incrementAndGet();
+			return new Response(500, "text/plain", "Injected error");
+		}
+
+		if (path.equals("/oauth/request_token")) {
+			String token = "rt" + tokenSequence.incrementAndGet();
+			String callback = params.get("oauth_callback");
+			if (callback != null) {
+				callbacks.put(token, callback);
+			}
+			return new Response(200, "application/x-www-form-urlencoded", "oauth_token=" + token + "&oauth_token_secret=" + token + "s&oauth_callback_confirmed=true");
+
+		} else if (path.equals("/oauth/authorize")) {
+			String token = params.get("oauth_token");
+			if (token == null) {
+				return new Response(400, "text/plain", "Missing oauth_token");
+			}
+			String callback = callbacks.remove(token);
+			if (callback == null) {
+				callback = params.get("oauth_callback");
+			}
+			if (callback == null) {
+				return new Response(400, "text/plain", "Unknown oauth_token");
+			}
+			Response response = new Response(302, "text/plain", "");
+			response.location = callback + (callback.indexOf('?') < 0 ? '?' : '&') + "oauth_token=" + URLEncoder.encode(token, "UTF-8") + "&oauth_verifier=" + URLEncoder.encode("v" + token, "UTF-8");
+			return response;
+
+		} else if (path.equals("/oauth/access_token")) {
+			String token = "at" + tokenSequence.incrementAndGet();
+			return new Response(200, "application/x-www-form-urlencoded", "oauth_token=" + token + "&oauth_token_secret=" + token + "s");
+
+		} else if (path.equals("/Photos/ImageGetListByUser")) {
+			return new Response(200, "application/json", buildImageListJson(config.payloadItems));
+
+		} else if (path.equals("/Stub/JsonItems")) {
+			return new Response(200, "application/json", buildItemsJson(config.payloadItems));
+
+		} else if (path.equals("/Stub/XmlItems")) {
+			if (body.length == 0) {
+				return new Response(400, "text/plain", "Missing XML body");
+			}
+			return new Response(200, "text/xml", buildItemsXml(config.payloadItems));
+		}
+		return new Response(404, "text/plain", "Not found: " + path);
+	}
+
+	private void simulateLatency() {
+		long latency = config.latencyMillis;
+		if (config.latencyJitterMillis > 0) {
+			synchronized (random) {
+				latency += (long) (random.nextDouble() * config.latencyJitterMillis);
+			}
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean shouldInjectError() {
+		if (config.errorRate <= 0) {
+			return false;
+		}
+		synchronized (random) {
+			return random.nextDouble() < config.errorRate;
+		}
+	}
+
+	private static Map<String, String> parseParams(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair: query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static String buildImageListJson(int items) {
+		StringBuilder sb = new StringBuilder(64 + items * 160);
+		sb.append("{\"ImageGetListByUserResponse\":{\"ImageGetListByUserResult\":{\"Image\":[");
+		for (int i = 0; i < items; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"Id\":").append(i);
+			sb.append(",\"Title\":\"Image ").append(i).append('"');
+			sb.append(",\"Url\":\"http://fotos.sapo.pt/stub/").append(i).append(".jpg\"");
+			sb.append(",\"Created\":\"2012-01-01 12:00:00\"}");
+		}
+		return sb.append("]}}}").toString();
+	}
+
+	private static String buildItemsJson(int items) {
+		StringBuilder sb = new StringBuilder(16 + items * 64);
+		sb.append("{\"items\":[");
+		for (int i = 0; i < items; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":").append(i).append(",\"name\":\"Item ").append(i).append("\",\"value\":").append(i * 31).append('}');
+		}
+		return sb.append("]}").toString();
+	}
+
+	private static String buildItemsXml(int items) {
+		StringBuilder sb = new StringBuilder(64 + items * 80);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><items>");
+		for (int i = 0; i < items; i++) {
+			sb.append("<item id=\"").append(i).append("\"><name>Item ").append(i).append("</name><value>").append(i * 31).append("</value></item>");
+		}
+		return sb.append("</items>").toString();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            CONFIG AND RESPONSE                                             //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * The response configuration. The values can be changed while the server is running.
+	 */
+	public static class Config {
+
+		private volatile long latencyMillis;
+		private volatile long latencyJitterMillis;
+		private volatile int payloadItems = 20;
+		private volatile double errorRate;
+
+		/**
+		 * @param latencyMillis The fixed delay before each response.
+		 * @param latencyJitterMillis The maximum random delay added to the fixed one.
+		 * @return This Config.
+		 */
+		public Config setLatency(long latencyMillis, long latencyJitterMillis) {
+			this.latencyMillis = latencyMillis;
+			this.latencyJitterMillis = latencyJitterMillis;
+			return this;
+		}
+
+		/**
+		 * @param payloadItems The number of items in the service responses.
+		 * @return This Config.
+		 */
+		public Config setPayloadItems(int payloadItems) {
+			this.payloadItems = payloadItems;
+			return this;
+		}
+
+		/**
+		 * @param errorRate The fraction (0 to 1) of the requests answered with an HTTP 500.
+		 * @return This Config.
+		 */
+		public Config setErrorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+	}
+
+	/**
+	 * An HTTP response.
+	 */
+	private static class Response {
+
+		private final int status;
+		private final String contentType;
+		private final String body;
+		private String location;
+
+		private Response(int status, String contentType, String body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		private void write(OutputStream out, boolean keepAlive) throws IOException {
+			byte[] bodyBytes = body.getBytes("UTF-8");
+			StringBuilder sb = new StringBuilder(160);
+			sb.append("HTTP/1.1 ").append(status).append(' ').append(reason()).append("\r\n");
+			sb.append("Content-Type: ").append(contentType).append("; charset=UTF-8\r\n");
+			sb.append("Content-Length: ").append(bodyBytes.length).append("\r\n");
+			if (location != null) {
+				sb.append("Location: ").append(location).append("\r\n");
+			}
+			sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+			ByteArrayOutputStream response = new ByteArrayOutputStream(sb.length() + bodyBytes.length);
+			response.write(sb.toString().getBytes("US-ASCII"));
+			response.write(bodyBytes);
+			response.writeTo(out);
+			out.flush();
+		}
+
+		private String reason() {
+			switch (status) {
+				case 200: return "OK";
+				case 302: return "Found";
+				case 400: return "Bad Request";
+				case 404: return "Not Found";
+				case 501: return "Not Implemented";
+				default: return "Internal Server Error";
+			}
+		}
+	}
+
+}
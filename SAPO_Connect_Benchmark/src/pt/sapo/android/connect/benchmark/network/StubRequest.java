@@ -0,0 +1,165 @@
+package pt.sapo.android.connect.benchmark.network;
+
+import java.io.IOException;
+
+import pt.sapo.mobile.android.connect.network.NetworkObject;
+import pt.sapo.mobile.android.connect.network.NetworkOperations.HttpMethod;
+import pt.sapo.mobile.android.connect.network.OnNetworkResultsListener;
+import pt.sapo.mobile.android.connect.network.RequestObject;
+import pt.sapo.mobile.android.connect.network.XmlBodyWriter;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+
+/**
+ * Specifies a WebService call of the StubServer, without OAuth. The service, the HTTP method and the body are given by
+ * the factory methods, one per StubServer endpoint. The result is passed to the caller as a String.
+ *
+ * Simple usage:
+ *   NetworkOperations.invokeWebServiceFromRequestObjectUnthreaded(null, context, null, StubRequest.imageList(serverUrl), null);
+ */
+public class StubRequest extends RequestObject {
+
+	/**
+	 * The XML body of the POST requests that aren't streamed.
+	 */
+	private static final String XML_POST = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><request><user>benchmark</user><page>1</page></request>";
+
+	/**
+	 * The schema of the streamed XML body.
+	 */
+	private static final String STUB_SCHEMA = "http://services.sapo.pt/Stub";
+
+	private final String baseUrl;
+	private final String webServiceName;
+	private final HttpMethod httpMethod;
+
+	/**
+	 * True if the body is streamed with writeXmlPost(), and the number of items in the streamed body.
+	 */
+	private final boolean streamed;
+	private final int bodyItems;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param baseUrl The base URL of the service, ending with '/'.
+	 * @param webServiceName The service name, appended to the base URL.
+	 * @param httpMethod The HTTP method. The POST requests send an XML body.
+	 * @param streamed True to stream the XML body with writeXmlPost().
+	 * @param bodyItems The number of items in the streamed body.
+	 */
+	private StubRequest(String baseUrl, String webServiceName, HttpMethod httpMethod, boolean streamed, int bodyItems) {
+		this.baseUrl = baseUrl;
+		this.webServiceName = webServiceName;
+		this.httpMethod = httpMethod;
+		this.streamed = streamed;
+		this.bodyItems = bodyItems;
+	}
+
+	/**
+	 * @param serverUrl The base URL of the StubServer, ending with '/'.
+	 * @return A GET of the fake ImageGetListByUser JSON service, as in the SAPO Connect Example, but without OAuth.
+	 */
+	public static StubRequest imageList(String serverUrl) {
+		return new StubRequest(serverUrl + "Photos/", "ImageGetListByUser", HttpMethod.GET, false, 0);
+	}
+
+	/**
+	 * @param serverUrl The base URL of the StubServer, ending with '/'.
+	 * @return A GET of the JsonItems JSON service.
+	 */
+	public static StubRequest jsonItems(String serverUrl) {
+		return new StubRequest(serverUrl + "Stub/", "JsonItems", HttpMethod.GET, false, 0);
+	}
+
+	/**
+	 * @param serverUrl The base URL of the StubServer, ending with '/'.
+	 * @return A POST of a small XML body, built as a String, to the XmlItems XML service.
+	 */
+	public static StubRequest xmlItems(String serverUrl) {
+		return new StubRequest(serverUrl + "Stub/", "XmlItems", HttpMethod.POST, false, 0);
+	}
+
+	/**
+	 * @param serverUrl The base URL of the StubServer, ending with '/'.
+	 * @param bodyItems The number of items in the body.
+	 * @return A POST of an XML body, streamed with the chunked transfer encoding, to the XmlItems XML service.
+	 */
+	public static StubRequest streamedXmlItems(String serverUrl, int bodyItems) {
+		return new StubRequest(serverUrl + "Stub/", "XmlItems", HttpMethod.POST, true, bodyItems);
+	}
+
+	@Override
+	public String getWebServiceName() {
+		return webServiceName;
+	}
+
+	@Override
+	public String toUrlParamaters() {
+		return httpMethod == HttpMethod.GET ? "page=1" : null;
+	}
+
+	@Override
+	public boolean requiresOAuth() {
+		return false;
+	}
+
+	@Override
+	public Object[] getOptionalParameters() {
+		return null;
+	}
+
+	@Override
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	@Override
+	public boolean requiresExplicitJsonResponse() {
+		return httpMethod == HttpMethod.GET;
+	}
+
+	@Override
+	public boolean requiresClientId() {
+		return true;
+	}
+
+	@Override
+	public Integer getTtlString() {
+		return null;
+	}
+
+	@Override
+	public HttpMethod getHttpMethod() {
+		return httpMethod;
+	}
+
+	@Override
+	public String getXmlPost() {
+		return httpMethod == HttpMethod.POST ? XML_POST : null;
+	}
+
+	@Override
+	public boolean streamsXmlPost() {
+		return streamed;
+	}
+
+	@Override
+	public void writeXmlPost(XmlBodyWriter writer) throws IOException {
+		writer.startRootObject("ItemList", STUB_SCHEMA).startComplexType("Items");
+		for (int i = 0; i < bodyItems; i++) {
+			writer.startComplexType("Item").param("Id", Integer.toString(i)).param("Name", "Item " + i).end();
+		}
+	}
+
+	@Override
+	public NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, String responseString, Cursor cursor, RequestObject requestObject) {
+		// Just pass the result to the caller as a String in the successResult field.
+		NetworkObject networkResponseObject = new NetworkObject(requestObject, cursor);
+		networkResponseObject.result = true;
+		networkResponseObject.successResult = responseString;
+		return networkResponseObject;
+	}
+
+}
@@ -1,5 +1,6 @@
 package pt.sapo.android.connect.example;
 
+import pt.sapo.mobile.android.connect.SAPOConnect;
 import pt.sapo.mobile.android.connect.system.Log;
 import android.app.Application;
 
@@ -11,6 +12,9 @@ public class ExampleApp extends Application {
 		
 		// Logging configuration
 		Log.configFromContext(getApplicationContext());
+		
+		// Starts loading the stored credentials, so that the LaunchActivity doesn't wait for the disk.
+		SAPOConnect.preload(getApplicationContext());
 	}
 	
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import pt.sapo.mobile.android.connect.network.OnNetworkResultsListener;
 import pt.sapo.mobile.android.connect.system.sharedpreference.SharedPreferencesOperations;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
@@ -82,9 +83,22 @@ public class LaunchActivity extends Activity {
 					showDialogConnect();
 		        } else {
 		            // The user is logged in. Do your stuff.
-		        	Intent logOut = new Intent(LaunchActivity.this, isSapoConnectSimpleMode() ? ExampleSimpleSapoConnect.class : ExampleCustomSapoConnect.class);
-		        	logOut.putExtra(SAPOConnect.SAPO_CONNECT_OPERATION, SAPOConnect.SAPO_CONNECT_LOGOUT);
-		        	startActivityForResult(logOut,REQUEST_CODE_LOGOUT);
+		        	if (isSapoConnectSimpleMode()) {
+		        		// No additional LogOut operations. Logout in the background without starting the SAPO Connect Activity.
+		        		busyState(true);
+		        		SAPOConnect.logOutInBackground(handler, getApplicationContext(), new SAPOConnect.OnLogOutCompletedListener() {
+		        			@Override
+		        			public void onLogOutCompleted(Context context) {
+		        				busyState(false);
+		        				setLayout(false);
+		        			}
+		        		});
+		        	} else {
+		        		// The custom SAPO Connect has additional LogOut operations, so they must run in the Activity.
+		        		Intent logOut = new Intent(LaunchActivity.this, ExampleCustomSapoConnect.class);
+		        		logOut.putExtra(SAPOConnect.SAPO_CONNECT_OPERATION, SAPOConnect.SAPO_CONNECT_LOGOUT);
+		        		startActivityForResult(logOut,REQUEST_CODE_LOGOUT);
+		        	}
 		        }
 			}
 		});
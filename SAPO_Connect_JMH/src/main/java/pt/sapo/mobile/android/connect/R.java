@@ -0,0 +1,63 @@
+package pt.sapo.mobile.android.connect;
+
+/**
+ * Compile-time stand-in for the R class that aapt generates for the library project, so that the library sources can be
+ * compiled for the JVM benchmarks. The identifiers are never resolved: the benchmarked code does not touch the
+ * Android resources. Add the new fields here when the library references a new resource.
+ */
+public final class R {
+
+	public static final class array {
+		public static int pt_sapo_mobile_android_connect_Log_tagLevels = 0x7f050000;
+	}
+
+	public static final class id {
+		public static int customDialog_layoutRoot = 0x7f060000;
+		public static int customDialog_nokBtn = 0x7f060001;
+		public static int customDialog_okBtn = 0x7f060002;
+		public static int customDialog_text = 0x7f060003;
+		public static int toast_layout_root = 0x7f060004;
+		public static int toast_text = 0x7f060005;
+		public static int webviewContainer = 0x7f060006;
+	}
+
+	public static final class layout {
+		public static int connect = 0x7f030000;
+		public static int my_custom_alert_dialog = 0x7f030001;
+		public static int my_custom_alert_dialog_one_button = 0x7f030002;
+		public static int my_custom_toast = 0x7f030003;
+	}
+
+	public static final class string {
+		public static int pt_sapo_mobile_android_connect_Log_level = 0x7f040000;
+		public static int pt_sapo_mobile_android_connect_Log_sink = 0x7f040001;
+		public static int pt_sapo_mobile_android_connect_Log_sink_capacity = 0x7f040002;
+		public static int pt_sapo_mobile_android_connect_Log_sink_fileName = 0x7f040003;
+		public static int pt_sapo_mobile_android_connect_Log_sink_maxFileSize = 0x7f040004;
+		public static int pt_sapo_mobile_android_connect_Log_sink_maxFiles = 0x7f040005;
+		public static int sapo_connect_access_token_url = 0x7f040006;
+		public static int sapo_connect_authorization_denied = 0x7f040007;
+		public static int sapo_connect_authorize_url = 0x7f040008;
+		public static int sapo_connect_callback_url = 0x7f040009;
+		public static int sapo_connect_consumer_key = 0x7f04000a;
+		public static int sapo_connect_consumer_secret = 0x7f04000b;
+		public static int sapo_connect_denied = 0x7f04000c;
+		public static int sapo_connect_dialog_button_ok = 0x7f04000d;
+		public static int sapo_connect_error_button_cancel = 0x7f04000e;
+		public static int sapo_connect_error_button_try_again = 0x7f04000f;
+		public static int sapo_connect_error_connection_mandatory = 0x7f040010;
+		public static int sapo_connect_error_page_button = 0x7f040011;
+		public static int sapo_connect_error_page_text = 0x7f040012;
+		public static int sapo_connect_registration_incomplete = 0x7f040013;
+		public static int sapo_connect_request_token_url = 0x7f040014;
+		public static int sapo_connect_scheme = 0x7f040015;
+		public static int sapo_connect_time_offset = 0x7f040016;
+		public static int sapo_connect_url = 0x7f040017;
+		public static int sapo_network_client_id = 0x7f040018;
+		public static int sapo_network_error_auth = 0x7f040019;
+		public static int sapo_network_error_oauth = 0x7f04001a;
+		public static int sapo_network_no_network_connection = 0x7f04001b;
+		public static int sapo_network_no_server_connection = 0x7f04001c;
+	}
+
+}
@@ -0,0 +1,104 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of a SAPO Photos image list response, as the typical RequestObject does (the whole response in a
+ * String, parsed with org.json), against the JsonStreamReader used by the JsonStreamRequestObject, reading the same
+ * fields from the response bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JsonParsingBenchmark {
+
+	/**
+	 * The number of images in the response.
+	 */
+	@Param({"20", "500"})
+	public int imageCount;
+
+	private byte[] response;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder sb = new StringBuilder("{\"rsp\":{\"stat\":\"ok\",\"total\":").append(imageCount).append(",\"images\":[");
+		for (int i = 0; i < imageCount; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":").append(100000 + i)
+					.append(",\"title\":\"Praia da Rocha \\u00e9 ").append(i).append('"')
+					.append(",\"description\":\"Pôr do sol em Portimão, Algarve\"")
+					.append(",\"url\":\"http://fotos.sapo.pt/rui/pic/").append(Integer.toHexString(i * 7919)).append("\"")
+					.append(",\"width\":1024,\"height\":768,\"public\":true")
+					.append(",\"tags\":[\"praia\",\"algarve\",\"verão\"]}");
+		}
+		response = sb.append("]}}").toString().getBytes("UTF-8");
+
+		if (streamReader() != treeParser()) {
+			throw new IllegalStateException("The parsers don't agree");
+		}
+	}
+
+	@Benchmark
+	public long treeParser() throws IOException {
+		try {
+			JSONArray images = new JSONObject(new String(response, "UTF-8")).getJSONObject("rsp").getJSONArray("images");
+			long checksum = 0;
+			for (int i = 0; i < images.length(); i++) {
+				JSONObject image = images.getJSONObject(i);
+				checksum += image.getLong("id") + image.getString("title").length() + image.getString("url").length();
+			}
+			return checksum;
+		} catch (JSONException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	@Benchmark
+	public long streamReader() throws IOException {
+		JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"));
+		long checksum = 0;
+		if (JsonStreamRequestObject.findArray(reader, "images")) {
+			while (reader.hasNext()) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (name.equals("id")) {
+						checksum += reader.nextLong();
+					} else if (name.equals("title") || name.equals("url")) {
+						checksum += reader.nextString().length();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			reader.endArray();
+		}
+		return checksum;
+	}
+
+}
@@ -0,0 +1,199 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HTTP;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pt.sapo.mobile.android.connect.http.XmlPostEntity;
+import pt.sapo.mobile.android.connect.network.NetworkOperations.HttpMethod;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+
+/**
+ * Measures the XML POST body building of the RequestObject helpers (getRootObject(), getComplexType(),
+ * getParamXmlString() and getEsbCredentialsXmlString()), for an ESB request like the ones of the SAPO Photos services,
+ * and the RequestObject.toString() used by the request dumps. The sendStringEntity() and sendStreamedEntity()
+ * benchmarks compare the bytes sent to the connection by the StringEntity of getXmlPost() and by the XmlPostEntity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestObjectBenchmark {
+
+	/**
+	 * The number of items (complex types) in the request body.
+	 */
+	@Param({"1", "10"})
+	public int itemCount;
+
+	private EsbRequestObject requestObject;
+	private XmlPostEntity xmlPostEntity;
+
+	/**
+	 * Stands for the connection output stream.
+	 */
+	private final OutputStream connection = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Setup
+	public void setup() {
+		requestObject = new EsbRequestObject(itemCount);
+		xmlPostEntity = new XmlPostEntity(requestObject);
+	}
+
+	@Benchmark
+	public String getXmlPost() {
+		return requestObject.getXmlPost();
+	}
+
+	@Benchmark
+	public void sendStringEntity() throws IOException {
+		new StringEntity(requestObject.getXmlPost(), HTTP.UTF_8).writeTo(connection);
+	}
+
+	@Benchmark
+	public void sendStreamedEntity() throws IOException {
+		xmlPostEntity.writeTo(connection);
+	}
+
+	@Benchmark
+	public String getParamXmlString() {
+		return requestObject.getParamXmlString("Title", "Praia da Rocha");
+	}
+
+	@Benchmark
+	public String getEsbCredentialsXmlString() {
+		return requestObject.getEsbCredentialsXmlString(EsbRequestObject.ESB_TOKEN);
+	}
+
+	@Benchmark
+	public String requestObjectToString() {
+		return requestObject.toString();
+	}
+
+
+	// ---------------------------------------------------------------------------------------------------------- //
+	//                                            REQUEST OBJECT                                                  //
+	// ---------------------------------------------------------------------------------------------------------- //
+
+	/**
+	 * A POST RequestObject that builds its SOAP body with the RequestObject helpers, as the ESB services do, and writes
+	 * the same body with the XmlBodyWriter.
+	 */
+	private static class EsbRequestObject extends RequestObject {
+
+		private static final String SCHEMA = "http://services.sapo.pt/Metadata/Photos";
+		private static final String ESB_TOKEN = "e4b1c8a0f55d4e2a9c6f3b7d1a2e8c90d3f6a9b2c5e8f1a4d7b0c3e6f9a2b5c8";
+
+		private final int itemCount;
+
+		private EsbRequestObject(int itemCount) {
+			this.itemCount = itemCount;
+		}
+
+		@Override
+		public String toUrlParamaters() {
+			return null;
+		}
+
+		@Override
+		public boolean requiresOAuth() {
+			return false;
+		}
+
+		@Override
+		public Object[] getOptionalParameters() {
+			return null;
+		}
+
+		@Override
+		public String getBaseUrl() {
+			return "https://" + Services.SAPO_SERVICES_HOST + "/Photos/";
+		}
+
+		@Override
+		public boolean requiresExplicitJsonResponse() {
+			return true;
+		}
+
+		@Override
+		public boolean requiresClientId() {
+			return true;
+		}
+
+		@Override
+		public Integer getTtlString() {
+			return null;
+		}
+
+		@Override
+		public HttpMethod getHttpMethod() {
+			return HttpMethod.POST;
+		}
+
+		@Override
+		public String getXmlPost() {
+			String[] items = new String[itemCount];
+			for (int i = 0; i < itemCount; i++) {
+				items[i] = getComplexType("Image",
+						getParamXmlString("Id", String.valueOf(1000 + i)),
+						getParamXmlString("Title", "Praia da Rocha"),
+						getParamXmlString("Description", "Portimão, Algarve - &lt;pôr do sol&gt;"),
+						getParamXmlString("Tags", "praia algarve verão"));
+			}
+			return getRootObject("ImageEditList", SCHEMA,
+					getEsbCredentialsXmlString(ESB_TOKEN),
+					getComplexType("ImageList", items));
+		}
+
+		@Override
+		public boolean streamsXmlPost() {
+			return true;
+		}
+
+		@Override
+		public void writeXmlPost(XmlBodyWriter writer) throws IOException {
+			writer.startRootObject("ImageEditList", SCHEMA).esbCredentials(ESB_TOKEN).startComplexType("ImageList");
+			for (int i = 0; i < itemCount; i++) {
+				writer.startComplexType("Image")
+						.param("Id", String.valueOf(1000 + i))
+						.param("Title", "Praia da Rocha")
+						.param("Description", "Portimão, Algarve - <pôr do sol>")
+						.param("Tags", "praia algarve verão")
+						.end();
+			}
+		}
+
+		@Override
+		public NetworkObject executeOperations(Context context, Handler handler, OnNetworkResultsListener callback, boolean unthreaded, String responseString, Cursor cursor, RequestObject requestObject) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the reading of a response body as the library did before (EntityUtils.toString()), against the ResponseBody
+ * read into the buffers of the BufferPool, pre-sized from the Content-Length, and decoded with asString(). Run with
+ * -prof gc to compare the bytes allocated per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResponseBodyBenchmark {
+
+	/**
+	 * The size of the response, in bytes.
+	 */
+	@Param({"4096", "65536"})
+	public int responseSize;
+
+	private byte[] response;
+	private File spillDirectory;
+
+	@Setup
+	public void setup() {
+		response = new byte[responseSize];
+		for (int i = 0; i < responseSize; i++) {
+			response[i] = (byte) ('a' + i % 26);
+		}
+		spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	@Benchmark
+	public String entityUtilsToString() throws IOException {
+		InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(response), responseSize);
+		return EntityUtils.toString(entity, "UTF-8");
+	}
+
+	@Benchmark
+	public String pooledResponseBody() throws IOException {
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(response), responseSize, null, spillDirectory, ResponseBody.DEFAULT_SPILL_THRESHOLD);
+		try {
+			return body.asString();
+		} finally {
+			body.close();
+		}
+	}
+
+	@Benchmark
+	public long pooledResponseBodyBytes() throws IOException {
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(response), responseSize, null, spillDirectory, ResponseBody.DEFAULT_SPILL_THRESHOLD);
+		try {
+			return body.asByteBuffer().getLong(0);
+		} finally {
+			body.close();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package pt.sapo.mobile.android.connect.network;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the URL building of NetworkOperations: the buildUrlWithParamsString() for the GET requests, with and without
+ * the user parameters, and the buildUrl() for the POST requests, against the compiled UrlTemplate used for every
+ * WebService request.
+ *
+ * The Client ID is the one in service.xml, and the parameters are URL encoded once, in the setup, as the
+ * RequestObject.toUrlParamaters() implementations return them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UrlBuildingBenchmark {
+
+	/**
+	 * The Client ID of service.xml (sapo_network_client_id).
+	 */
+	private static final String CLIENT_ID = "bffbd22e5d9acced9f8a9e6c606d9043f72df00770f4ab9714c9093b470e6edeb5a119d704e9fffee5a740a0c64f553c8e971e7feb93fe10dd80414f8221de787bc758a068aa691f19fd84d769b7551eb09f9d77e778a8361022e1fee687bd96ceed37159147964dc5ec814fac72088b81d16bb0724cbe21a4a030fc97f0f7ec68fcf8ecf4c1973ff4d2c31a4d0a74441e8bbc501eff2b34cccd8c24c09b35e3";
+
+	private static final String HOST = "https://" + Services.SAPO_SERVICES_HOST + "/Photos/";
+	private static final String WS_NAME = "ImageGetListByUser";
+
+	/**
+	 * The number of user parameters in the URL.
+	 */
+	@Param({"2", "8"})
+	public int paramCount;
+
+	private String paramsString;
+	private UrlTemplate urlTemplate;
+
+	@Setup
+	public void setup() throws UnsupportedEncodingException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < paramCount; i++) {
+			if (i > 0) {
+				sb.append('&');
+			}
+			sb.append("param").append(i).append('=').append(URLEncoder.encode("São Paulo & Lisboa " + i, "UTF-8"));
+		}
+		paramsString = sb.toString();
+		urlTemplate = new UrlTemplate(HOST, WS_NAME, true, CLIENT_ID);
+	}
+
+	@Benchmark
+	public String buildUrlWithParams() {
+		return NetworkOperations.buildUrlWithParamsString(HOST, WS_NAME, true, true, paramsString, CLIENT_ID);
+	}
+
+	@Benchmark
+	public String buildUrlWithoutParams() {
+		return NetworkOperations.buildUrlWithParamsString(HOST, WS_NAME, true, true, null, CLIENT_ID);
+	}
+
+	@Benchmark
+	public String buildUrl() {
+		return NetworkOperations.buildUrl(HOST, WS_NAME, true);
+	}
+
+	@Benchmark
+	public String templateWithParams() {
+		return urlTemplate.build(paramsString);
+	}
+
+	@Benchmark
+	public String templateWithoutParams() {
+		return urlTemplate.build(null);
+	}
+
+	@Benchmark
+	public String templatePostUrl() {
+		return urlTemplate.buildPostUrl();
+	}
+
+}
@@ -0,0 +1,65 @@
+package pt.sapo.mobile.android.connect.system;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a debug log call that is suppressed by the default WARN level, as in every production request: with the
+ * message concatenated by the caller, with the lazy format overloads and with a MessageBuilder field. The request code
+ * is a primitive, as at the real call sites. The lazy versions should show no allocation in the GC profiler
+ * (gc.alloc.rate.norm), except for the boxing of the primitive passed to the Object overload, which the primitive
+ * overload avoids.
+ *
+ * Only the suppressed levels can be measured on the JVM, since the enabled ones go to android.util.Log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LogBenchmark {
+
+	private static final String TAG = "LogBenchmark";
+
+	private final String responseString = "{\"rsp\":{\"stat\":\"ok\",\"images\":[{\"id\":1,\"title\":\"Praia da Rocha\"}]}}";
+	private int requestCode = 1000;
+	private long responseLength = 4096;
+
+	private final Log.MessageBuilder messageBuilder = new Log.MessageBuilder() {
+		@Override
+		public String buildMessage() {
+			return "callWebService() - Request code=" + requestCode + "; Response string=" + responseString;
+		}
+	};
+
+	@Benchmark
+	public void suppressedConcatenation() {
+		Log.d(TAG, "callWebService() - Request code=" + requestCode + "; Response string=" + responseString);
+	}
+
+	@Benchmark
+	public void suppressedFormat() {
+		Log.d(TAG, "callWebService() - Request code=%s; Response string=%s", requestCode, responseString);
+	}
+
+	@Benchmark
+	public void suppressedPrimitiveFormat() {
+		Log.d(TAG, "callWebService() - Request code=%d; Response length=%d", requestCode, responseLength);
+	}
+
+	@Benchmark
+	public void suppressedMessageBuilder() {
+		Log.d(TAG, messageBuilder);
+	}
+
+}
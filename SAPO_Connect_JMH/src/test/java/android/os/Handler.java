@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Test stand-in for the android.jar stub. Runs the posted Runnables right away, in the posting thread.
+ */
+public class Handler {
+
+	public Handler(Looper looper) {}
+
+	public final boolean post(Runnable runnable) {
+		runnable.run();
+		return true;
+	}
+
+}
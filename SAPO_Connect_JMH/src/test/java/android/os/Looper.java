@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * Test stand-in for the android.jar stub. There is a single main Looper, and no thread has a Looper, so the
+ * notifications are always posted to the main Handler.
+ */
+public final class Looper {
+
+	private static final Looper mainLooper = new Looper();
+
+	private Looper() {}
+
+	public static Looper getMainLooper() {
+		return mainLooper;
+	}
+
+	public static Looper myLooper() {
+		return null;
+	}
+
+}
@@ -0,0 +1,135 @@
+package pt.sapo.mobile.android.connect.system;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Write failures and rotation of the RingBufferLogSink. The writer thread drains the buffer once per second, or when
+ * the sink is closed, so the tests wait for the file contents instead of sleeping.
+ */
+public class RingBufferLogSinkTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "test.log");
+	}
+
+	@Test
+	public void keepsWritingAfterAFailureAtTheEndOfABatch() throws Exception {
+		final AtomicInteger failingWrites = new AtomicInteger();
+		RingBufferLogSink sink = new RingBufferLogSink(file, 16, 1024 * 1024, 2) {
+			private boolean opened;
+
+			@Override
+			Writer openWriter() throws IOException {
+				if (opened) {
+					return super.openWriter();
+				}
+				opened = true;
+				// The first record is written, the second one fails and closes the writer.
+				return new Writer() {
+					@Override
+					public void write(char[] buffer, int offset, int count) throws IOException {
+						if (failingWrites.incrementAndGet() == 2) {
+							throw new IOException("Disk full");
+						}
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+			}
+		};
+		sink.write(Log.INFO, "Test", "first", null);
+		sink.write(Log.INFO, "Test", "second", null);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (failingWrites.get() < 2) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("The batch was never written");
+			}
+			Thread.sleep(10);
+		}
+
+		// The writer thread is still alive, and the next record opens the file again.
+		sink.write(Log.INFO, "Test", "third", null);
+		sink.close();
+		awaitContents("third");
+	}
+
+	@Test
+	public void rotatesOnTheEncodedSize() throws Exception {
+		char[] accents = new char[60];
+		Arrays.fill(accents, 'é');
+		String message = new String(accents);
+
+		// Each line has about 85 chars, but 145 bytes in UTF-8, above the maximum size of 100 bytes.
+		RingBufferLogSink sink = new RingBufferLogSink(file, 16, 100, 3);
+		sink.write(Log.INFO, "Test", message, null);
+		sink.write(Log.INFO, "Test", message, null);
+		sink.close();
+		awaitContents(message);
+
+		File rotated = new File(file.getPath() + ".1");
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!rotated.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue("The file wasn't rotated", rotated.exists());
+		assertTrue(read(rotated).contains(message));
+	}
+
+	/**
+	 * Waits until the log file contains the text.
+	 */
+	private void awaitContents(String text) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!file.exists() || !read(file).contains(text)) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("The log file doesn't contain: " + text);
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			char[] buffer = new char[1024];
+			int read;
+			while ((read = reader.read(buffer)) > 0) {
+				sb.append(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,229 @@
+package pt.sapo.mobile.android.connect.system.sharedpreference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Replay, torn and corrupted records, and compaction of the MappedSharedPreferences log. Each test reopens the file
+ * with a new instance, as the process would after a restart.
+ */
+public class MappedSharedPreferencesTest {
+
+	/**
+	 * The file header and the record header sizes, as in MappedSharedPreferences.
+	 */
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "prefs.kv");
+	}
+
+	@Test
+	public void replaysAllTheValueTypes() {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit()
+				.putString("string", "value")
+				.putInt("int", 42)
+				.putLong("long", Long.MAX_VALUE)
+				.putFloat("float", 1.5f)
+				.putBoolean("boolean", true)
+				.putStringSet("set", new HashSet<String>(Arrays.asList("a", "b")))
+				.putString("removed", "value")
+				.commit());
+		assertTrue(preferences.edit().remove("removed").putInt("int", 43).commit());
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals("value", reopened.getString("string", null));
+		assertEquals(43, reopened.getInt("int", 0));
+		assertEquals(Long.MAX_VALUE, reopened.getLong("long", 0));
+		assertEquals(1.5f, reopened.getFloat("float", 0), 0);
+		assertTrue(reopened.getBoolean("boolean", false));
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), reopened.getStringSet("set", null));
+		assertFalse(reopened.contains("removed"));
+		assertEquals(preferences.getAll(), reopened.getAll());
+	}
+
+	@Test
+	public void replaysAClear() {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit().putString("old", "value").commit());
+		assertTrue(preferences.edit().clear().putString("new", "value").commit());
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertFalse(reopened.contains("old"));
+		assertEquals("value", reopened.getString("new", null));
+	}
+
+	@Test
+	public void discardsATornRecord() throws IOException {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit().putString("first", "value").commit());
+		assertTrue(preferences.edit().putString("second", "value").commit());
+
+		// A crash before the length is written leaves it at 0.
+		RandomAccessFile log = new RandomAccessFile(file, "rw");
+		try {
+			log.seek(lastRecordPosition(log));
+			log.writeInt(0);
+		} finally {
+			log.close();
+		}
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals("value", reopened.getString("first", null));
+		assertFalse(reopened.contains("second"));
+
+		// The next record is appended over the torn one.
+		assertTrue(reopened.edit().putString("third", "value").commit());
+		MappedSharedPreferences reopenedAgain = new MappedSharedPreferences(file);
+		assertEquals("value", reopenedAgain.getString("first", null));
+		assertFalse(reopenedAgain.contains("second"));
+		assertEquals("value", reopenedAgain.getString("third", null));
+	}
+
+	@Test
+	public void discardsACorruptedRecordAndTheRest() throws IOException {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit().putString("first", "value").commit());
+		assertTrue(preferences.edit().putString("second", "value").commit());
+		assertTrue(preferences.edit().putString("third", "value").commit());
+
+		RandomAccessFile log = new RandomAccessFile(file, "rw");
+		try {
+			// Flips the last payload byte of the second record.
+			int position = HEADER_SIZE + RECORD_HEADER_SIZE + readLength(log, HEADER_SIZE);
+			int end = position + RECORD_HEADER_SIZE + readLength(log, position) - 1;
+			log.seek(end);
+			int last = log.read();
+			log.seek(end);
+			log.write(last ^ 0xFF);
+		} finally {
+			log.close();
+		}
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals("value", reopened.getString("first", null));
+		assertFalse(reopened.contains("second"));
+		assertFalse(reopened.contains("third"));
+	}
+
+	@Test
+	public void startsAnEmptyLogOverAnInvalidFile() throws IOException {
+		RandomAccessFile log = new RandomAccessFile(file, "rw");
+		try {
+			log.writeInt(0xCAFEBABE);
+		} finally {
+			log.close();
+		}
+
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.getAll().isEmpty());
+		assertTrue(preferences.edit().putString("key", "value").commit());
+		assertEquals("value", new MappedSharedPreferences(file).getString("key", null));
+	}
+
+	@Test
+	public void compactsTheStaleEntries() {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		for (int i = 0; i < 300; i++) {
+			assertTrue(preferences.edit().putInt("counter", i).putString("other", "value").commit());
+		}
+
+		// Without the compactions, 300 records would not fit the initial 4 KB.
+		assertEquals(4096, file.length());
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals(299, reopened.getInt("counter", -1));
+		assertEquals("value", reopened.getString("other", null));
+		assertEquals(2, reopened.getAll().size());
+	}
+
+	@Test
+	public void growsTheLogForALargeRecord() {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit().putString("small", "value").commit());
+		String large = repeat('x', 10000);
+		assertTrue(preferences.edit().putString("large", large).commit());
+		assertTrue(file.length() > 10000);
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals("value", reopened.getString("small", null));
+		assertEquals(large, reopened.getString("large", null));
+	}
+
+	@Test
+	public void retriesAFailedCompaction() {
+		MappedSharedPreferences preferences = new MappedSharedPreferences(file);
+		assertTrue(preferences.edit().putString("before", "value").commit());
+
+		// A directory in the place of the temporary file fails the compaction.
+		File tempFile = new File(file.getPath() + ".tmp");
+		assertTrue(tempFile.mkdir());
+		String large = repeat('x', 10000);
+		assertFalse(preferences.edit().putString("large", large).commit());
+		assertFalse(preferences.edit().putString("during", "value").commit());
+		assertEquals(large, preferences.getString("large", null));
+
+		// The next record rewrites the log with the changes that could not be written.
+		assertTrue(tempFile.delete());
+		assertTrue(preferences.edit().putString("after", "value").commit());
+
+		MappedSharedPreferences reopened = new MappedSharedPreferences(file);
+		assertEquals("value", reopened.getString("before", null));
+		assertEquals(large, reopened.getString("large", null));
+		assertEquals("value", reopened.getString("during", null));
+		assertEquals("value", reopened.getString("after", null));
+
+		// And the log keeps working.
+		assertTrue(preferences.edit().putString("last", "value").commit());
+		assertEquals("value", new MappedSharedPreferences(file).getString("last", null));
+	}
+
+	/**
+	 * @return The position of the last record of the log.
+	 */
+	private static int lastRecordPosition(RandomAccessFile log) throws IOException {
+		int position = HEADER_SIZE;
+		int last = -1;
+		int length;
+		while ((length = readLength(log, position)) > 0) {
+			last = position;
+			position += RECORD_HEADER_SIZE + length;
+		}
+		return last;
+	}
+
+	private static int readLength(RandomAccessFile log, int position) throws IOException {
+		if (position + 4 > log.length()) {
+			return 0;
+		}
+		log.seek(position);
+		return log.readInt();
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+}